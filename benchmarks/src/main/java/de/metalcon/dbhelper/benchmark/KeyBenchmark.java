@@ -0,0 +1,75 @@
+package de.metalcon.dbhelper.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.metalcon.dbhelper.LevelDbHandler;
+import de.metalcon.exceptions.MetalconException;
+
+/**
+ * generateKey for every key type
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyBenchmark {
+
+    private LevelDbHandler handler;
+
+    private long counter = 0;
+
+    @Setup
+    public void setup() throws IOException, MetalconException {
+        handler = TempDb.handler();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        TempDb.close();
+    }
+
+    @Benchmark
+    public byte[] longKey() {
+        return handler.generateKey(++counter);
+    }
+
+    @Benchmark
+    public byte[] intKey() {
+        return handler.generateKey((int) ++counter);
+    }
+
+    @Benchmark
+    public byte[] shortKey() {
+        return handler.generateKey((short) ++counter);
+    }
+
+    @Benchmark
+    public byte[] stringKey() {
+        return handler.generateKey("user:4711");
+    }
+
+    @Benchmark
+    public byte[] nonAsciiStringKey() {
+        return handler.generateKey("Gr\u00fc\u00dfe aus K\u00f6ln");
+    }
+
+    @Benchmark
+    public byte[] compoundKey() {
+        return handler.generateKey(4711L, (int) ++counter);
+    }
+}
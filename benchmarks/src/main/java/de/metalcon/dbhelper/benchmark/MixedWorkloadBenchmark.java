@@ -0,0 +1,95 @@
+package de.metalcon.dbhelper.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.metalcon.dbhelper.LevelDbHandler;
+import de.metalcon.exceptions.MetalconException;
+
+/**
+ * Concurrent readers and writers on one handler: 6 threads reading counters
+ * and sets while 2 threads update them
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class MixedWorkloadBenchmark {
+
+    private static final int KEYS = 100000;
+
+    private static final int SETS = 1000;
+
+    @Param({
+        "false", "true"
+    })
+    public boolean cache;
+
+    private LevelDbHandler handler;
+
+    @Setup
+    public void setup() throws IOException, MetalconException {
+        handler = TempDb.handler();
+        for (long i = 0; i < KEYS; i++) {
+            handler.put(i, i);
+        }
+        for (long i = 0; i < SETS; i++) {
+            for (long member = 0; member < 100; member++) {
+                handler.addToSet(-1 - i, member);
+            }
+        }
+        if (cache) {
+            handler.enableCache(64L << 20);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        TempDb.close();
+    }
+
+    private static long random(final int bound) {
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public long read() {
+        if (random(4) == 0) {
+            return handler.setContainsElement(-1 - random(SETS), random(200))
+                    ? 1 : 0;
+        }
+        return handler.getLongOrDefault(random(KEYS), -1);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void write() {
+        if (random(4) == 0) {
+            handler.addToSet(-1 - random(SETS), random(200));
+        } else {
+            long key = random(KEYS);
+            handler.put(key, key + 1);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package de.metalcon.dbhelper.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.metalcon.dbhelper.ElementNotFoundException;
+import de.metalcon.dbhelper.LevelDbHandler;
+import de.metalcon.exceptions.MetalconException;
+
+/**
+ * Typed put and get overloads on random keys of a preloaded DB
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PutGetBenchmark {
+
+    @Param({
+        "100000"
+    })
+    public int keys;
+
+    private LevelDbHandler longs;
+
+    private LevelDbHandler ints;
+
+    private LevelDbHandler shorts;
+
+    private LevelDbHandler booleans;
+
+    private LevelDbHandler strings;
+
+    private LevelDbHandler arrays;
+
+    private long[] array;
+
+    @Setup
+    public void setup() throws IOException, MetalconException {
+        longs = TempDb.handler();
+        ints = TempDb.handler();
+        shorts = TempDb.handler();
+        booleans = TempDb.handler();
+        strings = TempDb.handler();
+        arrays = TempDb.handler();
+        array = new long[16];
+        for (int i = 0; i < keys; i++) {
+            longs.put((long) i, (long) i);
+            longs.put("key" + i, (long) i);
+            ints.put((long) i, i);
+            shorts.put((long) i, (short) i);
+            booleans.put((long) i, i % 2 == 0);
+            strings.put((long) i, "value" + i);
+            arrays.put((long) i, array);
+        }
+        for (int i = 0; i < Short.MAX_VALUE; i++) {
+            longs.put(i, (long) i);
+            longs.put((short) i, (long) i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        TempDb.close();
+    }
+
+    private long key() {
+        return ThreadLocalRandom.current().nextInt(keys);
+    }
+
+    @Benchmark
+    public void putLong() {
+        long key = key();
+        longs.put(key, key);
+    }
+
+    @Benchmark
+    public long getLong() throws ElementNotFoundException {
+        return longs.getLong(key());
+    }
+
+    @Benchmark
+    public long getLongMissing() {
+        return longs.getLongOrDefault(-1 - key(), 0L);
+    }
+
+    @Benchmark
+    public void putLongIntKey() {
+        int key = (int) key() % Short.MAX_VALUE;
+        longs.put(key, (long) key);
+    }
+
+    @Benchmark
+    public long getLongIntKey() throws ElementNotFoundException {
+        return longs.getLong((int) key() % Short.MAX_VALUE);
+    }
+
+    @Benchmark
+    public void putLongShortKey() {
+        short key = (short) (key() % Short.MAX_VALUE);
+        longs.put(key, (long) key);
+    }
+
+    @Benchmark
+    public long getLongShortKey() throws ElementNotFoundException {
+        return longs.getLong((short) (key() % Short.MAX_VALUE));
+    }
+
+    @Benchmark
+    public void putLongStringKey() {
+        long key = key();
+        longs.put("key" + key, key);
+    }
+
+    @Benchmark
+    public long getLongStringKey() throws ElementNotFoundException {
+        return longs.getLong("key" + key());
+    }
+
+    @Benchmark
+    public void putInt() {
+        long key = key();
+        ints.put(key, (int) key);
+    }
+
+    @Benchmark
+    public int getInt() throws ElementNotFoundException {
+        return ints.getInt(key());
+    }
+
+    @Benchmark
+    public void putShort() {
+        long key = key();
+        shorts.put(key, (short) key);
+    }
+
+    @Benchmark
+    public short getShort() throws ElementNotFoundException {
+        return shorts.getShort(key());
+    }
+
+    @Benchmark
+    public void putBoolean() {
+        long key = key();
+        booleans.put(key, key % 2 == 0);
+    }
+
+    @Benchmark
+    public boolean getBoolean() throws ElementNotFoundException {
+        return booleans.getBoolean(key());
+    }
+
+    @Benchmark
+    public void putString() {
+        long key = key();
+        strings.put(key, "value" + key);
+    }
+
+    @Benchmark
+    public String getString() {
+        return strings.getString(key());
+    }
+
+    @Benchmark
+    public void putLongs() {
+        arrays.put(key(), array);
+    }
+
+    @Benchmark
+    public long[] getLongs() {
+        return arrays.getLongs(key());
+    }
+}
@@ -0,0 +1,92 @@
+package de.metalcon.dbhelper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.metalcon.dbhelper.LongSetSerializer;
+import de.metalcon.dbhelper.Serializer;
+
+/**
+ * Round trips of all value types through Serializer and LongSetSerializer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    @Param({
+        "10", "1000", "100000"
+    })
+    public int arrayLength;
+
+    private long[] set;
+
+    private byte[] encodedSet;
+
+    private String string;
+
+    @Setup
+    public void setup() {
+        set = new long[arrayLength];
+        for (int i = 0; i < arrayLength; i++) {
+            set[i] = i * 7L;
+        }
+        encodedSet = LongSetSerializer.serialize(set);
+        string = "metalcon-" + arrayLength + "-\u00fc\u00df";
+    }
+
+    @Benchmark
+    public long longRoundTrip() {
+        return Serializer.deserializeLong(Serializer.serialize(4711L));
+    }
+
+    @Benchmark
+    public int intRoundTrip() {
+        return Serializer.deserializeInt(Serializer.serialize(4711));
+    }
+
+    @Benchmark
+    public short shortRoundTrip() {
+        return Serializer.deserializeShort(Serializer
+                .serialize((short) 4711));
+    }
+
+    @Benchmark
+    public boolean booleanRoundTrip() {
+        return Serializer.deserializeBoolean(Serializer.serialize(true));
+    }
+
+    @Benchmark
+    public String stringRoundTrip() {
+        return Serializer.deserializeString(Serializer.serialize(string));
+    }
+
+    @Benchmark
+    public long[] longsRoundTrip() {
+        return Serializer.deserializeLongs(Serializer.serialize(set));
+    }
+
+    @Benchmark
+    public long[] setRoundTrip() {
+        return LongSetSerializer.deserialize(LongSetSerializer.serialize(set));
+    }
+
+    @Benchmark
+    public boolean setContains() {
+        return LongSetSerializer.contains(encodedSet, 7L * (arrayLength / 2));
+    }
+}
@@ -0,0 +1,100 @@
+package de.metalcon.dbhelper.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.metalcon.dbhelper.LevelDbHandler;
+import de.metalcon.exceptions.MetalconException;
+
+/**
+ * Set updates and membership checks for growing set sizes, with the set
+ * rewritten on every update and in append mode (see enableSetDeltas)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SetBenchmark {
+
+    private static final long SET = 1;
+
+    @Param({
+        "10", "1000", "100000", "1000000"
+    })
+    public int setSize;
+
+    @Param({
+        "false", "true"
+    })
+    public boolean setDeltas;
+
+    private LevelDbHandler handler;
+
+    @Setup
+    public void setup() throws IOException, MetalconException {
+        handler = TempDb.handler();
+        long[] members = new long[setSize];
+        for (int i = 0; i < setSize; i++) {
+            members[i] = 2L * i;
+        }
+        handler.put(SET, members);
+
+        /*
+         * Converts the stored array into the set format
+         */
+        handler.addToSet(SET, -1);
+        if (setDeltas) {
+            handler.enableSetDeltas(64);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        TempDb.close();
+    }
+
+    private long member() {
+        return 2L * ThreadLocalRandom.current().nextInt(setSize);
+    }
+
+    /**
+     * Adds a new member and removes it again, so the set size stays constant
+     */
+    @Benchmark
+    public boolean addAndRemove() {
+        long member = member() + 1;
+        handler.addToSet(SET, member);
+        return handler.removeFromSet(SET, member);
+    }
+
+    @Benchmark
+    public void addExisting() {
+        handler.addToSet(SET, member());
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return handler.setContainsElement(SET, member());
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return handler.setContainsElement(SET, member() + 1);
+    }
+}
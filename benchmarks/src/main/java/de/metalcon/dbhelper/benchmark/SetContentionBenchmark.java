@@ -0,0 +1,147 @@
+package de.metalcon.dbhelper.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.metalcon.dbhelper.LevelDbHandler;
+import de.metalcon.exceptions.MetalconException;
+
+/**
+ * Throughput of concurrent set updates with 1, 4 and 16 threads. In
+ * "disjoint" every thread updates its own sets, in "shared" all threads update
+ * the same set. Members are added until a set holds MEMBERS of them and then
+ * removed again, so the sets stay small and the scores show contention rather
+ * than set growth.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SetContentionBenchmark {
+
+    private static final int SETS_PER_THREAD = 64;
+
+    private static final long SHARED = -1;
+
+    private static final int MEMBERS = 256;
+
+    private final AtomicLong threads = new AtomicLong();
+
+    private final AtomicLong members = new AtomicLong();
+
+    private LevelDbHandler handler;
+
+    /**
+     * The sets of one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class ThreadSets {
+
+        long first;
+
+        long next;
+
+        @Setup
+        public void setup(final SetContentionBenchmark benchmark) {
+            first = benchmark.threads.getAndIncrement() * SETS_PER_THREAD;
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            next = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException, MetalconException {
+        handler = TempDb.handler();
+    }
+
+    /**
+     * Starts every iteration with empty sets
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        handler.clearPrefix();
+        members.set(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        TempDb.close();
+    }
+
+    /*
+     * Adds or removes member i % MEMBERS of the set: the first MEMBERS calls
+     * fill it, the next MEMBERS calls empty it again
+     */
+    private void update(final long key, final long i) {
+        if (i / MEMBERS % 2 == 0) {
+            handler.addToSet(key, i % MEMBERS);
+        } else {
+            handler.removeFromSet(key, i % MEMBERS);
+        }
+    }
+
+    private void disjoint(final ThreadSets sets) {
+        long i = sets.next++;
+        update(sets.first + i % SETS_PER_THREAD, i / SETS_PER_THREAD);
+    }
+
+    private void shared() {
+        update(SHARED, members.getAndIncrement());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void disjoint01(final ThreadSets sets) {
+        disjoint(sets);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void disjoint04(final ThreadSets sets) {
+        disjoint(sets);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void disjoint16(final ThreadSets sets) {
+        disjoint(sets);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void shared01() {
+        shared();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void shared04() {
+        shared();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void shared16() {
+        shared();
+    }
+}
@@ -0,0 +1,48 @@
+package de.metalcon.dbhelper.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.metalcon.dbhelper.LevelDbHandler;
+import de.metalcon.exceptions.MetalconException;
+
+/**
+ * Opens the levelDB of a benchmark fork in a temporary directory and hands
+ * out handlers with unique prefixes
+ */
+final class TempDb {
+
+    private static final AtomicLong prefixes = new AtomicLong();
+
+    private static boolean initialized = false;
+
+    private TempDb() {
+    }
+
+    /**
+     * @return a new handler, the DB is initialized on the first call
+     */
+    static synchronized LevelDbHandler handler() throws IOException,
+            MetalconException {
+        if (!initialized) {
+            File dir = File.createTempFile("dbhelper-jmh", "");
+            if (!dir.delete()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            LevelDbHandler.initialize(dir.getPath());
+            initialized = true;
+        }
+        return new LevelDbHandler(prefixes.incrementAndGet());
+    }
+
+    /**
+     * Deletes the DB
+     */
+    static synchronized void close() throws IOException {
+        if (initialized) {
+            LevelDbHandler.clearDataBase("Yes I am");
+            initialized = false;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package de.metalcon.dbhelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+/**
+ * Format of the backups written by LevelDbHandler.backup and backupPrefix.
+ * Entries are written in checksummed blocks, so a restore verifies every
+ * block before it is written:
+ *
+ * <pre>
+ * [int MAGIC][byte VERSION][byte flags]
+ * blocks (GZIP compressed if FLAG_GZIP is set):
+ *   [byte type][int length][payload][int CRC32 of type and payload]
+ *
+ * SECTION payload: [byte SHARD|PREFIX][long shard or key prefix][int shards]
+ * ENTRIES payload: ([int key length][key][int value length][value])*
+ * END payload:     [long number of entries]
+ * </pre>
+ *
+ * Entries of a SHARD section are restored into the shard with the same
+ * index, entries of a PREFIX section into the shard of the key prefix.
+ */
+final class BackupFile {
+
+    static final int MAGIC = 0x44424842;
+
+    static final byte VERSION = 1;
+
+    static final byte FLAG_GZIP = 1;
+
+    /*
+     * Block types
+     */
+    private static final byte SECTION = 1;
+
+    private static final byte ENTRIES = 2;
+
+    private static final byte END = 3;
+
+    /*
+     * Section kinds
+     */
+    static final byte SHARD = 0;
+
+    static final byte PREFIX = 1;
+
+    /*
+     * Uncompressed size after which an ENTRIES block is closed
+     */
+    private static final int BLOCK_SIZE = 64 << 10;
+
+    /*
+     * Bytes restored per levelDB write
+     */
+    private static final int RESTORE_BATCH_BYTES = 4 << 20;
+
+    private BackupFile() {
+    }
+
+    /**
+     * Writes a backup, see LevelDbHandler.backup
+     */
+    static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        private final ByteArrayOutputStream block =
+                new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+
+        private final DataOutputStream blockOut = new DataOutputStream(block);
+
+        private final CRC32 crc = new CRC32();
+
+        private long entries = 0;
+
+        /**
+         * @param compress
+         *            whether the blocks are GZIP compressed
+         * @param bytesPerSecond
+         *            maximum rate the file is written with, 0 for no limit
+         */
+        Writer(
+                final File file,
+                final boolean compress,
+                final long bytesPerSecond) throws IOException {
+            OutputStream fileOut = new FileOutputStream(file);
+            try {
+                OutputStream stream =
+                        new BufferedOutputStream(new ThrottledOutputStream(
+                                fileOut, bytesPerSecond), 1 << 16);
+                DataOutputStream header = new DataOutputStream(stream);
+                header.writeInt(MAGIC);
+                header.writeByte(VERSION);
+                header.writeByte(compress ? FLAG_GZIP : 0);
+                if (compress) {
+                    stream = new GZIPOutputStream(stream, 1 << 16);
+                }
+                out = new DataOutputStream(stream);
+            } catch (IOException e) {
+                fileOut.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Starts a section, the following entries are restored into the
+         * shard it defines
+         */
+        void section(final byte kind, final long id, final int shards)
+                throws IOException {
+            flushEntries();
+            blockOut.writeByte(kind);
+            blockOut.writeLong(id);
+            blockOut.writeInt(shards);
+            writeBlock(SECTION);
+        }
+
+        /**
+         * Writes the entries in [from, end) of a snapshot, end may be null
+         *
+         * @return the number of entries written
+         */
+        long entries(final DB db, final ReadOptions options,
+                final byte[] from, final byte[] end) throws IOException {
+            long written = 0;
+            DBIterator iterator = db.iterator(options);
+            try {
+                if (from == null) {
+                    iterator.seekToFirst();
+                } else {
+                    iterator.seek(from);
+                }
+                while (iterator.hasNext()) {
+                    Map.Entry<byte[], byte[]> entry = iterator.next();
+                    byte[] key = entry.getKey();
+                    if (end != null && ByteArrayKey.compare(key, end) >= 0) {
+                        break;
+                    }
+                    byte[] value = entry.getValue();
+                    blockOut.writeInt(key.length);
+                    blockOut.write(key);
+                    blockOut.writeInt(value.length);
+                    blockOut.write(value);
+                    written++;
+                    if (block.size() >= BLOCK_SIZE) {
+                        writeBlock(ENTRIES);
+                    }
+                }
+            } finally {
+                iterator.close();
+            }
+            entries += written;
+            return written;
+        }
+
+        /**
+         * Writes the END block and closes the file
+         */
+        void finish() throws IOException {
+            flushEntries();
+            blockOut.writeLong(entries);
+            writeBlock(END);
+            out.close();
+        }
+
+        /**
+         * @return the number of entries written so far
+         */
+        long getEntryCount() {
+            return entries;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void flushEntries() throws IOException {
+            if (block.size() > 0) {
+                writeBlock(ENTRIES);
+            }
+        }
+
+        private void writeBlock(final byte type) throws IOException {
+            crc.reset();
+            crc.update(type);
+            byte[] payload = block.toByteArray();
+            crc.update(payload);
+            out.writeByte(type);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt((int) crc.getValue());
+            block.reset();
+        }
+    }
+
+    /**
+     * Restores a backup with unsynced batches and syncs every shard it has
+     * written to at the end
+     *
+     * @param shards
+     *            the open shards
+     * @return the number of restored entries
+     * @throws IOException
+     *             if the file is not a backup, is corrupt or incomplete.
+     *             The blocks before the damaged one have been restored.
+     */
+    static long restore(final File file, final DB[] shards)
+            throws IOException {
+        InputStream stream =
+                new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        try {
+            DataInputStream header = new DataInputStream(stream);
+            if (header.readInt() != MAGIC) {
+                throw new IOException(file + " is not a backup");
+            }
+            byte version = header.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported backup version " + version);
+            }
+            if ((header.readByte() & FLAG_GZIP) != 0) {
+                stream = new GZIPInputStream(stream, 1 << 16);
+            }
+            return restore(new DataInputStream(stream), shards);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static long restore(final DataInputStream in, final DB[] shards)
+            throws IOException {
+        boolean[] written = new boolean[shards.length];
+        CRC32 crc = new CRC32();
+        DB db = null;
+        WriteBatch batch = null;
+        int batchBytes = 0;
+        long entries = 0;
+        try {
+            while (true) {
+                byte type;
+                byte[] payload;
+                try {
+                    type = in.readByte();
+                    payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(payload);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        throw new IOException("Backup is corrupt after "
+                                + entries + " entries");
+                    }
+                } catch (EOFException e) {
+                    throw new IOException("Backup is incomplete after "
+                            + entries + " entries");
+                }
+
+                if (type == SECTION) {
+                    if (batch != null) {
+                        db.write(batch, new WriteOptions().sync(false));
+                        batch.close();
+                        batch = null;
+                        batchBytes = 0;
+                    }
+                    int shard = shardOf(payload, shards.length);
+                    db = shards[shard];
+                    written[shard] = true;
+                } else if (type == ENTRIES) {
+                    if (db == null) {
+                        throw new IOException("Backup has no section");
+                    }
+                    if (batch == null) {
+                        batch = db.createWriteBatch();
+                    }
+                    entries += readEntries(payload, batch);
+                    batchBytes += payload.length;
+                    if (batchBytes >= RESTORE_BATCH_BYTES) {
+                        db.write(batch, new WriteOptions().sync(false));
+                        batch.close();
+                        batch = null;
+                        batchBytes = 0;
+                    }
+                } else if (type == END) {
+                    if (batch != null) {
+                        db.write(batch, new WriteOptions().sync(false));
+                    }
+                    if (Serializer.readLong(payload, 0) != entries) {
+                        throw new IOException("Backup holds "
+                                + Serializer.readLong(payload, 0)
+                                + " entries but " + entries + " were read");
+                    }
+                    break;
+                } else {
+                    throw new IOException("Unknown block type " + type);
+                }
+            }
+        } finally {
+            if (batch != null) {
+                batch.close();
+            }
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            if (written[i]) {
+                WriteBatch sync = shards[i].createWriteBatch();
+                try {
+                    shards[i].write(sync, new WriteOptions().sync(true));
+                } finally {
+                    sync.close();
+                }
+            }
+        }
+        return entries;
+    }
+
+    /*
+     * @return the index of the shard a section is restored into
+     */
+    private static int shardOf(final byte[] section, final int shardCount)
+            throws IOException {
+        long id = Serializer.readLong(section, 1);
+        if (section[0] == PREFIX) {
+            return LevelDbHandler.shardIndex(id, shardCount);
+        }
+        int shards = Serializer.readInt(section, 9);
+        if (shards != shardCount) {
+            throw new IOException("A backup of " + shards
+                    + " shards cannot be restored into " + shardCount
+                    + " shards");
+        }
+        return (int) id;
+    }
+
+    /*
+     * Adds the entries of an ENTRIES block to batch
+     *
+     * @return the number of entries
+     */
+    private static int readEntries(final byte[] payload,
+            final WriteBatch batch) {
+        int entries = 0;
+        int pos = 0;
+        while (pos < payload.length) {
+            byte[] key = new byte[Serializer.readInt(payload, pos)];
+            System.arraycopy(payload, pos + 4, key, 0, key.length);
+            pos += 4 + key.length;
+            byte[] value = new byte[Serializer.readInt(payload, pos)];
+            System.arraycopy(payload, pos + 4, value, 0, value.length);
+            pos += 4 + value.length;
+            batch.put(key, value);
+            entries++;
+        }
+        return entries;
+    }
+
+    /*
+     * Limits the rate bytes are written with by sleeping whenever the
+     * written bytes are ahead of the rate
+     */
+    private static final class ThrottledOutputStream extends
+            FilterOutputStream {
+
+        private final long bytesPerSecond;
+
+        private final long started = System.nanoTime();
+
+        private long written = 0;
+
+        ThrottledOutputStream(
+                final OutputStream out,
+                final long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            throttle(1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+                throws IOException {
+            out.write(b, off, len);
+            throttle(len);
+        }
+
+        private void throttle(final int length) throws IOException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            written += length;
+            long due = (long) (written * 1e9 / bytesPerSecond);
+            long ahead = due - (System.nanoTime() - started);
+            if (ahead > 1000000) {
+                try {
+                    Thread.sleep(ahead / 1000000, (int) (ahead % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Backup interrupted");
+                }
+            }
+        }
+    }
+}
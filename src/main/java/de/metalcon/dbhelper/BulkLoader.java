@@ -0,0 +1,774 @@
+package de.metalcon.dbhelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.WriteBatch;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+/**
+ * Loads large amounts of records into one LevelDbHandler, e.g. for initial
+ * loads and migrations. Records are buffered in bounded memory, sorted and
+ * spilled to temporary run files. finish merges the runs, resolves all
+ * records of a key into one value and writes the values in key order with
+ * large unsynced batches. The log is synced and the loaded key range is
+ * compacted at the end.
+ * 
+ * <pre>
+ * BulkLoader loader = handler.createBulkLoader();
+ * for (Like like : likes) {
+ *     loader.addToSet(like.entity, like.user);
+ * }
+ * loader.finish();
+ * </pre>
+ * 
+ * Records of a key are applied in the order they were added: put replaces
+ * the value and the set members added before, addToSet adds to the value put
+ * before or to the stored set. Writes to the loaded keys must not run
+ * concurrently with finish. A load interrupted by a crash should be
+ * repeated. A loader is not thread safe and may be finished once.
+ */
+public final class BulkLoader implements Closeable {
+
+    /**
+     * Default memory used to buffer records before they are spilled
+     */
+    public static final long DEFAULT_MEMORY_LIMIT = 64L << 20;
+
+    /**
+     * Phases reported to a ProgressListener
+     */
+    public enum Phase {
+
+        /**
+         * Records are added, buffered and spilled
+         */
+        SORT,
+
+        /**
+         * Sorted records are merged and written
+         */
+        WRITE,
+
+        /**
+         * The loaded key range is compacted
+         */
+        COMPACT,
+
+        /**
+         * The load has finished
+         */
+        DONE
+    }
+
+    /**
+     * Receives the progress of a load, e.g. to log its throughput
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param phase
+         *            current phase
+         * @param records
+         *            records added (SORT) or keys written (WRITE, COMPACT,
+         *            DONE) so far
+         * @param bytes
+         *            bytes of the records added or values written so far
+         * @param elapsedNanos
+         *            time since the loader was created
+         */
+        void progress(Phase phase, long records, long bytes, long elapsedNanos);
+    }
+
+    /*
+     * Record types
+     */
+    private static final byte PUT = 0;
+
+    private static final byte MEMBER = 1;
+
+    /*
+     * Estimated heap size of a buffered record besides its key and value
+     */
+    private static final int RECORD_OVERHEAD = 64;
+
+    /*
+     * Bytes written per levelDB write
+     */
+    private static final int BATCH_BYTES = 4 << 20;
+
+    /*
+     * Records added between two SORT progress reports
+     */
+    private static final int PROGRESS_INTERVAL = 1 << 20;
+
+    private static final class Record {
+
+        final byte[] key;
+
+        final byte type;
+
+        /*
+         * Serialized value of PUT
+         */
+        final byte[] value;
+
+        /*
+         * Member of MEMBER
+         */
+        final long member;
+
+        Record(
+                final byte[] key,
+                final byte type,
+                final byte[] value,
+                final long member) {
+            this.key = key;
+            this.type = type;
+            this.value = value;
+            this.member = member;
+        }
+    }
+
+    private static final Comparator<Record> BY_KEY = new Comparator<Record>() {
+
+        @Override
+        public int compare(final Record a, final Record b) {
+            return ByteArrayKey.compare(a.key, b.key);
+        }
+    };
+
+    private final LevelDbHandler handler;
+
+    private final DB db;
+
+    private final long memoryLimit;
+
+    private final File tempDirectory;
+
+    private final long started = System.nanoTime();
+
+    private List<Record> buffer = new ArrayList<Record>();
+
+    private long bufferedBytes = 0;
+
+    /*
+     * Spilled runs in the order they were written
+     */
+    private final List<File> runs = new ArrayList<File>();
+
+    private ProgressListener listener = null;
+
+    private long records = 0;
+
+    private long recordBytes = 0;
+
+    private boolean closed = false;
+
+    BulkLoader(
+            final LevelDbHandler handler,
+            final DB db,
+            final long memoryLimit,
+            final File tempDirectory) {
+        if (memoryLimit <= 0) {
+            throw new IllegalArgumentException("memoryLimit must be positive");
+        }
+        this.handler = handler;
+        this.db = db;
+        this.memoryLimit = memoryLimit;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Reports the progress of the load to listener, replacing the previous
+     * listener
+     * 
+     * @return this loader
+     */
+    public BulkLoader setProgressListener(final ProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return the number of records added so far
+     */
+    public long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return the number of runs spilled to disk so far
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Associates the specified value with the specified key when the load is
+     * finished
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this loader
+     */
+    public BulkLoader put(final byte[] key, final String value) {
+        return add(new Record(key, PUT, Serializer.serialize(value), 0));
+    }
+
+    public BulkLoader put(final String key, final String value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final long key, final String value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final int key, final String value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final short key, final String value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the load is
+     * finished
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this loader
+     */
+    public BulkLoader put(final byte[] key, final long value) {
+        return add(new Record(key, PUT, Serializer.serialize(value), 0));
+    }
+
+    public BulkLoader put(final String key, final long value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final long key, final long value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final int key, final long value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final short key, final long value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the load is
+     * finished
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this loader
+     */
+    public BulkLoader put(final byte[] key, final int value) {
+        return add(new Record(key, PUT, Serializer.serialize(value), 0));
+    }
+
+    public BulkLoader put(final String key, final int value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final long key, final int value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final int key, final int value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final short key, final int value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the load is
+     * finished
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this loader
+     */
+    public BulkLoader put(final byte[] key, final short value) {
+        return add(new Record(key, PUT, Serializer.serialize(value), 0));
+    }
+
+    public BulkLoader put(final String key, final short value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final long key, final short value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final int key, final short value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final short key, final short value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the load is
+     * finished
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this loader
+     */
+    public BulkLoader put(final byte[] key, final boolean value) {
+        return add(new Record(key, PUT, Serializer.serialize(value), 0));
+    }
+
+    public BulkLoader put(final String key, final boolean value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final long key, final boolean value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final int key, final boolean value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final short key, final boolean value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the load is
+     * finished
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this loader
+     */
+    public BulkLoader put(final byte[] key, final long[] value) {
+        return add(new Record(key, PUT, Serializer.serialize(value), 0));
+    }
+
+    public BulkLoader put(final String key, final long[] value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final long key, final long[] value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final int key, final long[] value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public BulkLoader put(final short key, final long[] value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Adds value to the set associated with the specified key when the load
+     * is finished
+     * 
+     * @param key
+     *            key associated with the set
+     * @param value
+     *            value to be added to the set
+     * @return this loader
+     */
+    public BulkLoader addToSet(final byte[] key, final long value) {
+        return add(new Record(key, MEMBER, null, value));
+    }
+
+    public BulkLoader addToSet(final String key, final long value) {
+        return addToSet(handler.generateKey(key), value);
+    }
+
+    public BulkLoader addToSet(final long key, final long value) {
+        return addToSet(handler.generateKey(key), value);
+    }
+
+    public BulkLoader addToSet(final int key, final long value) {
+        return addToSet(handler.generateKey(key), value);
+    }
+
+    public BulkLoader addToSet(final short key, final long value) {
+        return addToSet(handler.generateKey(key), value);
+    }
+
+    /**
+     * Writes all records. Queued writes, buffered counter updates and set
+     * deltas of the handler are committed first, so they cannot be applied
+     * on top of the loaded values.
+     * 
+     * @return the number of keys written
+     */
+    public long finish() {
+        checkOpen();
+        closed = true;
+        List<Source> sources = new ArrayList<Source>(runs.size() + 1);
+        try {
+            handler.prepareBulkLoad();
+            for (File run : runs) {
+                sources.add(new RunSource(sources.size(), run));
+            }
+            Collections.sort(buffer, BY_KEY);
+            sources.add(new BufferSource(sources.size(), buffer.iterator()));
+            buffer = null;
+            return write(sources);
+        } catch (IOException e) {
+            throw failed("Bulk load failed", e);
+        } finally {
+            for (Source source : sources) {
+                source.close();
+            }
+            deleteRuns();
+        }
+    }
+
+    /**
+     * Discards the records of a loader that has not been finished and deletes
+     * its temporary files
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            buffer = null;
+            deleteRuns();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "records: " + records + ", bytes: " + recordBytes + ", runs: "
+                + runs.size();
+    }
+
+    private BulkLoader add(final Record record) {
+        checkOpen();
+        buffer.add(record);
+        int size =
+                record.key.length
+                        + (record.value == null ? 8 : record.value.length);
+        bufferedBytes += size + RECORD_OVERHEAD;
+        recordBytes += size;
+        if (++records % PROGRESS_INTERVAL == 0) {
+            report(Phase.SORT, records, recordBytes);
+        }
+        if (bufferedBytes >= memoryLimit) {
+            spill();
+        }
+        return this;
+    }
+
+    /*
+     * Sorts the buffered records and writes them to a new run. The sort is
+     * stable, so the records of a key keep the order they were added in.
+     */
+    private void spill() {
+        Collections.sort(buffer, BY_KEY);
+        File run = null;
+        try {
+            run = File.createTempFile("bulkload", ".run", tempDirectory);
+            runs.add(run);
+            DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(run), 1 << 16));
+            try {
+                for (Record record : buffer) {
+                    out.writeInt(record.key.length);
+                    out.write(record.key);
+                    out.writeByte(record.type);
+                    if (record.type == PUT) {
+                        out.writeInt(record.value.length);
+                        out.write(record.value);
+                    } else {
+                        out.writeLong(record.member);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw failed("Could not spill bulk load records to " + run, e);
+        }
+        buffer = new ArrayList<Record>();
+        bufferedBytes = 0;
+        report(Phase.SORT, records, recordBytes);
+    }
+
+    /*
+     * Merges the sorted sources and writes one value per key. Compactions
+     * keep running: levelDB flushes full memtables on its compaction thread,
+     * so suspending it would block the writes once two memtables are full.
+     */
+    private long write(final List<Source> sources) throws IOException {
+        PriorityQueue<Source> heap =
+                new PriorityQueue<Source>(sources.size() + 1,
+                        new Comparator<Source>() {
+
+                            @Override
+                            public int compare(final Source a, final Source b) {
+                                int c =
+                                        ByteArrayKey.compare(a.current.key,
+                                                b.current.key);
+                                return c != 0 ? c : a.index - b.index;
+                            }
+                        });
+        for (Source source : sources) {
+            if (source.advance()) {
+                heap.add(source);
+            }
+        }
+
+        long keys = 0;
+        long bytes = 0;
+        byte[] first = null;
+        byte[] last = null;
+        WriteBatch batch = db.createWriteBatch();
+        List<byte[]> batchKeys = new ArrayList<byte[]>();
+        int batchBytes = 0;
+        try {
+            List<Record> group = new ArrayList<Record>();
+            while (!heap.isEmpty()) {
+                byte[] key = heap.peek().current.key;
+                group.clear();
+                while (!heap.isEmpty()
+                        && Arrays.equals(heap.peek().current.key, key)) {
+                    Source source = heap.poll();
+                    group.add(source.current);
+                    if (source.advance()) {
+                        heap.add(source);
+                    }
+                }
+
+                byte[] value = resolve(key, group);
+                batch.put(key, value);
+                batchKeys.add(key);
+                batchBytes += key.length + value.length;
+                bytes += key.length + value.length;
+                keys++;
+                if (first == null) {
+                    first = key;
+                }
+                last = key;
+
+                if (batchBytes >= BATCH_BYTES) {
+                    handler.writeBulk(batch, batchKeys);
+                    close(batch);
+                    batch = db.createWriteBatch();
+                    batchKeys.clear();
+                    batchBytes = 0;
+                    report(Phase.WRITE, keys, bytes);
+                }
+            }
+            handler.writeBulk(batch, batchKeys);
+        } finally {
+            close(batch);
+        }
+        report(Phase.WRITE, keys, bytes);
+
+        if (first != null) {
+            report(Phase.COMPACT, keys, bytes);
+            db.compactRange(first, last);
+        }
+        handler.finishBulkLoad();
+        report(Phase.DONE, keys, bytes);
+        return keys;
+    }
+
+    /*
+     * Applies the records of a key in the order they were added
+     */
+    private byte[] resolve(final byte[] key, final List<Record> group) {
+        byte[] value = null;
+        boolean put = false;
+        long[] members = new long[0];
+        int count = 0;
+        for (Record record : group) {
+            if (record.type == PUT) {
+                value = record.value;
+                put = true;
+                count = 0;
+            } else {
+                if (count == members.length) {
+                    members = Arrays.copyOf(members, Math.max(8, 2 * count));
+                }
+                members[count++] = record.member;
+            }
+        }
+        if (count == 0) {
+            return value;
+        }
+
+        long[] base = LevelDbHandler.toSortedSet(put ? value : db.get(key));
+        long[] added = LongSetSerializer.toSet(Arrays.copyOf(members, count));
+        return LongSetSerializer.serialize(LongSetSerializer.merge(base,
+                added, new long[0]));
+    }
+
+    private void report(final Phase phase, final long count, final long bytes) {
+        ProgressListener listener = this.listener;
+        if (listener != null) {
+            listener.progress(phase, count, bytes, System.nanoTime() - started);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new MetalconRuntimeException(
+                    "The bulk loader has been finished or closed");
+        }
+    }
+
+    private void deleteRuns() {
+        for (File run : runs) {
+            if (!run.delete() && run.exists()) {
+                run.deleteOnExit();
+            }
+        }
+    }
+
+    private static MetalconRuntimeException failed(final String message,
+            final IOException cause) {
+        MetalconRuntimeException e =
+                new MetalconRuntimeException(message + ": "
+                        + cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+
+    private static void close(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Sorted records of one run or of the records still buffered
+     */
+    private abstract static class Source {
+
+        /*
+         * Position among all sources, earlier sources hold earlier records
+         */
+        final int index;
+
+        Record current;
+
+        Source(
+                final int index) {
+            this.index = index;
+        }
+
+        /**
+         * Moves to the next record
+         * 
+         * @return false if the source is exhausted
+         */
+        abstract boolean advance() throws IOException;
+
+        abstract void close();
+    }
+
+    private static final class RunSource extends Source {
+
+        private final DataInputStream in;
+
+        RunSource(
+                final int index,
+                final File run) throws IOException {
+            super(index);
+            in =
+                    new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(run), 1 << 16));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            int keyLength;
+            try {
+                keyLength = in.readInt();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            byte[] key = new byte[keyLength];
+            in.readFully(key);
+            byte type = in.readByte();
+            if (type == PUT) {
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                current = new Record(key, type, value, 0);
+            } else {
+                current = new Record(key, type, null, in.readLong());
+            }
+            return true;
+        }
+
+        @Override
+        void close() {
+            BulkLoader.close(in);
+        }
+    }
+
+    private static final class BufferSource extends Source {
+
+        private final Iterator<Record> records;
+
+        BufferSource(
+                final int index,
+                final Iterator<Record> records) {
+            super(index);
+            this.records = records;
+        }
+
+        @Override
+        boolean advance() {
+            current = records.hasNext() ? records.next() : null;
+            return current != null;
+        }
+
+        @Override
+        void close() {
+        }
+    }
+}
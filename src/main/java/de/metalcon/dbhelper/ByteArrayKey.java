@@ -0,0 +1,71 @@
+package de.metalcon.dbhelper;
+
+import java.util.Arrays;
+
+/**
+ * Wraps a key so that it can be used in hash based collections. Instances
+ * are ordered like levelDB orders keys (unsigned lexicographic).
+ */
+final class ByteArrayKey implements Comparable<ByteArrayKey> {
+
+    final byte[] bytes;
+
+    private final int hash;
+
+    ByteArrayKey(
+            final byte[] bytes) {
+        this.bytes = bytes;
+        hash = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ByteArrayKey)) {
+            return false;
+        }
+        ByteArrayKey other = (ByteArrayKey) obj;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int compareTo(final ByteArrayKey other) {
+        return compare(bytes, other.bytes);
+    }
+
+    /**
+     * Compares two keys in the order used by levelDB
+     */
+    static int compare(final byte[] a, final byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * @return true if key begins with prefix
+     */
+    static boolean startsWith(final byte[] key, final byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+package de.metalcon.dbhelper;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the updates of the counters of one LevelDbHandler in memory. Every
+ * counter with pending updates has a cell holding the sum of its updates, a
+ * flusher thread adds the sums to the stored values with one levelDB write
+ * per flush. Cells are only accessed while the lock of their key (see
+ * StripedLock) is held, so counters updated by different threads only
+ * contend if their keys share a stripe.
+ */
+final class CounterBuffer implements Runnable, Closeable {
+
+    /*
+     * Maximum number of counters written with one levelDB write
+     */
+    static final int MAX_FLUSH_KEYS = 1024;
+
+    /*
+     * Pending sum of the updates of one counter
+     */
+    private static final class Cell {
+
+        long delta;
+    }
+
+    private final LevelDbHandler handler;
+
+    private final ConcurrentHashMap<ByteArrayKey, Cell> cells =
+            new ConcurrentHashMap<ByteArrayKey, Cell>();
+
+    private final long flushIntervalMillis;
+
+    private final int flushThreshold;
+
+    /*
+     * Updates since the last flush
+     */
+    private final AtomicInteger updates = new AtomicInteger();
+
+    private final Thread flusher;
+
+    private volatile boolean closed = false;
+
+    CounterBuffer(
+            final LevelDbHandler handler,
+            final long flushIntervalMillis,
+            final int flushThreshold) {
+        this.handler = handler;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushThreshold = flushThreshold;
+        flusher = new Thread(this, "LevelDbHandler counter flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Adds delta to the pending sum of key. The caller holds the lock of key.
+     * 
+     * @return false if the buffer has been closed, the update has to be
+     *         written directly
+     */
+    boolean add(final byte[] key, final long delta) {
+        ByteArrayKey cellKey = new ByteArrayKey(key);
+        Cell cell = cells.get(cellKey);
+        boolean created = cell == null;
+        if (created) {
+            cell = new Cell();
+            cells.put(new ByteArrayKey(key.clone()), cell);
+        }
+        cell.delta += delta;
+
+        /*
+         * The final flush of close starts after the buffer has been closed,
+         * so it sees the cell of an update that has not seen the buffer
+         * closed
+         */
+        if (closed) {
+            cell.delta -= delta;
+            if (created) {
+                cells.remove(cellKey);
+            }
+            return false;
+        }
+        if (updates.incrementAndGet() == flushThreshold) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the pending sum of key. The caller holds the lock of key.
+     */
+    long pending(final byte[] key) {
+        Cell cell = cells.get(new ByteArrayKey(key));
+        return cell == null ? 0 : cell.delta;
+    }
+
+    /**
+     * @return true if key may have pending updates
+     */
+    boolean hasPending(final byte[] key) {
+        return !cells.isEmpty() && cells.containsKey(new ByteArrayKey(key));
+    }
+
+    /**
+     * Drops the pending updates of key. The caller holds the lock of key.
+     */
+    void discard(final byte[] key) {
+        cells.remove(new ByteArrayKey(key));
+    }
+
+    /**
+     * @return the keys of all counters with pending updates
+     */
+    List<byte[]> keys() {
+        List<byte[]> keys = new ArrayList<byte[]>(cells.size());
+        for (ByteArrayKey key : cells.keySet()) {
+            keys.add(key.bytes);
+        }
+        return keys;
+    }
+
+    /**
+     * Writes all pending updates and stops the flusher thread
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handler.flushCounters(this);
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            synchronized (this) {
+                if (updates.get() < flushThreshold) {
+                    try {
+                        wait(flushIntervalMillis);
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+                }
+            }
+            updates.set(0);
+            try {
+                handler.flushCounters(this);
+            } catch (RuntimeException e) {
+                /*
+                 * The updates stay pending and are retried with the next
+                 * flush
+                 */
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package de.metalcon.dbhelper;
+
+/**
+ * Defines when asynchronous writes of a LevelDbHandler are synced to disk,
+ * see LevelDbHandler.enableAsyncWrites
+ */
+public enum Durability {
+
+    /**
+     * Every group of writes is synced before its futures complete. A crash
+     * loses no acknowledged write.
+     */
+    SYNC_EACH_BATCH,
+
+    /**
+     * The write log is synced at most every sync interval. A crash of the
+     * machine may lose the writes of the last interval.
+     */
+    SYNC_INTERVAL,
+
+    /**
+     * The write log is never synced explicitly. A crash of the machine may
+     * lose all writes the operating system has not flushed yet.
+     */
+    NO_SYNC
+}
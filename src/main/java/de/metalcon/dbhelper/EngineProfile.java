@@ -0,0 +1,107 @@
+package de.metalcon.dbhelper;
+
+import org.iq80.leveldb.CompressionType;
+
+/**
+ * Tuning of the levelDB engine opened by LevelDbHandler.initialize. The
+ * fields hold production defaults and can be overwritten with a properties
+ * file defining all of them:
+ *
+ * <pre>
+ * cacheSize=268435456
+ * writeBufferSize=67108864
+ * blockSize=16384
+ * blockRestartInterval=16
+ * maxOpenFiles=1000
+ * compression=SNAPPY
+ * paranoidChecks=false
+ * verifyChecksums=false
+ * </pre>
+ *
+ * The profile has to be loaded before initialize is called.
+ */
+public class EngineProfile extends Options {
+
+    /**
+     * Size of the block cache holding uncompressed blocks in bytes
+     */
+    public static long cacheSize = 256L << 20;
+
+    /**
+     * Size of the memtable in bytes. Larger buffers absorb write bursts and
+     * produce fewer, larger level-0 files.
+     */
+    public static int writeBufferSize = 64 << 20;
+
+    /**
+     * Approximate size of an uncompressed data block in bytes
+     */
+    public static int blockSize = 16 << 10;
+
+    /**
+     * Number of keys between restart points of the key delta encoding
+     */
+    public static int blockRestartInterval = 16;
+
+    /**
+     * Maximum number of files kept open by the engine
+     */
+    public static int maxOpenFiles = 1000;
+
+    /**
+     * Block compression, NONE or SNAPPY
+     */
+    public static String compression = CompressionType.SNAPPY.name();
+
+    /**
+     * Whether the engine checks its data aggressively and stops on the first
+     * corruption
+     */
+    public static boolean paranoidChecks = false;
+
+    /**
+     * Whether reads verify the checksums of the blocks they read
+     */
+    public static boolean verifyChecksums = false;
+
+    /**
+     * Overwrites the profile with the values of a properties file
+     *
+     * @param configFile
+     *            path to a properties file defining every field of this
+     *            class
+     */
+    public static void load(final String configFile) {
+        try {
+            initialize(configFile, EngineProfile.class);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return levelDB options for the current profile
+     */
+    static org.iq80.leveldb.Options toOptions() {
+        CompressionType compressionType;
+        try {
+            compressionType =
+                    CompressionType.valueOf(compression.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown compression "
+                    + compression + ", use NONE or SNAPPY");
+        }
+
+        org.iq80.leveldb.Options options = new org.iq80.leveldb.Options();
+        options.createIfMissing(true);
+        options.cacheSize(cacheSize);
+        options.writeBufferSize(writeBufferSize);
+        options.blockSize(blockSize);
+        options.blockRestartInterval(blockRestartInterval);
+        options.maxOpenFiles(maxOpenFiles);
+        options.compressionType(compressionType);
+        options.paranoidChecks(paranoidChecks);
+        options.verifyChecksums(verifyChecksums);
+        return options;
+    }
+}
@@ -0,0 +1,558 @@
+package de.metalcon.dbhelper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+/**
+ * Serves lookups from an export written by LevelDbHandler.exportPrefix, for
+ * static lookup tables that are rebuilt periodically and read far more often.
+ * The export is memory-mapped and searched in place, so lookups neither call
+ * into levelDB nor copy more than the value they return. Numeric keys and
+ * primitive values are looked up without allocating.
+ *
+ * A new export of the same instance can be swapped in while lookups
+ * continue:
+ *
+ * <pre>
+ * handler.exportPrefix(file);
+ * reader.reload();
+ * </pre>
+ *
+ * Every lookup reads either the old or the new export completely. exportPrefix
+ * replaces the file atomically, so readers that still map the old file keep
+ * reading it until they swap. Mappings are released by the garbage collector
+ * once no reader refers to them any more.
+ */
+public class ExportReader implements Closeable {
+
+    private volatile PrefixExport export;
+
+    /**
+     * Maps an export and verifies its checksum
+     *
+     * @param file
+     *            a file written by LevelDbHandler.exportPrefix
+     * @throws IOException
+     *             if the file cannot be read, is not an export or is corrupt
+     */
+    public ExportReader(
+            final File file) throws IOException {
+        export = PrefixExport.open(file);
+    }
+
+    /**
+     * Maps and verifies another export of the same instance and replaces the
+     * current one atomically. Lookups running concurrently finish on the
+     * export they started on.
+     *
+     * @param file
+     *            a file written by LevelDbHandler.exportPrefix
+     * @throws IOException
+     *             if the file cannot be read, is not an export, is corrupt or
+     *             exports another instance. The current export is kept.
+     */
+    public void swap(final File file) throws IOException {
+        PrefixExport current = open();
+        PrefixExport next = PrefixExport.open(file);
+        if (!Arrays.equals(next.getKeyPrefix(), current.getKeyPrefix())
+                || next.getKeyEncoding() != current.getKeyEncoding()) {
+            throw new IOException(file
+                    + " is not an export of the same instance");
+        }
+        synchronized (this) {
+            if (export == null) {
+                throw closed();
+            }
+            export = next;
+        }
+    }
+
+    /**
+     * Swaps in the export currently stored at the path of this reader, e.g.
+     * after it has been replaced by LevelDbHandler.exportPrefix
+     *
+     * @throws IOException
+     *             if the file cannot be read, is not an export, is corrupt or
+     *             exports another instance. The current export is kept.
+     */
+    public void reload() throws IOException {
+        swap(open().getFile());
+    }
+
+    /**
+     * @return the file of the current export
+     */
+    public File getFile() {
+        return open().getFile();
+    }
+
+    /**
+     * @return the number of entries of the current export
+     */
+    public int size() {
+        return open().size();
+    }
+
+    /**
+     * @return the encoding of the numeric keys of the exported instance
+     */
+    public KeyEncoding getKeyEncoding() {
+        return open().getKeyEncoding();
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @return The value to which the specified key is mapped
+     */
+    public long getLong(final byte[] key) throws ElementNotFoundException {
+        PrefixExport export = open();
+        int value = export.find(key);
+        if (value < 0) {
+            throw new ElementNotFoundException(Arrays.toString(key));
+        }
+        return export.getLong(value);
+    }
+
+    public long getLong(final String key) throws ElementNotFoundException {
+        return getLong(generateKey(key));
+    }
+
+    public long getLong(final long key) throws ElementNotFoundException {
+        return getLong(scratchKey(key));
+    }
+
+    public long getLong(final int key) throws ElementNotFoundException {
+        return getLong(scratchKey(key));
+    }
+
+    public long getLong(final short key) throws ElementNotFoundException {
+        return getLong(scratchKey(key));
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped without throwing
+     * if the key is missing
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @param defaultValue
+     *            The value returned if the export contains no mapping for the
+     *            key
+     * @return The value to which the specified key is mapped, or
+     *         defaultValue
+     */
+    public long getLongOrDefault(final byte[] key, final long defaultValue) {
+        PrefixExport export = open();
+        int value = export.find(key);
+        return value < 0 ? defaultValue : export.getLong(value);
+    }
+
+    public long getLongOrDefault(final String key, final long defaultValue) {
+        return getLongOrDefault(generateKey(key), defaultValue);
+    }
+
+    public long getLongOrDefault(final long key, final long defaultValue) {
+        return getLongOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public long getLongOrDefault(final int key, final long defaultValue) {
+        return getLongOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public long getLongOrDefault(final short key, final long defaultValue) {
+        return getLongOrDefault(scratchKey(key), defaultValue);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @return The value to which the specified key is mapped
+     */
+    public int getInt(final byte[] key) throws ElementNotFoundException {
+        PrefixExport export = open();
+        int value = export.find(key);
+        if (value < 0) {
+            throw new ElementNotFoundException(Arrays.toString(key));
+        }
+        return export.getInt(value);
+    }
+
+    public int getInt(final String key) throws ElementNotFoundException {
+        return getInt(generateKey(key));
+    }
+
+    public int getInt(final long key) throws ElementNotFoundException {
+        return getInt(scratchKey(key));
+    }
+
+    public int getInt(final int key) throws ElementNotFoundException {
+        return getInt(scratchKey(key));
+    }
+
+    public int getInt(final short key) throws ElementNotFoundException {
+        return getInt(scratchKey(key));
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped without throwing
+     * if the key is missing
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @param defaultValue
+     *            The value returned if the export contains no mapping for the
+     *            key
+     * @return The value to which the specified key is mapped, or
+     *         defaultValue
+     */
+    public int getIntOrDefault(final byte[] key, final int defaultValue) {
+        PrefixExport export = open();
+        int value = export.find(key);
+        return value < 0 ? defaultValue : export.getInt(value);
+    }
+
+    public int getIntOrDefault(final String key, final int defaultValue) {
+        return getIntOrDefault(generateKey(key), defaultValue);
+    }
+
+    public int getIntOrDefault(final long key, final int defaultValue) {
+        return getIntOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public int getIntOrDefault(final int key, final int defaultValue) {
+        return getIntOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public int getIntOrDefault(final short key, final int defaultValue) {
+        return getIntOrDefault(scratchKey(key), defaultValue);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @return The value to which the specified key is mapped
+     */
+    public short getShort(final byte[] key) throws ElementNotFoundException {
+        PrefixExport export = open();
+        int value = export.find(key);
+        if (value < 0) {
+            throw new ElementNotFoundException(Arrays.toString(key));
+        }
+        return export.getShort(value);
+    }
+
+    public short getShort(final String key) throws ElementNotFoundException {
+        return getShort(generateKey(key));
+    }
+
+    public short getShort(final long key) throws ElementNotFoundException {
+        return getShort(scratchKey(key));
+    }
+
+    public short getShort(final int key) throws ElementNotFoundException {
+        return getShort(scratchKey(key));
+    }
+
+    public short getShort(final short key) throws ElementNotFoundException {
+        return getShort(scratchKey(key));
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped without throwing
+     * if the key is missing
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @param defaultValue
+     *            The value returned if the export contains no mapping for the
+     *            key
+     * @return The value to which the specified key is mapped, or
+     *         defaultValue
+     */
+    public short getShortOrDefault(final byte[] key, final short defaultValue) {
+        PrefixExport export = open();
+        int value = export.find(key);
+        return value < 0 ? defaultValue : export.getShort(value);
+    }
+
+    public short getShortOrDefault(final String key, final short defaultValue) {
+        return getShortOrDefault(generateKey(key), defaultValue);
+    }
+
+    public short getShortOrDefault(final long key, final short defaultValue) {
+        return getShortOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public short getShortOrDefault(final int key, final short defaultValue) {
+        return getShortOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public short getShortOrDefault(final short key, final short defaultValue) {
+        return getShortOrDefault(scratchKey(key), defaultValue);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @return The value to which the specified key is mapped
+     */
+    public boolean getBoolean(final byte[] key)
+            throws ElementNotFoundException {
+        PrefixExport export = open();
+        int value = export.find(key);
+        if (value < 0) {
+            throw new ElementNotFoundException(Arrays.toString(key));
+        }
+        return export.getBoolean(value);
+    }
+
+    public boolean getBoolean(final String key)
+            throws ElementNotFoundException {
+        return getBoolean(generateKey(key));
+    }
+
+    public boolean getBoolean(final long key) throws ElementNotFoundException {
+        return getBoolean(scratchKey(key));
+    }
+
+    public boolean getBoolean(final int key) throws ElementNotFoundException {
+        return getBoolean(scratchKey(key));
+    }
+
+    public boolean getBoolean(final short key) throws ElementNotFoundException {
+        return getBoolean(scratchKey(key));
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped without throwing
+     * if the key is missing
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @param defaultValue
+     *            The value returned if the export contains no mapping for the
+     *            key
+     * @return The value to which the specified key is mapped, or
+     *         defaultValue
+     */
+    public boolean getBooleanOrDefault(final byte[] key,
+            final boolean defaultValue) {
+        PrefixExport export = open();
+        int value = export.find(key);
+        return value < 0 ? defaultValue : export.getBoolean(value);
+    }
+
+    public boolean getBooleanOrDefault(final String key,
+            final boolean defaultValue) {
+        return getBooleanOrDefault(generateKey(key), defaultValue);
+    }
+
+    public boolean getBooleanOrDefault(final long key,
+            final boolean defaultValue) {
+        return getBooleanOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public boolean getBooleanOrDefault(final int key,
+            final boolean defaultValue) {
+        return getBooleanOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public boolean getBooleanOrDefault(final short key,
+            final boolean defaultValue) {
+        return getBooleanOrDefault(scratchKey(key), defaultValue);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @return The value to which the specified key is mapped, or null if the
+     *         export contains no mapping for the key
+     */
+    public String getString(final byte[] key) {
+        PrefixExport export = open();
+        int value = export.find(key);
+        return value < 0 ? null : Serializer.deserializeString(export
+                .getBytes(value));
+    }
+
+    public String getString(final String key) {
+        return getString(generateKey(key));
+    }
+
+    public String getString(final long key) {
+        return getString(scratchKey(key));
+    }
+
+    public String getString(final int key) {
+        return getString(scratchKey(key));
+    }
+
+    public String getString(final short key) {
+        return getString(scratchKey(key));
+    }
+
+    /**
+     * Returns the long[] to which the specified key is mapped. Sets are
+     * returned sorted.
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @return The long[] to which the specified key is mapped, or null if the
+     *         export contains no mapping for the key
+     */
+    public long[] getLongs(final byte[] key) {
+        PrefixExport export = open();
+        int value = export.find(key);
+        return value < 0 ? null : Serializer.deserializeLongs(export
+                .getBytes(value));
+    }
+
+    public long[] getLongs(final String key) {
+        return getLongs(generateKey(key));
+    }
+
+    public long[] getLongs(final long key) {
+        return getLongs(scratchKey(key));
+    }
+
+    public long[] getLongs(final int key) {
+        return getLongs(scratchKey(key));
+    }
+
+    public long[] getLongs(final short key) {
+        return getLongs(scratchKey(key));
+    }
+
+    /**
+     * Returns the serialized value without copying it, see Serializer for
+     * its format. The buffer stays valid after the export has been swapped
+     * out.
+     *
+     * @param key
+     *            a key generated by the exported instance
+     * @return a read-only view of the value in the mapped file, or null if
+     *         the export contains no mapping for the key
+     */
+    public ByteBuffer getValue(final byte[] key) {
+        PrefixExport export = open();
+        int value = export.find(key);
+        return value < 0 ? null : export.getBuffer(value);
+    }
+
+    public ByteBuffer getValue(final String key) {
+        return getValue(generateKey(key));
+    }
+
+    public ByteBuffer getValue(final long key) {
+        return getValue(scratchKey(key));
+    }
+
+    public ByteBuffer getValue(final int key) {
+        return getValue(scratchKey(key));
+    }
+
+    public ByteBuffer getValue(final short key) {
+        return getValue(scratchKey(key));
+    }
+
+    public boolean containsKey(final byte[] key) {
+        return open().find(key) >= 0;
+    }
+
+    public boolean containsKey(final String key) {
+        return containsKey(generateKey(key));
+    }
+
+    public boolean containsKey(final long key) {
+        return containsKey(scratchKey(key));
+    }
+
+    public boolean containsKey(final int key) {
+        return containsKey(scratchKey(key));
+    }
+
+    public boolean containsKey(final short key) {
+        return containsKey(scratchKey(key));
+    }
+
+    /**
+     * Stops serving lookups. The mapping is released by the garbage
+     * collector.
+     */
+    @Override
+    public synchronized void close() {
+        export = null;
+    }
+
+    /*
+     * @return the current export, read once per lookup so that it is not
+     *         mixed with an export swapped in concurrently
+     */
+    private PrefixExport open() {
+        PrefixExport export = this.export;
+        if (export == null) {
+            throw closed();
+        }
+        return export;
+    }
+
+    private static MetalconRuntimeException closed() {
+        return new MetalconRuntimeException("The export reader is closed");
+    }
+
+    /*
+     * Generate keys like the exported instance, see
+     * LevelDbHandler.generateKey. Numeric keys are written into the buffers
+     * of the current thread.
+     */
+
+    private byte[] generateKey(final String keySuffix) {
+        byte[] key = new byte[8 + Serializer.utf8Length(keySuffix)];
+        System.arraycopy(open().getKeyPrefix(), 0, key, 0, 8);
+        Serializer.writeUtf8(key, 8, keySuffix);
+        return key;
+    }
+
+    private byte[] scratchKey(final long keySuffix) {
+        PrefixExport export = open();
+        byte[] key = ScratchBuffers.get().longKey;
+        System.arraycopy(export.getKeyPrefix(), 0, key, 0, 8);
+        Serializer.writeLong(key, 8,
+                export.getKeyEncoding().encode(keySuffix));
+        return key;
+    }
+
+    private byte[] scratchKey(final int keySuffix) {
+        PrefixExport export = open();
+        byte[] key = ScratchBuffers.get().intKey;
+        System.arraycopy(export.getKeyPrefix(), 0, key, 0, 8);
+        Serializer.writeInt(key, 8, export.getKeyEncoding().encode(keySuffix));
+        return key;
+    }
+
+    private byte[] scratchKey(final short keySuffix) {
+        PrefixExport export = open();
+        byte[] key = ScratchBuffers.get().shortKey;
+        System.arraycopy(export.getKeyPrefix(), 0, key, 0, 8);
+        short suffix = export.getKeyEncoding().encode(keySuffix);
+        key[8] = (byte) (suffix >> 8);
+        key[9] = (byte) suffix;
+        return key;
+    }
+}
@@ -0,0 +1,276 @@
+package de.metalcon.dbhelper;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.iq80.leveldb.WriteOptions;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+/**
+ * Commits the writes of one LevelDbHandler in a background thread. Writes
+ * are queued in a bounded queue, the committer thread drains all queued
+ * writes into a single levelDB write so that many writers share one log
+ * append (and one sync). If that write fails, every queued write of the
+ * group is retried on its own, so only the writes that fail themselves are
+ * completed with an exception.
+ */
+final class GroupCommitWriter implements Runnable, Closeable {
+
+    /*
+     * Maximum number of queued writes committed together
+     */
+    private static final int MAX_GROUP_SIZE = 512;
+
+    private static final Callable<Void> NOTHING = new Callable<Void>() {
+
+        @Override
+        public Void call() {
+            return null;
+        }
+    };
+
+    /**
+     * A queued write, completed once it has been committed
+     */
+    static final class PendingWrite extends FutureTask<Void> {
+
+        final List<LevelDbBatch.Op> ops;
+
+        PendingWrite(
+                final List<LevelDbBatch.Op> ops) {
+            super(NOTHING);
+            this.ops = ops;
+        }
+
+        void committed() {
+            set(null);
+        }
+
+        void failed(final Throwable cause) {
+            setException(cause);
+        }
+    }
+
+    private final LevelDbHandler handler;
+
+    private final BlockingQueue<PendingWrite> queue;
+
+    private final Durability durability;
+
+    private final long syncIntervalMillis;
+
+    private final Thread committer;
+
+    private volatile boolean closed = false;
+
+    /*
+     * Time of the last sync and whether writes have been committed since
+     * (only accessed by the committer thread)
+     */
+    private long lastSync = System.currentTimeMillis();
+
+    private boolean unsynced = false;
+
+    GroupCommitWriter(
+            final LevelDbHandler handler,
+            final int queueCapacity,
+            final Durability durability,
+            final long syncIntervalMillis) {
+        this.handler = handler;
+        this.durability = durability;
+        this.syncIntervalMillis = syncIntervalMillis;
+        queue = new ArrayBlockingQueue<PendingWrite>(queueCapacity);
+        committer = new Thread(this, "LevelDbHandler group commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Queues a write. Blocks while the queue is full.
+     *
+     * @return a future completed once the write has been committed
+     */
+    Future<Void> submit(final List<LevelDbBatch.Op> ops) {
+        if (closed) {
+            throw new MetalconRuntimeException(
+                    "Asynchronous writes have been disabled");
+        }
+        PendingWrite write = new PendingWrite(ops);
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MetalconRuntimeException(
+                    "Interrupted while queueing a write");
+        }
+
+        /*
+         * close may have drained the queue between the check above and put.
+         * A write that is still queued then is never committed.
+         */
+        if (closed && queue.remove(write)) {
+            throw new MetalconRuntimeException(
+                    "Asynchronous writes have been disabled");
+        }
+        return write;
+    }
+
+    /**
+     * Blocks until all writes queued before have been committed
+     */
+    void flush() {
+        try {
+            submit(Collections.<LevelDbBatch.Op> emptyList()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            MetalconRuntimeException failed =
+                    new MetalconRuntimeException(e.getCause().getMessage());
+            failed.initCause(e.getCause());
+            throw failed;
+        }
+    }
+
+    /**
+     * Commits all queued writes and stops the committer thread
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        committer.interrupt();
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        /*
+         * Writes that raced with closing the writer
+         */
+        PendingWrite write;
+        while ((write = queue.poll()) != null) {
+            write.failed(new MetalconRuntimeException(
+                    "Asynchronous writes have been disabled"));
+        }
+    }
+
+    @Override
+    public void run() {
+        List<PendingWrite> group = new ArrayList<PendingWrite>();
+        List<LevelDbBatch.Op> ops = new ArrayList<LevelDbBatch.Op>();
+        while (!closed || !queue.isEmpty()) {
+            PendingWrite first;
+            try {
+                first = queue.poll(pollTimeout(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                syncIfDue();
+                continue;
+            }
+
+            group.add(first);
+            queue.drainTo(group, MAX_GROUP_SIZE - 1);
+            for (PendingWrite write : group) {
+                ops.addAll(write.ops);
+            }
+
+            try {
+                if (!ops.isEmpty()) {
+                    WriteOptions options = writeOptions();
+                    handler.write(ops, options);
+                    unsynced =
+                            durability == Durability.SYNC_INTERVAL
+                                    && !options.sync();
+                }
+                for (PendingWrite write : group) {
+                    write.committed();
+                }
+            } catch (RuntimeException e) {
+                if (group.size() == 1) {
+                    first.failed(e);
+                } else {
+                    for (PendingWrite write : group) {
+                        commit(write);
+                    }
+                }
+            }
+            group.clear();
+            ops.clear();
+        }
+    }
+
+    /*
+     * Commits a single queued write
+     */
+    private void commit(final PendingWrite write) {
+        try {
+            if (!write.ops.isEmpty()) {
+                WriteOptions options = writeOptions();
+                handler.write(write.ops, options);
+                unsynced =
+                        durability == Durability.SYNC_INTERVAL
+                                && !options.sync();
+            }
+            write.committed();
+        } catch (RuntimeException e) {
+            write.failed(e);
+        }
+    }
+
+    private WriteOptions writeOptions() {
+        boolean sync;
+        switch (durability) {
+            case SYNC_EACH_BATCH:
+                sync = true;
+                break;
+            case SYNC_INTERVAL:
+                sync =
+                        System.currentTimeMillis() - lastSync
+                                >= syncIntervalMillis;
+                break;
+            default:
+                sync = false;
+        }
+        if (sync) {
+            lastSync = System.currentTimeMillis();
+        }
+        return new WriteOptions().sync(sync);
+    }
+
+    private long pollTimeout() {
+        if (unsynced) {
+            return Math.max(1, lastSync + syncIntervalMillis
+                    - System.currentTimeMillis());
+        }
+        return syncIntervalMillis > 0 ? syncIntervalMillis : 1000;
+    }
+
+    /*
+     * Syncs writes that have been committed without sync once the interval
+     * has passed without any further write
+     */
+    private void syncIfDue() {
+        if (unsynced
+                && System.currentTimeMillis() - lastSync >= syncIntervalMillis) {
+            handler.sync();
+            lastSync = System.currentTimeMillis();
+            unsynced = false;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package de.metalcon.dbhelper;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.iq80.leveldb.DB;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+/**
+ * Counts the operations of one LevelDbHandler, the bytes of the keys and
+ * values they touched and their latencies. Enabled with
+ * LevelDbHandler.enableMetrics, which also publishes the metrics over JMX as
+ * de.metalcon.dbhelper:type=LevelDbHandler,prefix=&lt;key prefix&gt;.
+ * 
+ * Latencies include the value cache, the key filter and waiting for key
+ * locks. In asynchronous mode writes are recorded when they are queued, the
+ * commits of the queued writes are recorded as BATCH.
+ */
+public final class HandlerMetrics implements HandlerMetricsMXBean, Closeable {
+
+    /**
+     * Operations recorded by HandlerMetrics
+     */
+    public enum Operation {
+
+        /**
+         * Typed getters and getXOrDefault
+         */
+        GET,
+
+        CONTAINS_KEY,
+
+        /**
+         * put of any type
+         */
+        PUT,
+
+        REMOVE_KEY,
+
+        ADD_TO_SET,
+
+        REMOVE_FROM_SET,
+
+        SET_CONTAINS,
+
+        /**
+         * increment, decrement and addAndGet
+         */
+        COUNTER,
+
+        /**
+         * multiGet, recorded once per call
+         */
+        MULTI_GET,
+
+        /**
+         * intersect, intersectCount, union and difference
+         */
+        SET_QUERY,
+
+        /**
+         * Batches written by write, writeAsync and the asynchronous committer
+         */
+        BATCH,
+
+        /**
+         * Creation of scans and ranges, iterating them is not recorded
+         */
+        SCAN
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final LevelDbHandler handler;
+
+    private final DB db;
+
+    private final long keyPrefix;
+
+    private final LatencyHistogram[] latencies =
+            new LatencyHistogram[OPERATIONS.length];
+
+    private final AtomicLongArray keyBytes = new AtomicLongArray(
+            OPERATIONS.length);
+
+    private final AtomicLongArray valueBytes = new AtomicLongArray(
+            OPERATIONS.length);
+
+    /*
+     * Name of the registered MBean, null if not registered
+     */
+    private ObjectName name = null;
+
+    HandlerMetrics(
+            final LevelDbHandler handler,
+            final DB db,
+            final long keyPrefix) {
+        this.handler = handler;
+        this.db = db;
+        this.keyPrefix = keyPrefix;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records an operation
+     * 
+     * @param start
+     *            System.nanoTime() when the operation started
+     * @param keyLength
+     *            bytes of the keys of the operation
+     * @param valueLength
+     *            bytes of the values read or written
+     */
+    void record(final Operation operation, final long start,
+            final int keyLength, final int valueLength) {
+        int i = operation.ordinal();
+        latencies[i].record(System.nanoTime() - start);
+        keyBytes.addAndGet(i, keyLength);
+        valueBytes.addAndGet(i, valueLength);
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server
+     */
+    synchronized void register() {
+        try {
+            ObjectName name =
+                    new ObjectName("de.metalcon.dbhelper:type=LevelDbHandler"
+                            + ",prefix=" + keyPrefix);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    name);
+            this.name = name;
+        } catch (JMException e) {
+            throw new MetalconRuntimeException(
+                    "Unable to register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the MBean from the platform MBean server
+     */
+    @Override
+    public synchronized void close() {
+        if (name == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // already unregistered
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        name = null;
+    }
+
+    /**
+     * @return the number of recorded operations of the given kind
+     */
+    public long getCount(final Operation operation) {
+        return latencies[operation.ordinal()].getCount();
+    }
+
+    /**
+     * @return the bytes of the keys of all recorded operations of the given
+     *         kind
+     */
+    public long getKeyBytes(final Operation operation) {
+        return keyBytes.get(operation.ordinal());
+    }
+
+    /**
+     * @return the bytes of the values read from or written to levelDB by the
+     *         recorded operations of the given kind. Reads answered by the
+     *         value cache count 0 bytes, set updates and lookups count 8 bytes
+     *         per member.
+     */
+    public long getValueBytes(final Operation operation) {
+        return valueBytes.get(operation.ordinal());
+    }
+
+    /**
+     * @return the latencies of the given kind of operations
+     */
+    public LatencyHistogram getLatency(final Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    @Override
+    public long getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (Operation operation : OPERATIONS) {
+            counts.put(operation.name(), getCount(operation));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getKeyBytes() {
+        return toMap(keyBytes);
+    }
+
+    @Override
+    public Map<String, Long> getValueBytes() {
+        return toMap(valueBytes);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMean() {
+        Map<String, Long> means = new LinkedHashMap<String, Long>();
+        for (Operation operation : OPERATIONS) {
+            means.put(operation.name(), getLatency(operation).getMean());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50() {
+        return getLatencyAtPercentile(50);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99() {
+        return getLatencyAtPercentile(99);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP999() {
+        return getLatencyAtPercentile(99.9);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMax() {
+        Map<String, Long> maxima = new LinkedHashMap<String, Long>();
+        for (Operation operation : OPERATIONS) {
+            maxima.put(operation.name(), getLatency(operation).getMax());
+        }
+        return maxima;
+    }
+
+    @Override
+    public long getCacheHits() {
+        ValueCache cache = handler.getCache();
+        return cache == null ? -1 : cache.getHitCount();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        ValueCache cache = handler.getCache();
+        return cache == null ? -1 : cache.getMissCount();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        ValueCache cache = handler.getCache();
+        return cache == null ? -1 : cache.getEvictionCount();
+    }
+
+    @Override
+    public long getKeyFilterRejections() {
+        KeyFilter filter = handler.getKeyFilter();
+        return filter == null ? -1 : filter.getRejectedCount();
+    }
+
+    @Override
+    public String getLevelDbStats() {
+        return db.getProperty("leveldb.stats");
+    }
+
+    @Override
+    public String getLevelDbSstables() {
+        return db.getProperty("leveldb.sstables");
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i].reset();
+            keyBytes.set(i, 0);
+            valueBytes.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram latency = getLatency(operation);
+            if (latency.getCount() != 0) {
+                builder.append(operation).append(": ").append(latency)
+                        .append(", key bytes: ")
+                        .append(getKeyBytes(operation))
+                        .append(", value bytes: ")
+                        .append(getValueBytes(operation)).append("\n");
+            }
+        }
+        return builder.toString();
+    }
+
+    private Map<String, Long> getLatencyAtPercentile(final double percentile) {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (Operation operation : OPERATIONS) {
+            values.put(operation.name(), getLatency(operation)
+                    .getValueAtPercentile(percentile));
+        }
+        return values;
+    }
+
+    private static Map<String, Long> toMap(final AtomicLongArray values) {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (Operation operation : OPERATIONS) {
+            map.put(operation.name(), values.get(operation.ordinal()));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,64 @@
+package de.metalcon.dbhelper;
+
+import java.util.Map;
+
+/**
+ * Management interface of HandlerMetrics. Maps are keyed by the name of the
+ * operation (see HandlerMetrics.Operation), latencies are in nanoseconds.
+ */
+public interface HandlerMetricsMXBean {
+
+    long getKeyPrefix();
+
+    Map<String, Long> getCounts();
+
+    Map<String, Long> getKeyBytes();
+
+    Map<String, Long> getValueBytes();
+
+    Map<String, Long> getLatencyMean();
+
+    Map<String, Long> getLatencyP50();
+
+    Map<String, Long> getLatencyP99();
+
+    Map<String, Long> getLatencyP999();
+
+    Map<String, Long> getLatencyMax();
+
+    /**
+     * @return hits of the value cache, -1 if it is disabled
+     */
+    long getCacheHits();
+
+    /**
+     * @return misses of the value cache, -1 if it is disabled
+     */
+    long getCacheMisses();
+
+    /**
+     * @return evictions of the value cache, -1 if it is disabled
+     */
+    long getCacheEvictions();
+
+    /**
+     * @return lookups answered by the key filter, -1 if it is disabled
+     */
+    long getKeyFilterRejections();
+
+    /**
+     * @return the levelDB property leveldb.stats of the shard of the handler
+     */
+    String getLevelDbStats();
+
+    /**
+     * @return the levelDB property leveldb.sstables of the shard of the
+     *         handler
+     */
+    String getLevelDbSstables();
+
+    /**
+     * Drops all counters and latencies
+     */
+    void reset();
+}
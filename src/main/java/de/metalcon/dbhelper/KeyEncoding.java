@@ -0,0 +1,48 @@
+package de.metalcon.dbhelper;
+
+/**
+ * Defines how LevelDbHandler.generateKey writes numeric keys. levelDB orders
+ * keys by their unsigned bytes, so the encoding decides whether range queries
+ * over numeric keys are possible.
+ */
+public enum KeyEncoding {
+
+    /**
+     * Big-endian two's complement. Negative keys sort after all positive
+     * keys. This is the format of all data written by earlier versions.
+     */
+    RAW,
+
+    /**
+     * Big-endian with the sign bit flipped, so keys sort like the numbers
+     * they encode and range queries work across negative and positive keys.
+     */
+    ORDERED;
+
+    long encode(final long key) {
+        return this == ORDERED ? key ^ Long.MIN_VALUE : key;
+    }
+
+    int encode(final int key) {
+        return this == ORDERED ? key ^ Integer.MIN_VALUE : key;
+    }
+
+    short encode(final short key) {
+        return this == ORDERED ? (short) (key ^ Short.MIN_VALUE) : key;
+    }
+
+    /*
+     * The encoding is an involution: decoding equals encoding
+     */
+    long decode(final long key) {
+        return encode(key);
+    }
+
+    int decode(final int key) {
+        return encode(key);
+    }
+
+    short decode(final short key) {
+        return encode(key);
+    }
+}
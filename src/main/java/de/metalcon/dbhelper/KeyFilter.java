@@ -0,0 +1,148 @@
+package de.metalcon.dbhelper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the keys of one LevelDbHandler. It never reports a
+ * written key as missing, so a negative answer lets lookups of missing keys
+ * skip levelDB. Deleted keys stay in the filter and only cost a levelDB read.
+ *
+ * Keys are added concurrently without locking. The filter is only consulted
+ * once it has been filled with the keys already stored (see ready).
+ */
+public final class KeyFilter {
+
+    private final AtomicLongArray bits;
+
+    private final long bitCount;
+
+    private final int hashes;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /*
+     * Set once all keys stored before the filter was installed have been
+     * added
+     */
+    private volatile boolean ready = false;
+
+    /**
+     * @param expectedKeys
+     *            number of keys the filter is sized for
+     * @param falsePositiveRate
+     *            probability that a missing key is reported as present once
+     *            expectedKeys keys have been added
+     */
+    KeyFilter(
+            final long expectedKeys,
+            final double falsePositiveRate) {
+        if (expectedKeys <= 0 || falsePositiveRate <= 0
+                || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("expectedKeys must be positive"
+                    + " and falsePositiveRate in (0, 1)");
+        }
+        double ln2 = Math.log(2);
+        long words =
+                Math.max(1, (long) Math.ceil(-expectedKeys
+                        * Math.log(falsePositiveRate) / (ln2 * ln2) / 64));
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Key filter would be too large");
+        }
+        bits = new AtomicLongArray((int) words);
+        bitCount = words * 64;
+        hashes =
+                Math.max(1, (int) Math.round((double) bitCount / expectedKeys
+                        * ln2));
+    }
+
+    void add(final byte[] key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * @return false if key has never been added, true if it may have been
+     *         added
+     */
+    boolean mightContain(final byte[] key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if key is definitely not stored. Always false while the
+     *         filter is being filled.
+     */
+    boolean rejects(final byte[] key) {
+        if (ready && !mightContain(key)) {
+            rejected.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    void ready() {
+        ready = true;
+    }
+
+    /**
+     * @return the number of lookups answered without reading levelDB
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the size of the filter in bytes
+     */
+    public long getSizeInBytes() {
+        return bitCount / 8;
+    }
+
+    @Override
+    public String toString() {
+        return "bits: " + bitCount + ", hashes: " + hashes + ", rejected: "
+                + getRejectedCount();
+    }
+
+    /*
+     * FNV-1a followed by a final avalanche step
+     */
+    private static long hash(final byte[] key) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE1A85EC3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,394 @@
+package de.metalcon.dbhelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+/**
+ * Iterates over the entries of a key range in key order. The range is read
+ * from a snapshot taken when the scan is created, or from the ReadSnapshot
+ * open in the creating thread. Values are only decoded when one of the typed
+ * getters of an entry is called.
+ *
+ * A scan holds a native iterator and snapshot until it is closed, so it
+ * should be used with try-with-resources:
+ *
+ * <pre>
+ * try (KeyScan scan = handler.scan()) {
+ *     for (KeyScan.Entry entry : scan) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * A scan can be iterated once and must not be shared between threads.
+ */
+public class KeyScan implements Iterator<KeyScan.Entry>,
+        Iterable<KeyScan.Entry>, Closeable {
+
+    /**
+     * A stored key and its value
+     */
+    public static final class Entry {
+
+        private final byte[] key;
+
+        private final byte[] value;
+
+        private final int prefixLength;
+
+        private final KeyEncoding encoding;
+
+        Entry(
+                final byte[] key,
+                final byte[] value,
+                final int prefixLength,
+                final KeyEncoding encoding) {
+            this.key = key;
+            this.value = value;
+            this.prefixLength = prefixLength;
+            this.encoding = encoding;
+        }
+
+        /**
+         * @return the complete key including the prefix of the instance
+         */
+        public byte[] getKey() {
+            return key;
+        }
+
+        /**
+         * @return the key without the prefix of the instance
+         */
+        public byte[] getKeySuffix() {
+            return Arrays.copyOfRange(key, prefixLength, key.length);
+        }
+
+        /**
+         * @return the key suffix written by generateKey(long)
+         */
+        public long getLongKey() {
+            checkSuffixLength(8);
+            return getLongKeyAt(0);
+        }
+
+        /**
+         * @return the key suffix written by generateKey(int)
+         */
+        public int getIntKey() {
+            checkSuffixLength(4);
+            return getIntKeyAt(0);
+        }
+
+        /**
+         * @return the key suffix written by generateKey(short)
+         */
+        public short getShortKey() {
+            checkSuffixLength(2);
+            return encoding.decode(Serializer.readShort(key, prefixLength));
+        }
+
+        /**
+         * Reads one long of a compound key, e.g. the second long of a key
+         * written by generateKey(long, long) is at offset 8
+         *
+         * @param offset
+         *            position of the long within the key suffix
+         */
+        public long getLongKeyAt(final int offset) {
+            checkSuffixLength(offset, 8);
+            return encoding.decode(Serializer.readLong(key, prefixLength
+                    + offset));
+        }
+
+        /**
+         * Reads one int of a compound key, e.g. the int of a key written by
+         * generateKey(long, int) is at offset 8
+         *
+         * @param offset
+         *            position of the int within the key suffix
+         */
+        public int getIntKeyAt(final int offset) {
+            checkSuffixLength(offset, 4);
+            return encoding.decode(Serializer.readInt(key, prefixLength
+                    + offset));
+        }
+
+        /**
+         * @return the key suffix written by generateKey(String)
+         */
+        public String getStringKey() {
+            return new String(key, prefixLength, key.length - prefixLength,
+                    StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the serialized value
+         */
+        public byte[] getValue() {
+            return value;
+        }
+
+        public long getLong() {
+            return Serializer.deserializeLong(value);
+        }
+
+        public int getInt() {
+            return Serializer.deserializeInt(value);
+        }
+
+        public short getShort() {
+            return Serializer.deserializeShort(value);
+        }
+
+        public boolean getBoolean() {
+            return Serializer.deserializeBoolean(value);
+        }
+
+        public String getString() {
+            return Serializer.deserializeString(value);
+        }
+
+        /**
+         * @return the stored long[] or set. Pending set deltas (see
+         *         LevelDbHandler.enableSetDeltas) are not merged.
+         */
+        public long[] getLongs() {
+            return Serializer.deserializeLongs(value);
+        }
+
+        /**
+         * @return the value decoded according to its stored type
+         */
+        public Object getObject() {
+            return Serializer.deserialize(value);
+        }
+
+        private void checkSuffixLength(final int length) {
+            if (key.length - prefixLength != length) {
+                throw new MetalconRuntimeException("Key suffix has "
+                        + (key.length - prefixLength) + " bytes but " + length
+                        + " were expected");
+            }
+        }
+
+        private void checkSuffixLength(final int offset, final int length) {
+            if (offset < 0 || key.length - prefixLength < offset + length) {
+                throw new MetalconRuntimeException("Key suffix has "
+                        + (key.length - prefixLength) + " bytes but "
+                        + (offset + length) + " were expected");
+            }
+        }
+    }
+
+    private final DBIterator iterator;
+
+    /*
+     * Snapshot owned by this scan, null if it reads the snapshot of the
+     * thread that created it
+     */
+    private final Snapshot snapshot;
+
+    /*
+     * First key after the range, null if the range is not bounded
+     */
+    private final byte[] end;
+
+    private final int prefixLength;
+
+    private final KeyEncoding encoding;
+
+    private Entry next = null;
+
+    private boolean closed = false;
+
+    /**
+     * @param from
+     *            first key of the range
+     * @param end
+     *            first key after the range or null
+     * @param prefixLength
+     *            length of the key prefix stripped by Entry.getKeySuffix
+     * @param encoding
+     *            encoding of numeric keys
+     */
+    KeyScan(
+            final DB db,
+            final byte[] from,
+            final byte[] end,
+            final int prefixLength,
+            final KeyEncoding encoding) {
+        this.end = end;
+        this.prefixLength = prefixLength;
+        this.encoding = encoding;
+        ReadOptions scoped = ReadSnapshot.optionsFor(db);
+        if (scoped == null) {
+            snapshot = db.getSnapshot();
+            iterator = db.iterator(new ReadOptions().snapshot(snapshot));
+        } else {
+            /*
+             * The iterator keeps the state of the snapshot of the current
+             * thread even if that is closed before the scan
+             */
+            snapshot = null;
+            iterator = db.iterator(scoped);
+        }
+        iterator.seek(from);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed || !iterator.hasNext()) {
+            close();
+            return false;
+        }
+        Map.Entry<byte[], byte[]> entry = iterator.next();
+        if (end != null && ByteArrayKey.compare(entry.getKey(), end) >= 0) {
+            close();
+            return false;
+        }
+        next =
+                new Entry(entry.getKey(), entry.getValue(), prefixLength,
+                        encoding);
+        return true;
+    }
+
+    @Override
+    public Entry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Entry entry = next;
+        next = null;
+        return entry;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return this scan, which can only be iterated once
+     */
+    @Override
+    public Iterator<Entry> iterator() {
+        return this;
+    }
+
+    /**
+     * Releases the native iterator and the snapshot. Called automatically
+     * once the last entry has been read.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        next = null;
+        try {
+            iterator.close();
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Computes keys splitting the stored keys in [from, end) into up to parts
+     * ranges. The split points divide the interval between the first and the
+     * last stored key evenly, so the ranges hold similar numbers of entries
+     * as long as the keys are spread evenly.
+     *
+     * @return the sorted inner split points, empty if the range holds less
+     *         than two keys
+     */
+    static List<byte[]> splitPoints(final DB db, final byte[] from,
+            final byte[] end, final int parts) {
+        List<byte[]> points = new ArrayList<byte[]>();
+        byte[] first;
+        byte[] last;
+        DBIterator iterator = db.iterator();
+        try {
+            iterator.seek(from);
+            if (!iterator.hasNext()) {
+                return points;
+            }
+            first = iterator.peekNext().getKey();
+            if (end != null) {
+                iterator.seek(end);
+            }
+            if (end == null || !iterator.hasNext()) {
+                iterator.seekToLast();
+                if (!iterator.hasNext()) {
+                    return points;
+                }
+                last = iterator.peekNext().getKey();
+            } else {
+                if (!iterator.hasPrev()) {
+                    return points;
+                }
+                last = iterator.peekPrev().getKey();
+            }
+        } finally {
+            try {
+                iterator.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (end != null && ByteArrayKey.compare(first, end) >= 0
+                || ByteArrayKey.compare(first, last) >= 0) {
+            return points;
+        }
+
+        /*
+         * Interpret both keys as unsigned numbers of the same width
+         */
+        int width = Math.max(first.length, last.length);
+        BigInteger low = new BigInteger(1, Arrays.copyOf(first, width));
+        BigInteger high = new BigInteger(1, Arrays.copyOf(last, width));
+        BigInteger span = high.subtract(low);
+        byte[] previous = first;
+        for (int i = 1; i < parts; i++) {
+            BigInteger point =
+                    low.add(span.multiply(BigInteger.valueOf(i)).divide(
+                            BigInteger.valueOf(parts)));
+            byte[] key = toKey(point, width);
+            if (ByteArrayKey.compare(key, previous) > 0) {
+                points.add(key);
+                previous = key;
+            }
+        }
+        return points;
+    }
+
+    private static byte[] toKey(final BigInteger value, final int width) {
+        byte[] bytes = value.toByteArray();
+        byte[] key = new byte[width];
+        int length = Math.min(bytes.length, width);
+        System.arraycopy(bytes, bytes.length - length, key, width - length,
+                length);
+        return key;
+    }
+}
@@ -0,0 +1,457 @@
+package de.metalcon.dbhelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.WriteBatch;
+
+/**
+ * A set of longs stored in sorted chunks of at most MAX_CHUNK_SIZE members,
+ * for sets too large to be rewritten and decoded completely on every access
+ * (see LevelDbHandler.addToSet). Created by LevelDbHandler.getLargeSet.
+ * 
+ * The set is stored in the internal namespace of its handler:
+ * 
+ * <pre>
+ * [namespace][int key length][set key]                 long size, long chunks
+ * [namespace][int key length][set key][largest member] sorted members
+ * </pre>
+ * 
+ * Chunks are keyed by their largest member with the sign bit flipped, so the
+ * chunk that may contain a member is found with a single seek. Updates
+ * rewrite one chunk (two when it is split) and the header with one atomic
+ * write, and are serialized with the other updates of the set key. Reads use
+ * the ReadSnapshot of the current thread, if any.
+ * 
+ * Large sets are independent of the values stored with put or addToSet
+ * under the same key.
+ */
+public final class LargeSet {
+
+    /**
+     * Maximum number of members per chunk, full chunks are split in halves
+     */
+    public static final int MAX_CHUNK_SIZE = 1024;
+
+    private final LevelDbHandler handler;
+
+    private final DB db;
+
+    /*
+     * Lock of the set key, serializes updates
+     */
+    private final Lock lock;
+
+    /*
+     * Key of the header, prefix of all chunk keys
+     */
+    private final byte[] prefix;
+
+    LargeSet(
+            final LevelDbHandler handler,
+            final DB db,
+            final Lock lock,
+            final byte[] prefix) {
+        this.handler = handler;
+        this.db = db;
+        this.lock = lock;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return the number of members
+     */
+    public long size() {
+        byte[] header = get(prefix, ReadSnapshot.optionsFor(db));
+        return header == null ? 0 : Serializer.readLong(header, 0);
+    }
+
+    /**
+     * @return the number of chunks storing the members
+     */
+    public long getChunkCount() {
+        byte[] header = get(prefix, ReadSnapshot.optionsFor(db));
+        return header == null ? 0 : Serializer.readLong(header, 8);
+    }
+
+    /**
+     * Checks whether member is in the set by reading the one chunk that may
+     * contain it
+     */
+    public boolean contains(final long member) {
+        DBIterator iterator = iterator(ReadSnapshot.optionsFor(db));
+        try {
+            iterator.seek(chunkKey(member));
+            long[] chunk = nextChunk(iterator);
+            return chunk != null && Arrays.binarySearch(chunk, member) >= 0;
+        } finally {
+            close(iterator);
+        }
+    }
+
+    /**
+     * Reads a page of members in ascending order. To iterate over the whole
+     * set, start with Long.MIN_VALUE and continue after the last member of
+     * each page until a page is shorter than limit.
+     * 
+     * @param from
+     *            smallest member to be returned
+     * @param limit
+     *            maximum number of members to be returned
+     * @return up to limit members not less than from
+     */
+    public long[] page(final long from, final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long[] page = new long[Math.min(limit, MAX_CHUNK_SIZE)];
+        int size = 0;
+        DBIterator iterator = iterator(ReadSnapshot.optionsFor(db));
+        try {
+            iterator.seek(chunkKey(from));
+            long[] chunk;
+            while (size < limit && (chunk = nextChunk(iterator)) != null) {
+                iterator.next();
+                int i = Arrays.binarySearch(chunk, from);
+                for (i = i < 0 ? -i - 1 : i; i < chunk.length
+                        && size < limit; i++) {
+                    if (size == page.length) {
+                        page =
+                                Arrays.copyOf(page,
+                                        (int) Math.min(limit, 2L * size));
+                    }
+                    page[size++] = chunk[i];
+                }
+            }
+        } finally {
+            close(iterator);
+        }
+        return size == page.length ? page : Arrays.copyOf(page, size);
+    }
+
+    /**
+     * Adds member to the set
+     * 
+     * @return true if the set did not contain member
+     */
+    public boolean add(final long member) {
+        handler.flush();
+        lock.lock();
+        try {
+            return insert(member);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Adds member to the set, the caller holds the lock and has flushed
+     * asynchronous writes before taking it
+     */
+    private boolean insert(final long member) {
+        DBIterator iterator = iterator(null);
+        long[] chunk;
+        byte[] chunkKey;
+        try {
+            iterator.seek(chunkKey(member));
+            chunk = nextChunk(iterator);
+            if (chunk == null) {
+                /*
+                 * member is larger than all members, it is appended to
+                 * the last chunk
+                 */
+                Map.Entry<byte[], byte[]> last = lastEntry(iterator);
+                chunk = last == null ? null : toChunk(last);
+            }
+            chunkKey = chunk == null ? null : chunkKey(max(chunk));
+        } finally {
+            close(iterator);
+        }
+
+        long[] header = readHeader();
+        WriteBatch batch = db.createWriteBatch();
+        try {
+            if (chunk == null || chunk.length >= MAX_CHUNK_SIZE
+                    && member > max(chunk)) {
+                batch.put(chunkKey(member), toBytes(new long[] {
+                    member
+                }));
+                header[1]++;
+            } else {
+                int i = Arrays.binarySearch(chunk, member);
+                if (i >= 0) {
+                    return false;
+                }
+                i = -i - 1;
+                long[] updated = new long[chunk.length + 1];
+                System.arraycopy(chunk, 0, updated, 0, i);
+                updated[i] = member;
+                System.arraycopy(chunk, i, updated, i + 1, chunk.length - i);
+                batch.delete(chunkKey);
+                if (updated.length > MAX_CHUNK_SIZE) {
+                    int half = updated.length / 2;
+                    putChunk(batch, Arrays.copyOf(updated, half));
+                    putChunk(batch, Arrays.copyOfRange(updated, half,
+                            updated.length));
+                    header[1]++;
+                } else {
+                    putChunk(batch, updated);
+                }
+            }
+            header[0]++;
+            batch.put(prefix, toBytes(header));
+            db.write(batch);
+        } finally {
+            close(batch);
+        }
+        return true;
+    }
+
+    /**
+     * Adds all members to the set, e.g. to convert a set stored with
+     * addToSet:
+     * 
+     * <pre>
+     * handler.getLargeSet(key).addAll(handler.getLongs(key));
+     * handler.removeKey(key);
+     * </pre>
+     * 
+     * Members are written with one write per chunk if the set is empty,
+     * otherwise they are added one by one.
+     * 
+     * @return the number of members that have been added
+     */
+    public long addAll(final long[] members) {
+        handler.flush();
+        lock.lock();
+        try {
+            if (readHeader()[0] != 0) {
+                long added = 0;
+                for (long member : members) {
+                    if (insert(member)) {
+                        added++;
+                    }
+                }
+                return added;
+            }
+
+            long[] set = LongSetSerializer.toSet(members);
+            long chunks = 0;
+            for (int from = 0; from < set.length; from += MAX_CHUNK_SIZE) {
+                WriteBatch batch = db.createWriteBatch();
+                try {
+                    putChunk(batch, Arrays.copyOfRange(set, from,
+                            Math.min(set.length, from + MAX_CHUNK_SIZE)));
+                    chunks++;
+                    batch.put(prefix, toBytes(new long[] {
+                        Math.min(set.length, from + MAX_CHUNK_SIZE), chunks
+                    }));
+                    db.write(batch);
+                } finally {
+                    close(batch);
+                }
+            }
+            return set.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes member from the set
+     * 
+     * @return true if the set contained member
+     */
+    public boolean remove(final long member) {
+        handler.flush();
+        lock.lock();
+        try {
+            long[] chunk;
+            DBIterator iterator = iterator(null);
+            try {
+                iterator.seek(chunkKey(member));
+                chunk = nextChunk(iterator);
+            } finally {
+                close(iterator);
+            }
+            int i = chunk == null ? -1 : Arrays.binarySearch(chunk, member);
+            if (i < 0) {
+                return false;
+            }
+
+            long[] header = readHeader();
+            WriteBatch batch = db.createWriteBatch();
+            try {
+                batch.delete(chunkKey(max(chunk)));
+                if (chunk.length == 1) {
+                    header[1]--;
+                } else {
+                    long[] updated = new long[chunk.length - 1];
+                    System.arraycopy(chunk, 0, updated, 0, i);
+                    System.arraycopy(chunk, i + 1, updated, i, updated.length
+                            - i);
+                    putChunk(batch, updated);
+                }
+                header[0]--;
+                if (header[0] == 0) {
+                    batch.delete(prefix);
+                } else {
+                    batch.put(prefix, toBytes(header));
+                }
+                db.write(batch);
+            } finally {
+                close(batch);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all members
+     */
+    public void clear() {
+        handler.flush();
+        lock.lock();
+        try {
+            DBIterator iterator = iterator(null);
+            try {
+                iterator.seek(prefix);
+                while (iterator.hasNext()) {
+                    WriteBatch batch = db.createWriteBatch();
+                    try {
+                        int deleted = 0;
+                        while (deleted < MAX_CHUNK_SIZE && iterator.hasNext()) {
+                            byte[] key = iterator.next().getKey();
+                            if (!ByteArrayKey.startsWith(key, prefix)) {
+                                break;
+                            }
+                            batch.delete(key);
+                            deleted++;
+                        }
+                        if (deleted == 0) {
+                            break;
+                        }
+                        db.write(batch);
+                    } finally {
+                        close(batch);
+                    }
+                }
+            } finally {
+                close(iterator);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "size: " + size() + ", chunks: " + getChunkCount();
+    }
+
+    private DBIterator iterator(final ReadOptions options) {
+        return options == null ? db.iterator() : db.iterator(options);
+    }
+
+    private byte[] get(final byte[] key, final ReadOptions options) {
+        return options == null ? db.get(key) : db.get(key, options);
+    }
+
+    /*
+     * Reads the size and the number of chunks, the caller holds the lock
+     */
+    private long[] readHeader() {
+        byte[] header = db.get(prefix);
+        return header == null ? new long[2] : new long[] {
+            Serializer.readLong(header, 0), Serializer.readLong(header, 8)
+        };
+    }
+
+    /*
+     * @return the chunk at the position of the iterator, or null if the
+     *         iterator has left the set
+     */
+    private long[] nextChunk(final DBIterator iterator) {
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        Map.Entry<byte[], byte[]> entry = iterator.peekNext();
+        return isChunk(entry.getKey()) ? toChunk(entry) : null;
+    }
+
+    /*
+     * @return the last chunk, the iterator is positioned behind all chunks
+     */
+    private Map.Entry<byte[], byte[]> lastEntry(final DBIterator iterator) {
+        Map.Entry<byte[], byte[]> entry;
+        if (iterator.hasNext()) {
+            if (!iterator.hasPrev()) {
+                return null;
+            }
+            entry = iterator.peekPrev();
+        } else {
+            /*
+             * Positioned behind the last key of the DB
+             */
+            iterator.seekToLast();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            entry = iterator.peekNext();
+        }
+        return isChunk(entry.getKey()) ? entry : null;
+    }
+
+    private boolean isChunk(final byte[] key) {
+        return key.length == prefix.length + 8
+                && ByteArrayKey.startsWith(key, prefix);
+    }
+
+    private byte[] chunkKey(final long member) {
+        byte[] key = Arrays.copyOf(prefix, prefix.length + 8);
+        Serializer.writeLong(key, prefix.length,
+                KeyEncoding.ORDERED.encode(member));
+        return key;
+    }
+
+    private void putChunk(final WriteBatch batch, final long[] chunk) {
+        batch.put(chunkKey(max(chunk)), toBytes(chunk));
+    }
+
+    private static long max(final long[] chunk) {
+        return chunk[chunk.length - 1];
+    }
+
+    private static long[] toChunk(final Map.Entry<byte[], byte[]> entry) {
+        byte[] bytes = entry.getValue();
+        long[] chunk = new long[bytes.length / 8];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = Serializer.readLong(bytes, 8 * i);
+        }
+        return chunk;
+    }
+
+    private static byte[] toBytes(final long[] values) {
+        byte[] bytes = new byte[8 * values.length];
+        for (int i = 0; i < values.length; i++) {
+            Serializer.writeLong(bytes, 8 * i, values[i]);
+        }
+        return bytes;
+    }
+
+    private static void close(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package de.metalcon.dbhelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects updates of one LevelDbHandler which are applied atomically by
+ * LevelDbHandler.write. All updates of a batch are written with a single
+ * levelDB write, so either all or none of them become visible.
+ * 
+ * Keys are generated by the handler that created the batch. A batch is not
+ * thread safe and may be written once, writing it again throws an
+ * IllegalStateException.
+ */
+public class LevelDbBatch {
+
+    /*
+     * Operation types
+     */
+    static final byte PUT = 0;
+
+    static final byte PUT_LONGS = 1;
+
+    static final byte DELETE = 2;
+
+    static final byte ADD_TO_SET = 3;
+
+    static final byte REMOVE_FROM_SET = 4;
+
+    /**
+     * A single update of a batch
+     */
+    static final class Op {
+
+        final byte type;
+
+        final byte[] key;
+
+        /*
+         * Serialized value of PUT and PUT_LONGS
+         */
+        final byte[] value;
+
+        /*
+         * Member of ADD_TO_SET and REMOVE_FROM_SET
+         */
+        final long member;
+
+        Op(
+                final byte type,
+                final byte[] key,
+                final byte[] value,
+                final long member) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.member = member;
+        }
+    }
+
+    final LevelDbHandler handler;
+
+    final List<Op> ops = new ArrayList<Op>();
+
+    /*
+     * Set by the handler once the batch has been passed to write or
+     * writeAsync
+     */
+    boolean written;
+
+    LevelDbBatch(
+            final LevelDbHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * @return the number of updates in this batch
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    /**
+     * Associates the specified value with the specified key when the batch is
+     * written
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this batch
+     */
+    public LevelDbBatch put(final byte[] key, final String value) {
+        ops.add(new Op(PUT, key, Serializer.serialize(value), 0));
+        return this;
+    }
+
+    public LevelDbBatch put(final String key, final String value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final long key, final String value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final int key, final String value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final short key, final String value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the batch is
+     * written
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this batch
+     */
+    public LevelDbBatch put(final byte[] key, final long value) {
+        ops.add(new Op(PUT, key, Serializer.serialize(value), 0));
+        return this;
+    }
+
+    public LevelDbBatch put(final String key, final long value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final long key, final long value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final int key, final long value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final short key, final long value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the batch is
+     * written
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this batch
+     */
+    public LevelDbBatch put(final byte[] key, final int value) {
+        ops.add(new Op(PUT, key, Serializer.serialize(value), 0));
+        return this;
+    }
+
+    public LevelDbBatch put(final String key, final int value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final long key, final int value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final int key, final int value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final short key, final int value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the batch is
+     * written
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this batch
+     */
+    public LevelDbBatch put(final byte[] key, final short value) {
+        ops.add(new Op(PUT, key, Serializer.serialize(value), 0));
+        return this;
+    }
+
+    public LevelDbBatch put(final String key, final short value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final long key, final short value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final int key, final short value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final short key, final short value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the batch is
+     * written
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this batch
+     */
+    public LevelDbBatch put(final byte[] key, final boolean value) {
+        ops.add(new Op(PUT, key, Serializer.serialize(value), 0));
+        return this;
+    }
+
+    public LevelDbBatch put(final String key, final boolean value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final long key, final boolean value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final int key, final boolean value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final short key, final boolean value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Associates the specified value with the specified key when the batch is
+     * written
+     * 
+     * @param key
+     *            key with which the specified value is to be associated
+     * @param value
+     *            value to be associated with the specified key
+     * @return this batch
+     */
+    public LevelDbBatch put(final byte[] key, final long[] value) {
+        ops.add(new Op(PUT_LONGS, key, Serializer.serialize(value), 0));
+        return this;
+    }
+
+    public LevelDbBatch put(final String key, final long[] value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final long key, final long[] value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final int key, final long[] value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch put(final short key, final long[] value) {
+        return put(handler.generateKey(key), value);
+    }
+
+    /**
+     * Adds value to the set associated with the specified key when the batch
+     * is written
+     * 
+     * @param key
+     *            key associated with the set
+     * @param value
+     *            value to be added to the set
+     * @return this batch
+     */
+    public LevelDbBatch addToSet(final byte[] key, final long value) {
+        ops.add(new Op(ADD_TO_SET, key, null, value));
+        return this;
+    }
+
+    public LevelDbBatch addToSet(final String key, final long value) {
+        return addToSet(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch addToSet(final long key, final long value) {
+        return addToSet(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch addToSet(final int key, final long value) {
+        return addToSet(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch addToSet(final short key, final long value) {
+        return addToSet(handler.generateKey(key), value);
+    }
+
+    /**
+     * Removes value from the set associated with the specified key when the
+     * batch is written
+     * 
+     * @param key
+     *            key associated with the set
+     * @param value
+     *            value to be removed from the set
+     * @return this batch
+     */
+    public LevelDbBatch removeFromSet(final byte[] key, final long value) {
+        ops.add(new Op(REMOVE_FROM_SET, key, null, value));
+        return this;
+    }
+
+    public LevelDbBatch removeFromSet(final String key, final long value) {
+        return removeFromSet(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch removeFromSet(final long key, final long value) {
+        return removeFromSet(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch removeFromSet(final int key, final long value) {
+        return removeFromSet(handler.generateKey(key), value);
+    }
+
+    public LevelDbBatch removeFromSet(final short key, final long value) {
+        return removeFromSet(handler.generateKey(key), value);
+    }
+
+    /**
+     * Removes the mapping for a key when the batch is written
+     * 
+     * @param key
+     *            The key to be removed
+     * @return this batch
+     */
+    public LevelDbBatch removeKey(final byte[] key) {
+        ops.add(new Op(DELETE, key, null, 0));
+        return this;
+    }
+
+    public LevelDbBatch removeKey(final String key) {
+        return removeKey(handler.generateKey(key));
+    }
+
+    public LevelDbBatch removeKey(final long key) {
+        return removeKey(handler.generateKey(key));
+    }
+
+    public LevelDbBatch removeKey(final int key) {
+        return removeKey(handler.generateKey(key));
+    }
+
+    public LevelDbBatch removeKey(final short key) {
+        return removeKey(handler.generateKey(key));
+    }
+}
@@ -3,15 +3,33 @@ package de.metalcon.dbhelper;
 import static org.fusesource.leveldbjni.JniDBFactory.asString;
 import static org.fusesource.leveldbjni.JniDBFactory.factory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Lock;
 
 import org.fusesource.leveldbjni.JniDBFactory;
 import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBFactory;
 import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
 
 import de.metalcon.exceptions.MetalconException;
 import de.metalcon.exceptions.MetalconRuntimeException;
@@ -22,30 +40,140 @@ import de.metalcon.exceptions.MetalconRuntimeException;
  * It creates only one storage and separates all entries created by different
  * Instance using a unique prefix for the keys.
  * 
+ * Updates reading the stored value (addToSet, removeFromSet) are atomic: they
+ * lock the updated key, so updates of the same set are serialized while
+ * updates of different sets run in parallel.
+ * 
  * @author Jonas Kunze (kunze.jonas@gmail.com)
  * 
  */
 public class LevelDbHandler {
 
-    private static DB db = null;
+    /*
+     * The levelDB instances shared by all handlers, null if not initialized
+     */
+    private static DB[] shards = null;
 
     /*
-     * Path to the storage used by all instances
+     * Paths to the storage of the shards
      */
-    private static String DBPath_;
+    private static String[] shardPaths;
 
     /*
      * The prefixes of all running instances
      */
     private static HashSet<Long> keyPrefixes = new HashSet<Long>();
 
+    /*
+     * Serializes read-modify-write updates of the same key
+     */
+    private static final StripedLock locks = new StripedLock(1024);
+
+    /*
+     * Namespace of the set deltas within the internal key prefix
+     */
+    private static final byte NAMESPACE_SET_DELTAS = 1;
+
+    /*
+     * Namespace of the chunks of large sets within the internal key prefix
+     */
+    private static final byte NAMESPACE_LARGE_SETS = 2;
+
+    /*
+     * Number of deletes clearPrefix writes per levelDB write
+     */
+    private static final int CLEAR_BATCH_SIZE = 8192;
+
+    /*
+     * multiGet reads fewer keys with point gets
+     */
+    private static final int MULTI_GET_MIN_ITERATOR_KEYS = 8;
+
+    /*
+     * Entries multiGet steps over before seeking to the next key
+     */
+    private static final int MULTI_GET_MAX_STEPS = 16;
+
+    /*
+     * Resources of all instances that must be closed before the DB is closed
+     */
+    private static final List<Closeable> openResources =
+            new ArrayList<Closeable>();
+
     /*
      * The prefix of this instance
      */
     private final byte[] keyPrefix;
 
+    /*
+     * The shard storing all data of this instance
+     */
+    private final DB db;
+
+    /*
+     * Encoding of numeric keys generated by this instance
+     */
+    private final KeyEncoding keyEncoding;
+
+    /*
+     * Prefix of the entries this instance uses internally. It is derived from
+     * keyPrefix and reserved like any other key prefix.
+     */
+    private final byte[] internalPrefix;
+
+    /*
+     * Delta records of sets written in append mode
+     */
+    private final SetDeltaLog setDeltas;
+
+    /*
+     * Prefix of the headers and chunks of large sets
+     */
+    private final byte[] largeSets;
+
+    /*
+     * Commits writes in asynchronous mode, null in synchronous mode
+     */
+    private volatile GroupCommitWriter asyncWriter = null;
+
+    /*
+     * Decoded values read recently, null if caching is disabled
+     */
+    private volatile ValueCache cache = null;
+
+    /*
+     * Bloom filter over the keys of this instance, null if disabled
+     */
+    private volatile KeyFilter keyFilter = null;
+
+    /*
+     * Operation counters and latencies, null if disabled
+     */
+    private volatile HandlerMetrics metrics = null;
+
+    /*
+     * Pending counter updates, null if counters are written immediately
+     */
+    private volatile CounterBuffer counters = null;
+
+    /**
+     * Creates a levelDB DB object tuned by the given engine profile
+     * 
+     * @param DBPath
+     *            Path to the directory where the levelDB should store its
+     *            files. If it doesn't exist, the directory will be created.
+     * @param engineProfile
+     *            properties file loaded into EngineProfile
+     * @throws MetalconException
+     */
+    public static void initialize(final String DBPath,
+            final String engineProfile) throws MetalconException {
+        EngineProfile.load(engineProfile);
+        initialize(DBPath);
+    }
+
     /**
-     * Creates a levelDB DB object
+     * Creates a levelDB DB object tuned by the current EngineProfile
      * 
      * @param DBPath
      *            Path to the directory where the levelDB should store its
@@ -53,52 +181,190 @@ public class LevelDbHandler {
      * @throws MetalconException
      */
     public static void initialize(final String DBPath) throws MetalconException {
-        File f = new File(DBPath);
+        initializeShards(DBPath);
+    }
 
-        if (!f.exists()) {
-            if (!f.mkdirs()) {
-                throw new MetalconException("Unable to create directory "
-                        + DBPath);
-            }
-        }
+    /**
+     * Creates a DB object with the given storage engine, e.g.
+     * OffHeapDBFactory.factory for data kept in memory
+     * 
+     * @param engine
+     *            factory opening the DB
+     * @param DBPath
+     *            Path to the directory of the DB. If it doesn't exist, the
+     *            directory will be created.
+     * @throws MetalconException
+     */
+    public static void initialize(final DBFactory engine, final String DBPath)
+            throws MetalconException {
+        initializeShards(engine, DBPath);
+    }
 
-        if (db == null) {
-            try {
-                Options options = new Options();
-                options.createIfMissing(true);
+    /**
+     * Opens one levelDB per path. Every instance stores all its data in one
+     * shard chosen by its key prefix, so instances on different shards write
+     * to separate memtables, write logs and compaction threads. Placing the
+     * shards on different disks also spreads the I/O.
+     * 
+     * The shard of an instance depends on its key prefix and the number of
+     * shards only, so the same paths have to be passed in the same order
+     * whenever existing data is opened.
+     * 
+     * @param DBPaths
+     *            Paths to the directories of the shards. Missing directories
+     *            are created.
+     * @throws MetalconException
+     */
+    public static void initializeShards(final String... DBPaths)
+            throws MetalconException {
+        initializeShards(factory, DBPaths);
+    }
 
-                // options.logger(new Logger() {
-                // public void log(String message) {
-                // System.out.println(message);
-                // }
-                // });
+    /**
+     * Opens one DB per path with the given storage engine, see
+     * initializeShards(String...). Every engine implementing the levelDB API
+     * can be used, levelDB itself (JniDBFactory.factory) is the default.
+     * 
+     * @param engine
+     *            factory opening the shards
+     * @param DBPaths
+     *            Paths to the directories of the shards. Missing directories
+     *            are created.
+     * @throws MetalconException
+     */
+    public static void initializeShards(final DBFactory engine,
+            final String... DBPaths) throws MetalconException {
+        if (DBPaths.length == 0) {
+            throw new IllegalArgumentException("No path given");
+        }
+        if (shards != null) {
+            throw new MetalconException(
+                    "LevelDBHandler has already been Initialized");
+        }
 
-                db = factory.open(new File(DBPath), options);
+        Options options = EngineProfile.toOptions();
+
+        // options.logger(new Logger() {
+        // public void log(String message) {
+        // System.out.println(message);
+        // }
+        // });
+
+        final DB[] opened = new DB[DBPaths.length];
+        for (int i = 0; i < DBPaths.length; i++) {
+            File f = new File(DBPaths[i]);
+            if (!f.exists()) {
+                if (!f.mkdirs()) {
+                    closeAll(opened);
+                    throw new MetalconException("Unable to create directory "
+                            + DBPaths[i]);
+                }
+            }
+            try {
+                opened[i] = engine.open(f, options);
             } catch (IOException e) {
+                closeAll(opened);
                 throw new MetalconException("Unable to instanciate levelDB on "
-                        + DBPath + ": " + e.getMessage());
+                        + DBPaths[i] + ": " + e.getMessage());
             }
-        } else {
-            throw new MetalconException(
-                    "LevelDBHandler has already been Initialized");
         }
-        DBPath_ = DBPath;
+        shards = opened;
+        shardPaths = DBPaths.clone();
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
 
             @Override
             public void run() {
-                try {
-                    if (db != null) {
-                        db.close();
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+                if (shards == opened) {
+                    closeOpenResources();
+                    closeAll(opened);
                 }
             }
         });
     }
 
+    /**
+     * Lets leveldbjni allocate the native copies of keys and values of the
+     * current thread from a pool instead of allocating and freeing native
+     * memory for every call. Should be called by long running threads doing
+     * many reads or writes. Every call must be matched by a call of
+     * popMemoryPool from the same thread.
+     * 
+     * @param size
+     *            size of the pool in bytes
+     */
+    public static void pushMemoryPool(final int size) {
+        JniDBFactory.pushMemoryPool(size);
+    }
+
+    /**
+     * Frees the pool created by the last pushMemoryPool of this thread
+     */
+    public static void popMemoryPool() {
+        JniDBFactory.popMemoryPool();
+    }
+
+    /**
+     * @return the number of levelDB instances, 0 if not initialized
+     */
+    public static int getShardCount() {
+        DB[] shards = LevelDbHandler.shards;
+        return shards == null ? 0 : shards.length;
+    }
+
+    /**
+     * Opens a snapshot of all shards that the reads of the current thread use
+     * until it is closed, so several values can be read consistently without
+     * blocking writers. See ReadSnapshot.
+     * 
+     * @return the snapshot, to be closed with try-with-resources
+     */
+    public static ReadSnapshot openSnapshot() {
+        DB[] shards = LevelDbHandler.shards;
+        if (shards == null) {
+            throw new MetalconRuntimeException("You have to call "
+                    + LevelDbHandler.class.getName()
+                    + ".initialize() before opening a snapshot");
+        }
+        return ReadSnapshot.open(shards);
+    }
+
+    /*
+     * Closes all opened shards
+     */
+    private static void closeAll(final DB[] dbs) {
+        for (DB db : dbs) {
+            if (db != null) {
+                close(db);
+            }
+        }
+    }
+
+    /*
+     * Chooses the shard storing all data of the instance with the given key
+     * prefix
+     */
+    private static DB shardFor(final long keyPrefix) {
+        DB[] shards = LevelDbHandler.shards;
+        if (shards == null) {
+            /*
+             * Make sure that the developer does not forget to run initialize()
+             */
+            throw new MetalconRuntimeException("You have to call "
+                    + LevelDbHandler.class.getName()
+                    + ".initialize() before calling this constructor");
+        }
+        return shards[shardIndex(keyPrefix, shards.length)];
+    }
+
+    /*
+     * @return the index of the shard storing the data of keyPrefix
+     */
+    static int shardIndex(final long keyPrefix, final int shardCount) {
+        long hash = keyPrefix * 0x9E3779B97F4A7C15L;
+        return (int) ((hash >>> 1) % shardCount);
+    }
+
     /**
      * 
      * @param keyPrefix
@@ -106,12 +372,33 @@ public class LevelDbHandler {
      */
     public LevelDbHandler(
             final long keyPrefix) {
+        this(keyPrefix, KeyEncoding.RAW);
+    }
+
+    /**
+     * 
+     * @param keyPrefix
+     *            Any long which is used to identify this instance.
+     * @param keyEncoding
+     *            Encoding of the numeric keys of this instance. ORDERED is
+     *            required for range queries over negative keys. Existing
+     *            data can be converted with migrateKeys.
+     */
+    public LevelDbHandler(
+            final long keyPrefix,
+            final KeyEncoding keyEncoding) {
+        db = shardFor(keyPrefix);
+        long internalPrefix = Long.reverse(keyPrefix) ^ 0x6A09E667F3BCC909L;
         synchronized (keyPrefixes) {
-            if (!keyPrefixes.add(keyPrefix)) {
+            if (keyPrefixes.contains(keyPrefix)
+                    || keyPrefixes.contains(internalPrefix)
+                    || internalPrefix == keyPrefix) {
                 throw new MetalconRuntimeException("Instanciated "
                         + LevelDbHandler.class.getName()
                         + " with a non-unique key prefix");
             }
+            keyPrefixes.add(keyPrefix);
+            keyPrefixes.add(internalPrefix);
         }
 
         this.keyPrefix = new byte[8];
@@ -123,6 +410,12 @@ public class LevelDbHandler {
         this.keyPrefix[5] = (byte) (keyPrefix >> 16);
         this.keyPrefix[6] = (byte) (keyPrefix >> 8);
         this.keyPrefix[7] = (byte) (keyPrefix);
+        this.keyEncoding = keyEncoding;
+
+        this.internalPrefix = new byte[8];
+        Serializer.writeLong(this.internalPrefix, 0, internalPrefix);
+        setDeltas = new SetDeltaLog(internalNamespace(NAMESPACE_SET_DELTAS));
+        largeSets = internalNamespace(NAMESPACE_LARGE_SETS);
     }
 
     /**
@@ -132,21 +425,26 @@ public class LevelDbHandler {
      */
     public LevelDbHandler(
             final String keyPrefix) {
+        this(keyPrefix, KeyEncoding.RAW);
+    }
+
+    /**
+     * 
+     * @param keyPrefix
+     *            Any String which is used to identify this instance.
+     * @param keyEncoding
+     *            Encoding of the numeric keys of this instance
+     */
+    public LevelDbHandler(
+            final String keyPrefix,
+            final KeyEncoding keyEncoding) {
         this(keyPrefix.hashCode() + 0xFFFFFFFFL/* 4 Byte */
-                * keyPrefix.hashCode());
-        if (db == null) {
-            /*
-             * Make sure that the developer does not forget to run initialize()
-             */
-            throw new MetalconRuntimeException("You have to call "
-                    + LevelDbHandler.class.getName()
-                    + ".initialize() before calling this constructor");
-        }
+                * keyPrefix.hashCode(), keyEncoding);
     }
 
     /**
      * Completely deletes all data stored in the central levelDB (including all
-     * data from all instances
+     * data from all instances and all shards)
      * 
      * @param areYouSure
      *            must be "Yes I am"
@@ -154,14 +452,109 @@ public class LevelDbHandler {
      */
     public static void clearDataBase(final String areYouSure)
             throws IOException {
-        if (areYouSure.equals("Yes I am") && db != null) {
-            db.close();
-            IOHelper.deleteFile(new File(DBPath_));
-            db = null;
+        if (areYouSure.equals("Yes I am") && shards != null) {
+            closeOpenResources();
+            closeAll(shards);
+            for (String path : shardPaths) {
+                IOHelper.deleteFile(new File(path));
+            }
+            shards = null;
             keyPrefixes.clear();
         }
     }
 
+    /**
+     * Writes a consistent backup of all shards while reads and writes
+     * continue. Every shard is read from a snapshot taken when the backup
+     * starts. Queued asynchronous writes and buffered counter updates that
+     * have not been committed by then are not included.
+     * 
+     * @param file
+     *            the backup file, an existing file is overwritten
+     * @param compress
+     *            whether the backup is GZIP compressed
+     * @param bytesPerSecond
+     *            maximum rate the file is written with, 0 for no limit
+     * @return the number of entries written
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public static long backup(final File file, final boolean compress,
+            final long bytesPerSecond) throws IOException {
+        DB[] shards = LevelDbHandler.shards;
+        if (shards == null) {
+            throw new MetalconRuntimeException("You have to call "
+                    + LevelDbHandler.class.getName()
+                    + ".initialize() before writing a backup");
+        }
+        Snapshot[] snapshots = new Snapshot[shards.length];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                snapshots[i] = shards[i].getSnapshot();
+            }
+            BackupFile.Writer writer =
+                    new BackupFile.Writer(file, compress, bytesPerSecond);
+            try {
+                for (int i = 0; i < shards.length; i++) {
+                    writer.section(BackupFile.SHARD, i, shards.length);
+                    writer.entries(shards[i],
+                            new ReadOptions().snapshot(snapshots[i]), null,
+                            null);
+                }
+                writer.finish();
+            } finally {
+                writer.close();
+            }
+            return writer.getEntryCount();
+        } finally {
+            for (Snapshot snapshot : snapshots) {
+                if (snapshot != null) {
+                    close(snapshot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores a backup written by backup or backupPrefix. The entries are
+     * written over the existing data with unsynced batches, the shards are
+     * synced at the end. Backups of all shards can only be restored into the
+     * same number of shards, backups of one instance into any number.
+     * 
+     * Restores are meant for freshly initialized DBs: value caches and key
+     * filters of existing instances do not know the restored entries, and
+     * entries missing from the backup are not deleted (see clearPrefix).
+     * 
+     * @param file
+     *            the backup file
+     * @return the number of restored entries
+     * @throws IOException
+     *             if the file cannot be read, is corrupt or incomplete. Every
+     *             block is verified before it is restored, so the entries
+     *             before the damaged block have been restored.
+     */
+    public static long restore(final File file) throws IOException {
+        DB[] shards = LevelDbHandler.shards;
+        if (shards == null) {
+            throw new MetalconRuntimeException("You have to call "
+                    + LevelDbHandler.class.getName()
+                    + ".initialize() before restoring a backup");
+        }
+        return BackupFile.restore(file, shards);
+    }
+
+    /*
+     * Closes the resources of all instances, e.g. commits queued writes
+     */
+    private static void closeOpenResources() {
+        synchronized (openResources) {
+            for (Closeable resource : openResources) {
+                close(resource);
+            }
+            openResources.clear();
+        }
+    }
+
     /**
      * Associates the specified value with the specified key in the DB. If the
      * DB previously contained a mapping for the key, the old value is replaced.
@@ -172,23 +565,23 @@ public class LevelDbHandler {
      *            value to be associated with the specified key
      */
     public void put(final byte[] key, final String value) {
-        db.put(key, Serializer.Serialize(value));
+        store(key, Serializer.serialize(value));
     }
 
     public void put(final String key, final String value) { // String version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(generateKey(key), Serializer.serialize(value));
     }
 
     public void put(final long key, final String value) { // long version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), Serializer.serialize(value));
     }
 
     public void put(final int key, final String value) { // int version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), Serializer.serialize(value));
     }
 
     public void put(final short key, final String value) { // short version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), Serializer.serialize(value));
     }
 
     /**
@@ -201,23 +594,23 @@ public class LevelDbHandler {
      *            value to be associated with the specified key
      */
     public void put(final byte[] key, final long value) {
-        db.put(key, Serializer.Serialize(value));
+        store(key, scratchValue(value));
     }
 
     public void put(final String key, final long value) { // String version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(generateKey(key), scratchValue(value));
     }
 
     public void put(final long key, final long value) { // long version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     public void put(final int key, final long value) { // int version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     public void put(final short key, final long value) { // short version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     /**
@@ -230,23 +623,23 @@ public class LevelDbHandler {
      *            value to be associated with the specified key
      */
     public void put(final byte[] key, final int value) {
-        db.put(key, Serializer.Serialize(value));
+        store(key, scratchValue(value));
     }
 
     public void put(final String key, final int value) { // String version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(generateKey(key), scratchValue(value));
     }
 
     public void put(final long key, final int value) { // long version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     public void put(final int key, final int value) { // int version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     public void put(final short key, final int value) { // short version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     /**
@@ -259,23 +652,23 @@ public class LevelDbHandler {
      *            value to be associated with the specified key
      */
     public void put(final byte[] key, final short value) {
-        db.put(key, Serializer.Serialize(value));
+        store(key, scratchValue(value));
     }
 
     public void put(final String key, final short value) { // String version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(generateKey(key), scratchValue(value));
     }
 
     public void put(final long key, final short value) { // long version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     public void put(final int key, final short value) { // int version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     public void put(final short key, final short value) { // short version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     /**
@@ -288,23 +681,23 @@ public class LevelDbHandler {
      *            value to be associated with the specified key
      */
     public void put(final byte[] key, final boolean value) {
-        db.put(key, Serializer.Serialize(value));
+        store(key, scratchValue(value));
     }
 
     public void put(final String key, final boolean value) { // String version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(generateKey(key), scratchValue(value));
     }
 
     public void put(final long key, final boolean value) { // long version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     public void put(final int key, final boolean value) { // int version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     public void put(final short key, final boolean value) { // short version
-        db.put(generateKey(key), Serializer.Serialize(value));
+        store(scratchKey(key), scratchValue(value));
     }
 
     /**
@@ -317,7 +710,43 @@ public class LevelDbHandler {
      *            value to be associated with the specified key
      */
     public void put(final byte[] key, final long[] value) {
-        db.put(key, Serializer.Serialize(value));
+        long start = startTimer();
+        try {
+            GroupCommitWriter writer = asyncWriter;
+            if (writer != null) {
+                writer.submit(Collections.singletonList(new LevelDbBatch.Op(
+                        LevelDbBatch.PUT_LONGS, key,
+                        Serializer.serialize(value), 0)));
+                return;
+            }
+
+            Lock lock = locks.get(key);
+            lock.lock();
+            try {
+                if (setDeltas.isEnabled()) {
+                    /*
+                     * Pending deltas must not be applied to the new value
+                     */
+                    SetDeltaLog.Deltas deltas = setDeltas.read(db, null, key);
+                    if (!deltas.isEmpty()) {
+                        writeSet(key, Serializer.serialize(value), deltas);
+                        return;
+                    }
+                }
+                KeyFilter filter = register(key);
+                db.put(key, Serializer.serialize(value));
+                if (keyFilter != filter) {
+                    register(key);
+                }
+                invalidate(key);
+                dropCounter(key);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            record(HandlerMetrics.Operation.PUT, start, key.length,
+                    8 * value.length);
+        }
     }
 
     public void put(final String key, final long[] value) {
@@ -337,36 +766,61 @@ public class LevelDbHandler {
     }
 
     /**
-     * Adds value to the array associated with the specified key in the DB if it
-     * is not already existent (idempotent).
+     * Adds value to the set associated with the specified key in the DB if it
+     * is not already existent (idempotent). The set is stored sorted, see
+     * LongSetSerializer.
      * 
      * @param key
-     *            key associated with the array to which the specified value is
+     *            key associated with the set to which the specified value is
      *            to be added
      * @param value
-     *            value to be added to the array
+     *            value to be added to the set
      */
     public void addToSet(final byte[] key, final long value) {
-        long[] valueArray = getLongs(key);
+        long start = startTimer();
+        try {
+            GroupCommitWriter writer = asyncWriter;
+            if (writer != null) {
+                writer.submit(Collections.singletonList(new LevelDbBatch.Op(
+                        LevelDbBatch.ADD_TO_SET, key, null, value)));
+                return;
+            }
 
-        if (valueArray == null) {
-            valueArray = new long[1];
-        } else {
-            /*
-             * Check if the long is already stored
-             */
-            for (long current : valueArray) {
-                if (current == value) {
+            KeyFilter filter = register(key);
+            Lock lock = locks.get(key);
+            lock.lock();
+            try {
+                if (setDeltas.isEnabled()) {
+                    boolean compact =
+                            setDeltas.append(db, key, SetDeltaLog.ADD, value);
+                    if (keyFilter != filter) {
+                        register(key);
+                    }
+                    invalidate(key);
+                    if (compact) {
+                        compactSet(key);
+                    }
                     return;
                 }
-            }
 
-            long[] tmp = new long[valueArray.length + 1];
-            System.arraycopy(valueArray, 0, tmp, 0, valueArray.length);
-            valueArray = tmp;
+                byte[] bytes = db.get(key);
+                if (bytes != null && isSet(bytes)
+                        && LongSetSerializer.contains(bytes, value)) {
+                    return;
+                }
+                db.put(key, LongSetSerializer.serialize(LongSetSerializer.add(
+                        toSortedSet(bytes), value)));
+                if (keyFilter != filter) {
+                    register(key);
+                }
+                invalidate(key);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            record(HandlerMetrics.Operation.ADD_TO_SET, start,
+                    key.length, 8);
         }
-        valueArray[valueArray.length - 1] = value;
-        put(key, valueArray);
     }
 
     public void addToSet(final String key, final long value) { // String version
@@ -386,41 +840,52 @@ public class LevelDbHandler {
     }
 
     /**
-     * Removes value from the array associated with the specified key in the DB
+     * Removes value from the set associated with the specified key in the DB
      * 
      * @param key
-     *            key associated with the array from which the specified value
-     *            is to be removed
+     *            key associated with the set from which the specified value is
+     *            to be removed
      * @param value
-     *            value to be removed from the array
+     *            value to be removed from the set
+     * @return true if the set contained value
      */
     public boolean removeFromSet(final byte[] key, final long value) {
-        long[] valueArray = getLongs(key);
+        long start = startTimer();
+        try {
+            flush();
+            Lock lock = locks.get(key);
+            lock.lock();
+            try {
+                if (setDeltas.isEnabled()) {
+                    if (!findInSet(key, value, null)) {
+                        return false;
+                    }
+                    boolean compact =
+                            setDeltas.append(db, key, SetDeltaLog.REMOVE,
+                                    value);
+                    invalidate(key);
+                    if (compact) {
+                        compactSet(key);
+                    }
+                    return true;
+                }
 
-        if (valueArray == null) {
-            return false;
-        } else {
-            /*
-             * Seek the element
-             */
-            int pos = -1;
-            for (long current : valueArray) {
-                pos++;
-                if (current == value) {
-                    break;
+                byte[] bytes = db.get(key);
+                if (bytes == null || !setContains(bytes, value)) {
+                    return false;
                 }
-            }
-            if (pos == -1) {
-                return false;
-            }
 
-            long[] tmp = new long[valueArray.length - 1];
-            System.arraycopy(valueArray, 0, tmp, 0, pos);
-            System.arraycopy(valueArray, pos + 1, tmp, pos, tmp.length - pos);
-            valueArray = tmp;
+                db.put(key, LongSetSerializer.serialize(LongSetSerializer
+                        .remove(toSortedSet(bytes), value)));
+                invalidate(key);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            record(HandlerMetrics.Operation.REMOVE_FROM_SET, start,
+                    key.length, 8);
         }
-        put(key, valueArray);
-        return true;
     }
 
     public boolean removeFromSet(final String key, final long value) { // String
@@ -440,366 +905,2838 @@ public class LevelDbHandler {
     }
 
     /**
-     * Returns the value to which the specified key is mapped
+     * Atomically adds delta to the counter stored at key and returns the new
+     * value. Missing counters start at 0. Counters are stored like values
+     * written by put(key, long).
      * 
      * @param key
-     *            The key whose associated value is to be returned
-     * @return The value to which the specified key is mapped
+     *            key of the counter
+     * @param delta
+     *            value to be added, may be negative
+     * @return the value of the counter including delta
      */
-    public long getLong(final byte[] key) throws ElementNotFoundException {
-        byte[] bytes = db.get(key);
-        if (bytes == null) {
-            throw new ElementNotFoundException(Arrays.toString(key));
+    public long addAndGet(final byte[] key, final long delta) {
+        long start = startTimer();
+        flush();
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            CounterBuffer counters = this.counters;
+            long stored = readCounter(key);
+            if (counters != null && counters.add(key, delta)) {
+                return stored + counters.pending(key);
+            }
+            writeCounter(key, stored + delta);
+            return stored + delta;
+        } finally {
+            lock.unlock();
+            record(HandlerMetrics.Operation.COUNTER, start, key.length, 8);
         }
-        return (int) Serializer.deserialize(bytes);
     }
 
-    public long getLong(final long key) throws ElementNotFoundException {
-        return getInt(generateKey(key));
+    public long addAndGet(final String key, final long delta) { // String
+        return addAndGet(generateKey(key), delta);
     }
 
-    public long getLong(final String key) throws ElementNotFoundException {
-        return getInt(generateKey(key));
+    public long addAndGet(final long key, final long delta) { // long
+        return addAndGet(generateKey(key), delta);
     }
 
-    public long getLong(final int key) throws ElementNotFoundException {
-        return getInt(generateKey(key));
+    public long addAndGet(final int key, final long delta) { // int
+        return addAndGet(generateKey(key), delta);
     }
 
-    public long getLong(final short key) throws ElementNotFoundException {
-        return getInt(generateKey(key));
+    public long addAndGet(final short key, final long delta) { // short
+        return addAndGet(generateKey(key), delta);
     }
 
     /**
-     * Returns the value to which the specified key is mapped
+     * Atomically adds 1 to the counter stored at key. With a counter buffer
+     * (see enableCounterBuffer) the update is only recorded in memory and
+     * does not read the stored value.
      * 
      * @param key
-     *            The key whose associated value is to be returned
-     * @return The value to which the specified key is mapped
+     *            key of the counter
      */
-    public int getInt(final byte[] key) throws ElementNotFoundException {
-        byte[] bytes = db.get(key);
-        if (bytes == null) {
-            throw new ElementNotFoundException(Arrays.toString(key));
-        }
-        return (int) Serializer.deserialize(bytes);
+    public void increment(final byte[] key) {
+        add(key, 1);
     }
 
-    public int getInt(final long key) throws ElementNotFoundException {
-        return getInt(generateKey(key));
+    public void increment(final String key) { // String version
+        add(generateKey(key), 1);
     }
 
-    public int getInt(final String key) throws ElementNotFoundException {
-        return getInt(generateKey(key));
+    public void increment(final long key) { // long version
+        add(generateKey(key), 1);
     }
 
-    public int getInt(final int key) throws ElementNotFoundException {
-        return getInt(generateKey(key));
+    public void increment(final int key) { // int version
+        add(generateKey(key), 1);
     }
 
-    public int getInt(final short key) throws ElementNotFoundException {
-        return getInt(generateKey(key));
+    public void increment(final short key) { // short version
+        add(generateKey(key), 1);
     }
 
     /**
-     * Returns the value to which the specified key is mapped
+     * Atomically subtracts 1 from the counter stored at key, see increment
      * 
      * @param key
-     *            The key whose associated value is to be returned
-     * @return The value to which the specified key is mapped
+     *            key of the counter
      */
-    public short getShort(final byte[] key) throws ElementNotFoundException {
-        byte[] bytes = db.get(key);
-        if (bytes == null) {
-            throw new ElementNotFoundException(Arrays.toString(key));
-        }
-        return (short) Serializer.deserialize(bytes);
+    public void decrement(final byte[] key) {
+        add(key, -1);
     }
 
-    public short getShort(final long key) throws ElementNotFoundException {
-        return getShort(generateKey(key));
+    public void decrement(final String key) { // String version
+        add(generateKey(key), -1);
     }
 
-    public short getShort(final String key) throws ElementNotFoundException {
-        return getShort(generateKey(key));
+    public void decrement(final long key) { // long version
+        add(generateKey(key), -1);
     }
 
-    public short getShort(final int key) throws ElementNotFoundException {
-        return getShort(generateKey(key));
+    public void decrement(final int key) { // int version
+        add(generateKey(key), -1);
     }
 
-    public short getShort(final short key) throws ElementNotFoundException {
-        return getShort(generateKey(key));
+    public void decrement(final short key) { // short version
+        add(generateKey(key), -1);
     }
 
     /**
-     * Returns the value to which the specified key is mapped
+     * Returns the exact value of a counter including its pending updates
      * 
      * @param key
-     *            The key whose associated value is to be returned
-     * @return The value to which the specified key is mapped
+     *            key of the counter
+     * @return the value of the counter, 0 if it is missing
      */
-    public boolean getBoolean(final byte[] key) throws ElementNotFoundException {
-        byte[] bytes = db.get(key);
-        if (bytes == null) {
-            throw new ElementNotFoundException(Arrays.toString(key));
-        }
-        return (boolean) Serializer.deserialize(bytes);
+    public long getCounter(final byte[] key) {
+        Long value = findLong(key);
+        return value == null ? 0 : value;
     }
 
-    public boolean getBoolean(final long key) throws ElementNotFoundException {
-        return getBoolean(generateKey(key));
+    public long getCounter(final String key) { // String version
+        return getCounter(generateKey(key));
     }
 
-    public boolean getBoolean(final String key) throws ElementNotFoundException {
-        return getBoolean(generateKey(key));
+    public long getCounter(final long key) { // long version
+        return getCounter(generateKey(key));
     }
 
-    public boolean getBoolean(final int key) throws ElementNotFoundException {
-        return getBoolean(generateKey(key));
+    public long getCounter(final int key) { // int version
+        return getCounter(generateKey(key));
     }
 
-    public boolean getBoolean(final short key) throws ElementNotFoundException {
-        return getBoolean(generateKey(key));
+    public long getCounter(final short key) { // short version
+        return getCounter(generateKey(key));
     }
 
     /**
-     * Returns the value to which the specified key is mapped
+     * Returns the large set stored at key. Large sets store their members in
+     * sorted chunks, so updates, membership checks and paged reads only touch
+     * one chunk instead of the complete set. They should be used for sets
+     * with more than a few thousand members.
      * 
      * @param key
-     *            The key whose associated value is to be returned
-     * @return The value to which the specified key is mapped
+     *            key of the set
+     * @return a handle of the set, which exists as long as it has members
      */
-    public String getString(final byte[] key) {
-        return (String) Serializer.deserialize(db.get(key));
+    public LargeSet getLargeSet(final byte[] key) {
+        byte[] prefix = new byte[largeSets.length + 4 + key.length];
+        System.arraycopy(largeSets, 0, prefix, 0, largeSets.length);
+        Serializer.writeInt(prefix, largeSets.length, key.length);
+        System.arraycopy(key, 0, prefix, largeSets.length + 4, key.length);
+        return new LargeSet(this, db, locks.get(key), prefix);
     }
 
-    public String getString(final long key) {
-        return getString(generateKey(key));
+    public LargeSet getLargeSet(final String key) { // String version
+        return getLargeSet(generateKey(key));
     }
 
-    public String getString(final String key) {
-        return getString(generateKey(key));
+    public LargeSet getLargeSet(final long key) { // long version
+        return getLargeSet(generateKey(key));
     }
 
-    public String getString(final int key) {
-        return getString(generateKey(key));
+    public LargeSet getLargeSet(final int key) { // int version
+        return getLargeSet(generateKey(key));
     }
 
-    public String getString(final short key) {
-        return getString(generateKey(key));
+    public LargeSet getLargeSet(final short key) { // short version
+        return getLargeSet(generateKey(key));
+    }
+
+    /*
+     * Adds delta to a counter without returning its value
+     */
+    private void add(final byte[] key, final long delta) {
+        CounterBuffer counters = this.counters;
+        if (counters == null) {
+            addAndGet(key, delta);
+            return;
+        }
+
+        long start = startTimer();
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            if (counters.add(key, delta)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+            record(HandlerMetrics.Operation.COUNTER, start, key.length, 8);
+        }
+        addAndGet(key, delta);
+    }
+
+    /*
+     * Reads the stored value of a counter, the caller holds the lock of key
+     */
+    private long readCounter(final byte[] key) {
+        byte[] bytes = db.get(key);
+        return bytes == null ? 0 : Serializer.deserializeLong(bytes);
+    }
+
+    /*
+     * Reads a counter including its pending updates
+     */
+    private long readCounter(final byte[] key, final CounterBuffer counters) {
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            return readCounter(key) + counters.pending(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Stores the value of a counter, the caller holds the lock of key
+     */
+    private void writeCounter(final byte[] key, final long value) {
+        KeyFilter filter = register(key);
+        db.put(key, Serializer.serialize(value));
+        if (keyFilter != filter) {
+            register(key);
+        }
+        invalidate(key);
+    }
+
+    /*
+     * Drops the pending updates of a counter that is overwritten, the caller
+     * holds the lock of key
+     */
+    private void dropCounter(final byte[] key) {
+        CounterBuffer counters = this.counters;
+        if (counters != null) {
+            counters.discard(key);
+        }
     }
 
     /**
-     * Returns the long[] to which the specified key is mapped, or null if the
-     * DB contains no mapping for the key.
+     * Returns the value to which the specified key is mapped
      * 
      * @param key
      *            The key whose associated value is to be returned
-     * @return The long[] to which the specified key is mapped, or null if the
-     *         DB contains no mapping for the key.
+     * @return The value to which the specified key is mapped
      */
-    public long[] getLongs(final byte[] key) {
-        byte[] bytes = db.get(key);
-        if (bytes == null) {
-            return null;
+    public long getLong(final byte[] key) throws ElementNotFoundException {
+        Long value = findLong(key);
+        if (value == null) {
+            throw new ElementNotFoundException(Arrays.toString(key));
         }
-        return (long[]) Serializer.deserialize(bytes);
+        return value;
     }
 
-    public long[] getLongs(final String key) {
-        return getLongs(generateKey(key));
+    public long getLong(final long key) throws ElementNotFoundException {
+        return getLong(scratchKey(key));
     }
 
-    public long[] getLongs(final long key) {
-        return getLongs(generateKey(key));
+    public long getLong(final String key) throws ElementNotFoundException {
+        return getLong(generateKey(key));
     }
 
-    public long[] getLongs(final int key) {
-        return getLongs(generateKey(key));
+    public long getLong(final int key) throws ElementNotFoundException {
+        return getLong(scratchKey(key));
     }
 
-    public long[] getLongs(final short key) {
-        return getLongs(generateKey(key));
+    public long getLong(final short key) throws ElementNotFoundException {
+        return getLong(scratchKey(key));
     }
 
     /**
-     * Removes the mapping for a key from this DB if it is present
+     * Returns the value to which the specified key is mapped without throwing
+     * if the key is missing
      * 
-     * @param keyUUID
-     *            The key to be removed
+     * @param key
+     *            The key whose associated value is to be returned
+     * @param defaultValue
+     *            The value returned if the DB contains no mapping for the key
+     * @return The value to which the specified key is mapped, or
+     *         defaultValue
      */
-    public void removeKey(final String keyUUID) {
-        db.delete(generateKey(keyUUID));
+    public long getLongOrDefault(final byte[] key, final long defaultValue) {
+        Long value = findLong(key);
+        return value == null ? defaultValue : value;
     }
 
-    public void removeKey(final long keyUUID) {
-        db.delete(generateKey(keyUUID));
+    public long getLongOrDefault(final String key, final long defaultValue) {
+        return getLongOrDefault(generateKey(key), defaultValue);
     }
 
-    public void removeKey(final int keyUUID) {
-        db.delete(generateKey(keyUUID));
+    public long getLongOrDefault(final long key, final long defaultValue) {
+        return getLongOrDefault(scratchKey(key), defaultValue);
     }
 
-    public void removeKey(final short keyUUID) {
-        db.delete(generateKey(keyUUID));
+    public long getLongOrDefault(final int key, final long defaultValue) {
+        return getLongOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public long getLongOrDefault(final short key, final long defaultValue) {
+        return getLongOrDefault(scratchKey(key), defaultValue);
+    }
+
+    /*
+     * Reads a long through the cache, null if the key is missing
+     */
+    private Long findLong(final byte[] key) {
+        long start = startTimer();
+        CounterBuffer counters = this.counters;
+        if (counters != null && counters.hasPending(key)
+                && !ReadSnapshot.isOpen()) {
+            long value = readCounter(key, counters);
+            record(HandlerMetrics.Operation.GET, start, key.length, 8);
+            return value;
+        }
+        ValueCache cache = readCache();
+        long stamp = 0;
+        if (cache != null) {
+            Object value = cache.get(key);
+            if (value instanceof Long || value instanceof Integer
+                    || value instanceof Short) {
+                record(HandlerMetrics.Operation.GET, start, key.length, 0);
+                return ((Number) value).longValue();
+            }
+            stamp = cache.stamp(key);
+        }
+
+        byte[] bytes = load(key);
+        record(HandlerMetrics.Operation.GET, start, key.length, length(bytes));
+        if (bytes == null) {
+            return null;
+        }
+        long value = Serializer.deserializeLong(bytes);
+        if (cache != null) {
+            cache.put(key, value, stamp);
+        }
+        return value;
     }
 
     /**
-     * Try to avoid using this method and use get() instead!
+     * Returns the value to which the specified key is mapped
      * 
-     * @param keyUUID
-     * @return
+     * @param key
+     *            The key whose associated value is to be returned
+     * @return The value to which the specified key is mapped
      */
-    public boolean containsKey(final String keyUUID) {
-        return db.get(generateKey(keyUUID)) != null;
+    public int getInt(final byte[] key) throws ElementNotFoundException {
+        Integer value = findInt(key);
+        if (value == null) {
+            throw new ElementNotFoundException(Arrays.toString(key));
+        }
+        return value;
     }
 
-    public boolean containsKey(final long keyUUID) {
-        return db.get(generateKey(keyUUID)) != null;
+    public int getInt(final long key) throws ElementNotFoundException {
+        return getInt(scratchKey(key));
     }
 
-    public boolean containsKey(final int keyUUID) {
-        return db.get(generateKey(keyUUID)) != null;
+    public int getInt(final String key) throws ElementNotFoundException {
+        return getInt(generateKey(key));
     }
 
-    public boolean containsKey(final short keyUUID) {
-        return db.get(generateKey(keyUUID)) != null;
+    public int getInt(final int key) throws ElementNotFoundException {
+        return getInt(scratchKey(key));
+    }
+
+    public int getInt(final short key) throws ElementNotFoundException {
+        return getInt(scratchKey(key));
     }
 
     /**
-     * Try to avoid using this method and use get() instead!
-     * 
-     * FIXME: Sort the Set and use binary search
+     * Returns the value to which the specified key is mapped without throwing
+     * if the key is missing
      * 
      * @param key
-     * @return
+     *            The key whose associated value is to be returned
+     * @param defaultValue
+     *            The value returned if the DB contains no mapping for the key
+     * @return The value to which the specified key is mapped, or
+     *         defaultValue
      */
-    public boolean setContainsElement(final byte[] key, final long value) {
-        if (getLongs(key) == null) {
-            return false;
-        }
-        for (long l : getLongs(key)) {
-            if (l == value) {
-                return true;
-            }
-        }
-        return false;
+    public int getIntOrDefault(final byte[] key, final int defaultValue) {
+        Integer value = findInt(key);
+        return value == null ? defaultValue : value;
     }
 
-    public boolean setContainsElement(final String key, final long value) {
-        return setContainsElement(generateKey(key), value);
+    public int getIntOrDefault(final String key, final int defaultValue) {
+        return getIntOrDefault(generateKey(key), defaultValue);
     }
 
-    public boolean setContainsElement(final long key, final long value) {
-        return setContainsElement(generateKey(key), value);
+    public int getIntOrDefault(final long key, final int defaultValue) {
+        return getIntOrDefault(scratchKey(key), defaultValue);
     }
 
-    public boolean setContainsElement(final int key, final long value) {
-        return setContainsElement(generateKey(key), value);
+    public int getIntOrDefault(final int key, final int defaultValue) {
+        return getIntOrDefault(scratchKey(key), defaultValue);
     }
 
-    public boolean setContainsElement(final short key, final long value) {
-        return setContainsElement(generateKey(key), value);
+    public int getIntOrDefault(final short key, final int defaultValue) {
+        return getIntOrDefault(scratchKey(key), defaultValue);
     }
 
-    /**
-     * Generates a key identifying the given keySuffix within this instance
-     * 
-     * @param keySuffix
-     *            the key that should be concatenated to the key identifying
-     *            this instance
-     * @return the key identifying keySuffix within this instance
+    /*
+     * Reads a int through the cache, null if the key is missing
      */
-    public byte[] generateKey(final String keySuffix) {
-        if (keySuffix.length() == 0) {
-            return null;
+    private Integer findInt(final byte[] key) {
+        long start = startTimer();
+        ValueCache cache = readCache();
+        long stamp = 0;
+        if (cache != null) {
+            Object value = cache.get(key);
+            if (value instanceof Integer || value instanceof Short) {
+                record(HandlerMetrics.Operation.GET, start, key.length, 0);
+                return ((Number) value).intValue();
+            }
+            stamp = cache.stamp(key);
         }
-        byte[] suffix = JniDBFactory.bytes(keySuffix);
-        byte[] key = new byte[8 + keySuffix.length()];
-        System.arraycopy(keyPrefix, 0, key, 0, 8);
-        System.arraycopy(suffix, 0, key, 8, suffix.length);
 
-        return key;
+        byte[] bytes = load(key);
+        record(HandlerMetrics.Operation.GET, start, key.length, length(bytes));
+        if (bytes == null) {
+            return null;
+        }
+        int value = Serializer.deserializeInt(bytes);
+        if (cache != null) {
+            cache.put(key, value, stamp);
+        }
+        return value;
     }
 
     /**
-     * Generates a key identifying the given keySuffix within this instance
+     * Returns the value to which the specified key is mapped
      * 
-     * @param keySuffix
-     *            the key that should be concatenated to the key identifying
-     *            this instance
-     * @return the key identifying keySuffix within this instance
+     * @param key
+     *            The key whose associated value is to be returned
+     * @return The value to which the specified key is mapped
      */
-    public byte[] generateKey(final long keySuffix) {
-        byte[] key = new byte[16];
-        System.arraycopy(keyPrefix, 0, key, 0, 8);
-        key[8] = (byte) (keySuffix >> 56);
-        key[9] = (byte) (keySuffix >> 48);
-        key[10] = (byte) (keySuffix >> 40);
-        key[11] = (byte) (keySuffix >> 32);
-        key[12] = (byte) (keySuffix >> 24);
-        key[13] = (byte) (keySuffix >> 16);
-        key[14] = (byte) (keySuffix >> 8);
-        key[15] = (byte) (keySuffix);
+    public short getShort(final byte[] key) throws ElementNotFoundException {
+        Short value = findShort(key);
+        if (value == null) {
+            throw new ElementNotFoundException(Arrays.toString(key));
+        }
+        return value;
+    }
 
-        return key;
+    public short getShort(final long key) throws ElementNotFoundException {
+        return getShort(scratchKey(key));
     }
 
-    /**
-     * Generates a key identifying the given keySuffix within this instance
-     * 
-     * @param keySuffix
-     *            the key that should be concatenated to the key identifying
-     *            this instance
-     * @return the key identifying keySuffix within this instance
-     */
-    public byte[] generateKey(final int keySuffix) {
-        byte[] key = new byte[12];
-        System.arraycopy(keyPrefix, 0, key, 0, 8);
-        key[8] = (byte) (keySuffix >> 24);
-        key[9] = (byte) (keySuffix >> 16);
-        key[10] = (byte) (keySuffix >> 8);
-        key[11] = (byte) (keySuffix);
+    public short getShort(final String key) throws ElementNotFoundException {
+        return getShort(generateKey(key));
+    }
 
-        return key;
+    public short getShort(final int key) throws ElementNotFoundException {
+        return getShort(scratchKey(key));
+    }
+
+    public short getShort(final short key) throws ElementNotFoundException {
+        return getShort(scratchKey(key));
     }
 
     /**
-     * Generates a key identifying the given keySuffix within this instance
+     * Returns the value to which the specified key is mapped without throwing
+     * if the key is missing
      * 
-     * @param keySuffix
-     *            the key that should be concatenated to the key identifying
-     *            this instance
-     * @return the key identifying keySuffix within this instance
+     * @param key
+     *            The key whose associated value is to be returned
+     * @param defaultValue
+     *            The value returned if the DB contains no mapping for the key
+     * @return The value to which the specified key is mapped, or
+     *         defaultValue
      */
-    public byte[] generateKey(final short keySuffix) {
-        byte[] key = new byte[10];
-        System.arraycopy(keyPrefix, 0, key, 0, 8);
-        key[8] = (byte) (keySuffix >> 8);
-        key[9] = (byte) (keySuffix);
+    public short getShortOrDefault(final byte[] key, final short defaultValue) {
+        Short value = findShort(key);
+        return value == null ? defaultValue : value;
+    }
 
-        return key;
+    public short getShortOrDefault(final String key, final short defaultValue) {
+        return getShortOrDefault(generateKey(key), defaultValue);
     }
 
-    @Override
-    public String toString() {
-        if (db == null) {
-            return "DB is Empty";
+    public short getShortOrDefault(final long key, final short defaultValue) {
+        return getShortOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public short getShortOrDefault(final int key, final short defaultValue) {
+        return getShortOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public short getShortOrDefault(final short key, final short defaultValue) {
+        return getShortOrDefault(scratchKey(key), defaultValue);
+    }
+
+    /*
+     * Reads a short through the cache, null if the key is missing
+     */
+    private Short findShort(final byte[] key) {
+        long start = startTimer();
+        ValueCache cache = readCache();
+        long stamp = 0;
+        if (cache != null) {
+            Object value = cache.get(key);
+            if (value instanceof Short) {
+                record(HandlerMetrics.Operation.GET, start, key.length, 0);
+                return (Short) value;
+            }
+            stamp = cache.stamp(key);
         }
-        StringBuilder builder = new StringBuilder();
-        DBIterator iterator = db.iterator();
-        for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) {
-            System.out.println(asString(iterator.peekNext().getKey()) + ":");
-            builder.append(asString(iterator.peekNext().getKey()) + ":");
-            builder.append("\t"
-                    + Arrays.toString((long[]) Serializer.deserialize(iterator
-                            .peekNext().getValue())));
+
+        byte[] bytes = load(key);
+        record(HandlerMetrics.Operation.GET, start, key.length, length(bytes));
+        if (bytes == null) {
+            return null;
         }
-        try {
-            iterator.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        short value = Serializer.deserializeShort(bytes);
+        if (cache != null) {
+            cache.put(key, value, stamp);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped
+     * 
+     * @param key
+     *            The key whose associated value is to be returned
+     * @return The value to which the specified key is mapped
+     */
+    public boolean getBoolean(final byte[] key) throws ElementNotFoundException {
+        Boolean value = findBoolean(key);
+        if (value == null) {
+            throw new ElementNotFoundException(Arrays.toString(key));
+        }
+        return value;
+    }
+
+    public boolean getBoolean(final long key) throws ElementNotFoundException {
+        return getBoolean(scratchKey(key));
+    }
+
+    public boolean getBoolean(final String key) throws ElementNotFoundException {
+        return getBoolean(generateKey(key));
+    }
+
+    public boolean getBoolean(final int key) throws ElementNotFoundException {
+        return getBoolean(scratchKey(key));
+    }
+
+    public boolean getBoolean(final short key) throws ElementNotFoundException {
+        return getBoolean(scratchKey(key));
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped without throwing
+     * if the key is missing
+     * 
+     * @param key
+     *            The key whose associated value is to be returned
+     * @param defaultValue
+     *            The value returned if the DB contains no mapping for the key
+     * @return The value to which the specified key is mapped, or
+     *         defaultValue
+     */
+    public boolean getBooleanOrDefault(final byte[] key,
+            final boolean defaultValue) {
+        Boolean value = findBoolean(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean getBooleanOrDefault(final String key,
+            final boolean defaultValue) {
+        return getBooleanOrDefault(generateKey(key), defaultValue);
+    }
+
+    public boolean getBooleanOrDefault(final long key,
+            final boolean defaultValue) {
+        return getBooleanOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public boolean getBooleanOrDefault(final int key,
+            final boolean defaultValue) {
+        return getBooleanOrDefault(scratchKey(key), defaultValue);
+    }
+
+    public boolean getBooleanOrDefault(final short key,
+            final boolean defaultValue) {
+        return getBooleanOrDefault(scratchKey(key), defaultValue);
+    }
+
+    /*
+     * Reads a boolean through the cache, null if the key is missing
+     */
+    private Boolean findBoolean(final byte[] key) {
+        long start = startTimer();
+        ValueCache cache = readCache();
+        long stamp = 0;
+        if (cache != null) {
+            Object value = cache.get(key);
+            if (value instanceof Boolean) {
+                record(HandlerMetrics.Operation.GET, start, key.length, 0);
+                return (Boolean) value;
+            }
+            stamp = cache.stamp(key);
+        }
+
+        byte[] bytes = load(key);
+        record(HandlerMetrics.Operation.GET, start, key.length, length(bytes));
+        if (bytes == null) {
+            return null;
+        }
+        boolean value = Serializer.deserializeBoolean(bytes);
+        if (cache != null) {
+            cache.put(key, value, stamp);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped
+     * 
+     * @param key
+     *            The key whose associated value is to be returned
+     * @return The value to which the specified key is mapped
+     */
+    public String getString(final byte[] key) {
+        long start = startTimer();
+        ValueCache cache = readCache();
+        long stamp = 0;
+        if (cache != null) {
+            Object value = cache.get(key);
+            if (value instanceof String) {
+                record(HandlerMetrics.Operation.GET, start, key.length, 0);
+                return (String) value;
+            }
+            stamp = cache.stamp(key);
+        }
+
+        byte[] bytes = load(key);
+        record(HandlerMetrics.Operation.GET, start, key.length, length(bytes));
+        String value = Serializer.deserializeString(bytes);
+        if (cache != null && value != null) {
+            cache.put(key, value, stamp);
+        }
+        return value;
+    }
+
+    public String getString(final long key) {
+        return getString(scratchKey(key));
+    }
+
+    public String getString(final String key) {
+        return getString(generateKey(key));
+    }
+
+    public String getString(final int key) {
+        return getString(scratchKey(key));
+    }
+
+    public String getString(final short key) {
+        return getString(scratchKey(key));
+    }
+
+    /**
+     * Returns the long[] to which the specified key is mapped, or null if the
+     * DB contains no mapping for the key. Sets written by addToSet are
+     * returned sorted.
+     * 
+     * @param key
+     *            The key whose associated value is to be returned
+     * @return The long[] to which the specified key is mapped, or null if the
+     *         DB contains no mapping for the key.
+     */
+    public long[] getLongs(final byte[] key) {
+        long start = startTimer();
+        ValueCache cache = readCache();
+        long stamp = 0;
+        if (cache != null) {
+            Object value = cache.get(key);
+            if (value instanceof long[]) {
+                record(HandlerMetrics.Operation.GET, start, key.length, 0);
+                return ((long[]) value).clone();
+            }
+            stamp = cache.stamp(key);
+        }
+
+        long[] value;
+        if (setDeltas.isEnabled()) {
+            value = rejects(key) ? null : readSet(key, false);
+            record(HandlerMetrics.Operation.GET, start, key.length,
+                    value == null ? 0 : 8 * value.length);
+        } else {
+            byte[] bytes = load(key);
+            record(HandlerMetrics.Operation.GET, start, key.length,
+                    length(bytes));
+            value = bytes == null ? null : Serializer.deserializeLongs(bytes);
+        }
+        if (cache != null && value != null) {
+            cache.put(key, value.clone(), stamp);
+        }
+        return value;
+    }
+
+    public long[] getLongs(final String key) {
+        return getLongs(generateKey(key));
+    }
+
+    public long[] getLongs(final long key) {
+        return getLongs(generateKey(key));
+    }
+
+    public long[] getLongs(final int key) {
+        return getLongs(generateKey(key));
+    }
+
+    public long[] getLongs(final short key) {
+        return getLongs(generateKey(key));
+    }
+
+    /**
+     * Removes the mapping for a key from this DB if it is present
+     * 
+     * @param key
+     *            The key to be removed
+     */
+    public void removeKey(final byte[] key) {
+        long start = startTimer();
+        try {
+            flush();
+            Lock lock = locks.get(key);
+            lock.lock();
+            try {
+                if (setDeltas.isEnabled()) {
+                    SetDeltaLog.Deltas deltas = setDeltas.read(db, null, key);
+                    if (!deltas.isEmpty()) {
+                        writeSet(key, null, deltas);
+                        return;
+                    }
+                }
+                db.delete(key);
+                invalidate(key);
+                dropCounter(key);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            record(HandlerMetrics.Operation.REMOVE_KEY, start,
+                    key.length, 0);
+        }
+    }
+
+    public void removeKey(final String keyUUID) {
+        removeKey(generateKey(keyUUID));
+    }
+
+    public void removeKey(final long keyUUID) {
+        removeKey(generateKey(keyUUID));
+    }
+
+    public void removeKey(final int keyUUID) {
+        removeKey(generateKey(keyUUID));
+    }
+
+    public void removeKey(final short keyUUID) {
+        removeKey(generateKey(keyUUID));
+    }
+
+    /**
+     * Try to avoid using this method and use get() instead!
+     * 
+     * @param keyUUID
+     * @return
+     */
+    public boolean containsKey(final byte[] key) {
+        long start = startTimer();
+        ValueCache cache = readCache();
+        boolean contains =
+                cache != null && cache.get(key) != null || load(key) != null;
+        record(HandlerMetrics.Operation.CONTAINS_KEY, start, key.length, 0);
+        return contains;
+    }
+
+    public boolean containsKey(final String keyUUID) {
+        return containsKey(generateKey(keyUUID));
+    }
+
+    public boolean containsKey(final long keyUUID) {
+        return containsKey(scratchKey(keyUUID));
+    }
+
+    public boolean containsKey(final int keyUUID) {
+        return containsKey(scratchKey(keyUUID));
+    }
+
+    public boolean containsKey(final short keyUUID) {
+        return containsKey(scratchKey(keyUUID));
+    }
+
+    /**
+     * Checks whether the set associated with key contains value. Sets written
+     * by addToSet and removeFromSet are searched without being decoded
+     * completely.
+     * 
+     * @param key
+     *            key associated with the set
+     * @param value
+     *            value to be searched
+     * @return true if the set contains value
+     */
+    public boolean setContainsElement(final byte[] key, final long value) {
+        long start = startTimer();
+        try {
+            return !rejects(key)
+                    && findInSet(key, value, ReadSnapshot.optionsFor(db));
+        } finally {
+            record(HandlerMetrics.Operation.SET_CONTAINS, start,
+                    key.length, 8);
+        }
+    }
+
+    /*
+     * Checks whether the set stored at key contains value. Reads the given
+     * snapshot or the latest state if scoped is null.
+     */
+    private boolean findInSet(final byte[] key, final long value,
+            final ReadOptions scoped) {
+        if (setDeltas.isEnabled()) {
+            Snapshot snapshot = scoped == null ? db.getSnapshot() : null;
+            try {
+                ReadOptions options =
+                        scoped == null ? new ReadOptions().snapshot(snapshot)
+                                : scoped;
+                byte[] bytes = db.get(key, options);
+                return setDeltas.read(db, options, key).contains(value,
+                        bytes != null && setContains(bytes, value));
+            } finally {
+                if (snapshot != null) {
+                    close(snapshot);
+                }
+            }
+        }
+
+        byte[] bytes = scoped == null ? db.get(key) : db.get(key, scoped);
+        return bytes != null && setContains(bytes, value);
+    }
+
+    public boolean setContainsElement(final String key, final long value) {
+        return setContainsElement(generateKey(key), value);
+    }
+
+    public boolean setContainsElement(final long key, final long value) {
+        return setContainsElement(generateKey(key), value);
+    }
+
+    public boolean setContainsElement(final int key, final long value) {
+        return setContainsElement(generateKey(key), value);
+    }
+
+    public boolean setContainsElement(final short key, final long value) {
+        return setContainsElement(generateKey(key), value);
+    }
+
+    /**
+     * Reads the values of many keys from one snapshot (or the ReadSnapshot of
+     * the current thread). The keys are read in key order with one iterator
+     * that steps forward from key to key, so keys stored close to each other
+     * share the search through the levels of levelDB. If most keys turn out
+     * to be far apart, the remaining keys are read with point gets.
+     * 
+     * The value cache is not consulted. Pending set deltas (see
+     * enableSetDeltas) are not merged into sets.
+     * 
+     * @param keys
+     *            the keys to be read, may contain duplicates
+     * @return the values in the order of keys, missing keys are marked as not
+     *         present
+     */
+    public MultiGetResult multiGet(final byte[][] keys) {
+        long start = startTimer();
+        int n = keys.length;
+        byte[][] values = new byte[n][];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                byte[] keyA = keys[a];
+                byte[] keyB = keys[b];
+                if (keyA == null || keyB == null) {
+                    return keyA == null ? keyB == null ? 0 : -1 : 1;
+                }
+                return ByteArrayKey.compare(keyA, keyB);
+            }
+        });
+
+        ReadOptions scoped = ReadSnapshot.optionsFor(db);
+        Snapshot snapshot = scoped == null ? db.getSnapshot() : null;
+        ReadOptions options =
+                scoped == null ? new ReadOptions().snapshot(snapshot) : scoped;
+        DBIterator iterator = null;
+        boolean pointGets = n < MULTI_GET_MIN_ITERATOR_KEYS;
+        int seeks = 0;
+        int keyLength = 0;
+        int valueLength = 0;
+        try {
+            byte[] previous = null;
+            for (int j = 0; j < n; j++) {
+                int i = order[j];
+                byte[] key = keys[i];
+                if (key == null) {
+                    continue;
+                }
+                keyLength += key.length;
+                if (previous != null && Arrays.equals(previous, key)) {
+                    values[i] = values[order[j - 1]];
+                    continue;
+                }
+                previous = key;
+                if (rejects(key)) {
+                    continue;
+                }
+
+                if (pointGets) {
+                    values[i] = db.get(key, options);
+                } else {
+                    if (iterator == null) {
+                        iterator = db.iterator(options);
+                        iterator.seek(key);
+                    } else {
+                        /*
+                         * Step to the key if it is close, seek otherwise
+                         */
+                        int steps = 0;
+                        while (iterator.hasNext()
+                                && ByteArrayKey.compare(iterator.peekNext()
+                                        .getKey(), key) < 0) {
+                            if (++steps > MULTI_GET_MAX_STEPS) {
+                                iterator.seek(key);
+                                seeks++;
+                                break;
+                            }
+                            iterator.next();
+                        }
+                    }
+                    if (iterator.hasNext()) {
+                        Map.Entry<byte[], byte[]> entry = iterator.peekNext();
+                        if (Arrays.equals(entry.getKey(), key)) {
+                            values[i] = entry.getValue();
+                        }
+                    }
+
+                    /*
+                     * Seeking costs more than a point get, so sparse keys are
+                     * read with point gets
+                     */
+                    if (j >= MULTI_GET_MIN_ITERATOR_KEYS && 2 * seeks > j) {
+                        pointGets = true;
+                    }
+                }
+                valueLength += length(values[i]);
+            }
+        } finally {
+            if (iterator != null) {
+                close(iterator);
+            }
+            if (snapshot != null) {
+                close(snapshot);
+            }
+        }
+        record(HandlerMetrics.Operation.MULTI_GET, start, keyLength,
+                valueLength);
+        return new MultiGetResult(values);
+    }
+
+    public MultiGetResult multiGet(final String[] keys) { // String version
+        return multiGet(generateKeys(keys));
+    }
+
+    public MultiGetResult multiGet(final long[] keys) { // long version
+        return multiGet(generateKeys(keys));
+    }
+
+    public MultiGetResult multiGet(final int[] keys) { // int version
+        return multiGet(generateKeys(keys));
+    }
+
+    public MultiGetResult multiGet(final short[] keys) { // short version
+        return multiGet(generateKeys(keys));
+    }
+
+    /**
+     * Computes the members contained in all sets stored at keys. The sets are
+     * read from one snapshot and intersected in their stored encoding: the
+     * smallest set drives the intersection and the others skip ahead with
+     * galloping search, so only the blocks of large sets that may hold common
+     * members are decoded. Missing keys are empty sets.
+     * 
+     * @param keys
+     *            keys of the sets
+     * @return the sorted common members
+     */
+    public long[] intersect(final byte[]... keys) {
+        long start = startTimer();
+        long[] result = SetAlgebra.intersect(readSets(keys));
+        record(HandlerMetrics.Operation.SET_QUERY, start, length(keys),
+                8 * result.length);
+        return result;
+    }
+
+    public long[] intersect(final String... keys) { // String version
+        return intersect(generateKeys(keys));
+    }
+
+    public long[] intersect(final long... keys) { // long version
+        return intersect(generateKeys(keys));
+    }
+
+    public long[] intersect(final int... keys) { // int version
+        return intersect(generateKeys(keys));
+    }
+
+    public long[] intersect(final short... keys) { // short version
+        return intersect(generateKeys(keys));
+    }
+
+    /**
+     * Counts the members contained in all sets stored at keys without
+     * materializing them, see intersect. The sizes of unions and differences
+     * of two sets follow from it: |A + B| = |A| + |B| - |A * B| and
+     * |A - B| = |A| - |A * B|.
+     * 
+     * @param keys
+     *            keys of the sets
+     * @return the number of common members
+     */
+    public long intersectCount(final byte[]... keys) {
+        long start = startTimer();
+        int count = SetAlgebra.intersectCount(readSets(keys));
+        record(HandlerMetrics.Operation.SET_QUERY, start, length(keys), 0);
+        return count;
+    }
+
+    public long intersectCount(final String... keys) { // String version
+        return intersectCount(generateKeys(keys));
+    }
+
+    public long intersectCount(final long... keys) { // long version
+        return intersectCount(generateKeys(keys));
+    }
+
+    public long intersectCount(final int... keys) { // int version
+        return intersectCount(generateKeys(keys));
+    }
+
+    public long intersectCount(final short... keys) { // short version
+        return intersectCount(generateKeys(keys));
+    }
+
+    /**
+     * Computes the members contained in any of the sets stored at keys. The
+     * sets are read from one snapshot and merged in a single pass. Unions of
+     * more than two sets whose members are dense are collected in a bitmap
+     * instead. Missing keys are empty sets.
+     * 
+     * @param keys
+     *            keys of the sets
+     * @return the sorted members of all sets
+     */
+    public long[] union(final byte[]... keys) {
+        long start = startTimer();
+        long[] result = SetAlgebra.union(readSets(keys));
+        record(HandlerMetrics.Operation.SET_QUERY, start, length(keys),
+                8 * result.length);
+        return result;
+    }
+
+    public long[] union(final String... keys) { // String version
+        return union(generateKeys(keys));
+    }
+
+    public long[] union(final long... keys) { // long version
+        return union(generateKeys(keys));
+    }
+
+    public long[] union(final int... keys) { // int version
+        return union(generateKeys(keys));
+    }
+
+    public long[] union(final short... keys) { // short version
+        return union(generateKeys(keys));
+    }
+
+    /**
+     * Computes the members of the set stored at key that are not contained in
+     * any of the sets stored at others, see intersect. Missing keys are empty
+     * sets.
+     * 
+     * @param key
+     *            key of the set to be reduced
+     * @param others
+     *            keys of the sets whose members are removed
+     * @return the sorted remaining members
+     */
+    public long[] difference(final byte[] key, final byte[]... others) {
+        long start = startTimer();
+        byte[][] keys = new byte[others.length + 1][];
+        keys[0] = key;
+        System.arraycopy(others, 0, keys, 1, others.length);
+        long[] result = SetAlgebra.difference(readSets(keys));
+        record(HandlerMetrics.Operation.SET_QUERY, start, length(keys),
+                8 * result.length);
+        return result;
+    }
+
+    public long[] difference(final String key, // String version
+            final String... others) {
+        return difference(generateKey(key), generateKeys(others));
+    }
+
+    public long[] difference(final long key, // long version
+            final long... others) {
+        return difference(generateKey(key), generateKeys(others));
+    }
+
+    public long[] difference(final int key, // int version
+            final int... others) {
+        return difference(generateKey(key), generateKeys(others));
+    }
+
+    public long[] difference(final short key, // short version
+            final short... others) {
+        return difference(generateKey(key), generateKeys(others));
+    }
+
+    /*
+     * Reads the sets stored at keys from the snapshot of the current thread
+     * or from a new one. The cursors work on the values read, so the
+     * snapshot is released before the sets are combined.
+     */
+    private SetCursor[] readSets(final byte[][] keys) {
+        ReadOptions scoped = ReadSnapshot.optionsFor(db);
+        Snapshot snapshot = scoped == null ? db.getSnapshot() : null;
+        try {
+            ReadOptions options =
+                    scoped == null ? new ReadOptions().snapshot(snapshot)
+                            : scoped;
+            SetCursor[] sets = new SetCursor[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                sets[i] = setCursor(keys[i], options);
+            }
+            return sets;
+        } finally {
+            if (snapshot != null) {
+                close(snapshot);
+            }
+        }
+    }
+
+    /*
+     * Opens a cursor on the stored encoding of a set, merging pending set
+     * deltas first if there are any
+     */
+    private SetCursor setCursor(final byte[] key, final ReadOptions options) {
+        if (rejects(key)) {
+            return SetCursor.EMPTY;
+        }
+        byte[] bytes = db.get(key, options);
+        if (setDeltas.isEnabled()) {
+            SetDeltaLog.Deltas deltas = setDeltas.read(db, options, key);
+            if (!deltas.isEmpty()) {
+                return SetCursor.of(deltas.apply(toSortedSet(bytes)));
+            }
+        }
+        if (bytes == null) {
+            return SetCursor.EMPTY;
+        }
+        return isSet(bytes) ? LongSetSerializer.cursor(bytes) : SetCursor
+                .of(toSortedSet(bytes));
+    }
+
+    private byte[][] generateKeys(final String[] keys) {
+        byte[][] generated = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            generated[i] = generateKey(keys[i]);
+        }
+        return generated;
+    }
+
+    private byte[][] generateKeys(final long[] keys) {
+        byte[][] generated = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            generated[i] = generateKey(keys[i]);
+        }
+        return generated;
+    }
+
+    private byte[][] generateKeys(final int[] keys) {
+        byte[][] generated = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            generated[i] = generateKey(keys[i]);
+        }
+        return generated;
+    }
+
+    private byte[][] generateKeys(final short[] keys) {
+        byte[][] generated = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            generated[i] = generateKey(keys[i]);
+        }
+        return generated;
+    }
+
+    /**
+     * @return a new batch collecting updates of this instance
+     */
+    public LevelDbBatch createBatch() {
+        return new LevelDbBatch(this);
+    }
+
+    /**
+     * Applies all updates of a batch atomically with a single levelDB write.
+     * The keys updated by the batch are locked while it is applied, so it is
+     * linearizable with concurrent addToSet and removeFromSet calls.
+     * 
+     * @param batch
+     *            a batch created by this instance
+     */
+    public void write(final LevelDbBatch batch) {
+        checkBatch(batch);
+        flush();
+        write(batch.ops, null);
+    }
+
+    /**
+     * Queues a batch to be written by the committer thread, see
+     * enableAsyncWrites. If asynchronous writes are disabled the batch is
+     * written immediately.
+     * 
+     * @param batch
+     *            a batch created by this instance
+     * @return a future completed once the batch has been written
+     */
+    public Future<Void> writeAsync(final LevelDbBatch batch) {
+        checkBatch(batch);
+        GroupCommitWriter writer = asyncWriter;
+        if (writer != null) {
+            return writer.submit(batch.ops);
+        }
+        FutureTask<Void> done = new FutureTask<Void>(new Runnable() {
+
+            @Override
+            public void run() {
+                write(batch.ops, null);
+            }
+        }, null);
+        done.run();
+        return done;
+    }
+
+    /**
+     * Switches this instance to asynchronous writes: put, addToSet and
+     * writeAsync only queue their updates, a committer thread writes all
+     * queued updates with one levelDB write. Many writing threads then share
+     * one log append and one sync.
+     * 
+     * Reads do not wait for queued writes, so a get may not see a preceding
+     * put. removeFromSet, removeKey and write are still executed immediately
+     * after all queued writes have been committed.
+     * 
+     * A queued write that fails, e.g. addToSet on a key holding no set, does
+     * not affect other queued writes. Its error is only reported by the
+     * future returned by writeAsync.
+     * 
+     * @param queueCapacity
+     *            maximum number of queued writes, writers block if the queue
+     *            is full
+     * @param durability
+     *            when committed writes are synced to disk
+     * @param syncIntervalMillis
+     *            maximum time between two syncs for
+     *            Durability.SYNC_INTERVAL
+     */
+    public synchronized void enableAsyncWrites(final int queueCapacity,
+            final Durability durability, final long syncIntervalMillis) {
+        if (asyncWriter != null) {
+            throw new MetalconRuntimeException(
+                    "Asynchronous writes are already enabled");
+        }
+        asyncWriter =
+                new GroupCommitWriter(this, queueCapacity, durability,
+                        syncIntervalMillis);
+        synchronized (openResources) {
+            openResources.add(asyncWriter);
+        }
+    }
+
+    /**
+     * Commits all queued writes and switches back to synchronous writes
+     */
+    public synchronized void disableAsyncWrites() {
+        GroupCommitWriter writer = asyncWriter;
+        if (writer != null) {
+            asyncWriter = null;
+            writer.close();
+            synchronized (openResources) {
+                openResources.remove(writer);
+            }
+        }
+    }
+
+    /**
+     * Blocks until all queued asynchronous writes have been committed
+     */
+    public void flush() {
+        GroupCommitWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /*
+     * Writes a serialized value, or queues it in asynchronous mode
+     */
+    private void store(final byte[] key, final byte[] value) {
+        long start = startTimer();
+        GroupCommitWriter writer = asyncWriter;
+        if (writer != null) {
+            /*
+             * Key and value may be scratch buffers, the queued write has to
+             * own copies
+             */
+            writer.submit(Collections.singletonList(new LevelDbBatch.Op(
+                    LevelDbBatch.PUT, key.clone(), value.clone(), 0)));
+        } else {
+            CounterBuffer counters = this.counters;
+            Lock lock = null;
+            if (counters != null && counters.hasPending(key)) {
+                /*
+                 * Pending updates of a counter are overwritten
+                 */
+                lock = locks.get(key);
+                lock.lock();
+                counters.discard(key);
+            }
+            try {
+                KeyFilter filter = register(key);
+                db.put(key, value);
+                if (keyFilter != filter) {
+                    register(key);
+                }
+                invalidate(key);
+            } finally {
+                if (lock != null) {
+                    lock.unlock();
+                }
+            }
+        }
+        record(HandlerMetrics.Operation.PUT, start, key.length, value.length);
+    }
+
+    /**
+     * Creates a loader for large amounts of records, see BulkLoader. It
+     * buffers up to BulkLoader.DEFAULT_MEMORY_LIMIT bytes of records and
+     * spills to the temporary directory of the JVM.
+     * 
+     * @return a new loader writing to this instance
+     */
+    public BulkLoader createBulkLoader() {
+        return createBulkLoader(BulkLoader.DEFAULT_MEMORY_LIMIT, null);
+    }
+
+    /**
+     * Creates a loader for large amounts of records, see BulkLoader
+     * 
+     * @param memoryLimit
+     *            approximate number of bytes of buffered records before they
+     *            are sorted and spilled to disk
+     * @param tempDirectory
+     *            directory of the spilled runs, null for the temporary
+     *            directory of the JVM
+     * @return a new loader writing to this instance
+     */
+    public BulkLoader createBulkLoader(final long memoryLimit,
+            final File tempDirectory) {
+        return new BulkLoader(this, db, memoryLimit, tempDirectory);
+    }
+
+    /*
+     * Commits everything that could be applied on top of values written by a
+     * bulk load: queued writes, buffered counter updates and set deltas
+     */
+    void prepareBulkLoad() {
+        flush();
+        flushCounters();
+        if (setDeltas.isEnabled()) {
+            compactSets();
+        }
+    }
+
+    /*
+     * Writes a batch of a bulk load without syncing the log
+     */
+    void writeBulk(final WriteBatch batch, final List<byte[]> keys) {
+        KeyFilter filter = keyFilter;
+        if (filter != null) {
+            for (byte[] key : keys) {
+                filter.add(key);
+            }
+        }
+        db.write(batch, new WriteOptions().sync(false));
+        if (keyFilter != filter) {
+            for (byte[] key : keys) {
+                register(key);
+            }
+        }
+    }
+
+    /*
+     * Syncs the writes of a bulk load and drops the cached values it may have
+     * replaced
+     */
+    void finishBulkLoad() {
+        sync();
+        ValueCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /*
+     * Forces the write log to disk
+     */
+    void sync() {
+        WriteBatch batch = db.createWriteBatch();
+        try {
+            db.write(batch, new WriteOptions().sync(true));
+        } finally {
+            close(batch);
+        }
+    }
+
+    /*
+     * Checks that the batch can be written by this instance and marks it as
+     * written
+     */
+    private void checkBatch(final LevelDbBatch batch) {
+        if (batch.handler != this) {
+            throw new IllegalArgumentException(
+                    "The batch has been created by another instance");
+        }
+        if (batch.written) {
+            throw new IllegalStateException(
+                    "The batch has already been written");
+        }
+        batch.written = true;
+    }
+
+    /*
+     * Applies a list of batch operations with one levelDB write. Set updates
+     * are resolved under the locks of all involved keys.
+     */
+    void write(final List<LevelDbBatch.Op> ops, final WriteOptions options) {
+        if (ops.isEmpty()) {
+            return;
+        }
+        long start = startTimer();
+        List<byte[]> keys = new ArrayList<byte[]>(ops.size());
+        int keyLength = 0;
+        int valueLength = 0;
+        for (LevelDbBatch.Op op : ops) {
+            keys.add(op.key);
+            keyLength += op.key.length;
+            valueLength += op.value == null ? 8 : op.value.length;
+        }
+        KeyFilter filter = registerAll(ops);
+        List<Lock> keyLocks = locks.getAll(keys);
+        for (Lock lock : keyLocks) {
+            lock.lock();
+        }
+
+        Map<ByteArrayKey, Integer> appendedDeltas =
+                new HashMap<ByteArrayKey, Integer>();
+        try {
+            boolean appendDeltas = setDeltas.isEnabled();
+            Map<ByteArrayKey, BatchedKey> updates =
+                    new LinkedHashMap<ByteArrayKey, BatchedKey>();
+            for (LevelDbBatch.Op op : ops) {
+                ByteArrayKey key = new ByteArrayKey(op.key);
+                BatchedKey update = updates.get(key);
+                if (update == null) {
+                    update = new BatchedKey();
+                    updates.put(key, update);
+                }
+
+                switch (op.type) {
+                    case LevelDbBatch.PUT:
+                        update.replace(op.value);
+                        break;
+                    case LevelDbBatch.PUT_LONGS:
+                    case LevelDbBatch.DELETE:
+                        update.replace(op.value);
+                        if (appendDeltas && !update.deltasDropped) {
+                            /*
+                             * Pending deltas must not be applied to the new
+                             * value
+                             */
+                            for (byte[] deltaKey : setDeltas.read(db, null,
+                                    op.key).keys) {
+                                update.dropped.add(deltaKey);
+                            }
+                            update.deltasDropped = true;
+                        }
+                        update.deltas.clear();
+                        break;
+                    case LevelDbBatch.ADD_TO_SET:
+                    case LevelDbBatch.REMOVE_FROM_SET:
+                        boolean add = op.type == LevelDbBatch.ADD_TO_SET;
+                        if (appendDeltas) {
+                            update.deltas.add(setDeltas.record(op.key,
+                                    add ? SetDeltaLog.ADD : SetDeltaLog.REMOVE,
+                                    op.member));
+                        } else {
+                            if (!update.replaced) {
+                                update.replace(db.get(op.key));
+                            }
+                            long[] set = toSortedSet(update.value);
+                            if (add) {
+                                set = LongSetSerializer.add(set, op.member);
+                            } else if (update.value == null) {
+                                break;
+                            } else {
+                                set = LongSetSerializer.remove(set, op.member);
+                            }
+                            update.replace(LongSetSerializer.serialize(set));
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                "Unknown batch operation " + op.type);
+                }
+            }
+
+            WriteBatch batch = db.createWriteBatch();
+            try {
+                for (Map.Entry<ByteArrayKey, BatchedKey> entry : updates
+                        .entrySet()) {
+                    BatchedKey update = entry.getValue();
+                    for (byte[] deltaKey : update.dropped) {
+                        batch.delete(deltaKey);
+                    }
+                    if (update.replaced) {
+                        if (update.value == null) {
+                            batch.delete(entry.getKey().bytes);
+                        } else {
+                            batch.put(entry.getKey().bytes, update.value);
+                        }
+                    }
+                    for (byte[][] record : update.deltas) {
+                        batch.put(record[0], record[1]);
+                    }
+                    if (update.deltasDropped) {
+                        setDeltas.compacted(entry.getKey().bytes);
+                    }
+                    if (!update.deltas.isEmpty()) {
+                        appendedDeltas.put(entry.getKey(),
+                                update.deltas.size());
+                    }
+                }
+                if (options == null) {
+                    db.write(batch);
+                } else {
+                    db.write(batch, options);
+                }
+            } finally {
+                close(batch);
+            }
+            if (keyFilter != filter) {
+                registerAll(ops);
+            }
+            for (Map.Entry<ByteArrayKey, BatchedKey> entry : updates
+                    .entrySet()) {
+                invalidate(entry.getKey().bytes);
+                if (entry.getValue().replaced) {
+                    dropCounter(entry.getKey().bytes);
+                }
+            }
+        } finally {
+            for (Lock lock : keyLocks) {
+                lock.unlock();
+            }
+        }
+
+        for (Map.Entry<ByteArrayKey, Integer> entry : appendedDeltas
+                .entrySet()) {
+            if (setDeltas.appended(entry.getKey().bytes, entry.getValue())) {
+                compactSet(entry.getKey().bytes);
+            }
+        }
+        record(HandlerMetrics.Operation.BATCH, start, keyLength, valueLength);
+    }
+
+    /*
+     * The state of one key while a batch is applied
+     */
+    private static final class BatchedKey {
+
+        /*
+         * Whether the stored value is replaced by value (null means deleted)
+         */
+        boolean replaced;
+
+        byte[] value;
+
+        /*
+         * Whether the pending set deltas of the key have been dropped
+         */
+        boolean deltasDropped;
+
+        /*
+         * Pending set deltas to be deleted
+         */
+        final List<byte[]> dropped = new ArrayList<byte[]>();
+
+        /*
+         * Set deltas to be written
+         */
+        final List<byte[][]> deltas = new ArrayList<byte[][]>();
+
+        void replace(final byte[] value) {
+            replaced = true;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Switches addToSet and removeFromSet to append mode: updates are written
+     * as small delta records next to the set instead of rewriting the whole
+     * set, so their cost does not grow with the size of the set. getLongs and
+     * setContainsElement merge the deltas transparently. As soon as a set has
+     * collected compactionThreshold deltas they are folded into the stored
+     * set.
+     * 
+     * The mode must be enabled whenever data written in append mode is read.
+     * Use disableSetDeltas to leave it.
+     * 
+     * @param compactionThreshold
+     *            number of deltas per set that triggers its compaction
+     */
+    public void enableSetDeltas(final int compactionThreshold) {
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException(
+                    "compactionThreshold must be positive");
+        }
+        setDeltas.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Switches addToSet and removeFromSet back to rewriting the whole set and
+     * folds all pending deltas into their sets
+     */
+    public void disableSetDeltas() {
+        setDeltas.compactionThreshold = 0;
+        compactSets();
+    }
+
+    /**
+     * Folds the pending deltas of all sets of this instance into the stored
+     * sets. May be run periodically in the background to keep reads of sets
+     * with few updates fast.
+     */
+    public void compactSets() {
+        byte[] namespace = setDeltas.namespace();
+        byte[] last = null;
+        DBIterator iterator = db.iterator();
+        try {
+            for (iterator.seek(namespace); iterator.hasNext(); iterator
+                    .next()) {
+                byte[] deltaKey = iterator.peekNext().getKey();
+                if (!ByteArrayKey.startsWith(deltaKey, namespace)) {
+                    break;
+                }
+                byte[] setKey = setDeltas.setKey(deltaKey);
+                if (last == null || !Arrays.equals(last, setKey)) {
+                    if (last != null) {
+                        compactSet(last);
+                    }
+                    last = setKey;
+                }
+            }
+        } finally {
+            close(iterator);
+        }
+        if (last != null) {
+            compactSet(last);
+        }
+    }
+
+    /*
+     * Folds the pending deltas of the set stored at key into the set
+     */
+    private long[] compactSet(final byte[] key) {
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            return readSet(key, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Reads a set and merges its pending deltas. If compact is set the caller
+     * holds the lock of key and the deltas are folded into the set. Otherwise
+     * the set is read from the snapshot of the current thread, if any, and
+     * only compacted if it has reached the compaction threshold.
+     */
+    private long[] readSet(final byte[] key, final boolean compact) {
+        ReadOptions scoped = compact ? null : ReadSnapshot.optionsFor(db);
+        Snapshot snapshot = scoped == null ? db.getSnapshot() : null;
+        try {
+            /*
+             * Reading the stored set and its deltas from the same snapshot
+             * gives a consistent view without blocking writers
+             */
+            ReadOptions options =
+                    scoped == null ? new ReadOptions().snapshot(snapshot)
+                            : scoped;
+            byte[] bytes = db.get(key, options);
+            SetDeltaLog.Deltas deltas = setDeltas.read(db, options, key);
+            if (deltas.isEmpty()) {
+                return bytes == null ? null : Serializer
+                        .deserializeLongs(bytes);
+            }
+
+            long[] set = deltas.apply(toSortedSet(bytes));
+            if (compact) {
+                writeSet(key, LongSetSerializer.serialize(set), deltas);
+            } else if (scoped == null
+                    && deltas.keys.size() >= setDeltas.compactionThreshold) {
+                return compactSet(key);
+            }
+            return set;
+        } finally {
+            if (snapshot != null) {
+                close(snapshot);
+            }
+        }
+    }
+
+    /*
+     * Atomically replaces the value at key (or deletes it if value is null)
+     * and deletes the given deltas
+     */
+    private void writeSet(final byte[] key, final byte[] value,
+            final SetDeltaLog.Deltas deltas) {
+        WriteBatch batch = db.createWriteBatch();
+        try {
+            if (value == null) {
+                batch.delete(key);
+            } else {
+                batch.put(key, value);
+            }
+            for (byte[] deltaKey : deltas.keys) {
+                batch.delete(deltaKey);
+            }
+            db.write(batch);
+        } finally {
+            close(batch);
+        }
+        invalidate(key);
+        setDeltas.compacted(key);
+    }
+
+    /**
+     * Buffers the updates of counters (increment, decrement, addAndGet) in
+     * memory. A flusher thread adds the buffered updates to the stored
+     * counters with one levelDB write every flushIntervalMillis, or as soon
+     * as flushThreshold updates have been buffered, so frequently updated
+     * counters cost one write per flush instead of one per update.
+     * 
+     * getCounter, getLong and addAndGet include the buffered updates. Reads
+     * from a ReadSnapshot and scans only see flushed updates. put, removeKey
+     * and batches overwriting a counter drop its buffered updates. Buffered
+     * updates are lost if the process dies before they have been flushed.
+     * 
+     * @param flushIntervalMillis
+     *            maximum time between two flushes
+     * @param flushThreshold
+     *            number of buffered updates that triggers a flush
+     */
+    public synchronized void enableCounterBuffer(
+            final long flushIntervalMillis, final int flushThreshold) {
+        if (flushIntervalMillis <= 0 || flushThreshold <= 0) {
+            throw new IllegalArgumentException(
+                    "flushIntervalMillis and flushThreshold must be positive");
+        }
+        if (counters != null) {
+            throw new MetalconRuntimeException(
+                    "The counter buffer is already enabled");
+        }
+        counters = new CounterBuffer(this, flushIntervalMillis, flushThreshold);
+        synchronized (openResources) {
+            openResources.add(counters);
+        }
+    }
+
+    /**
+     * Flushes all buffered counter updates and writes further updates
+     * immediately
+     */
+    public synchronized void disableCounterBuffer() {
+        CounterBuffer counters = this.counters;
+        if (counters != null) {
+            this.counters = null;
+            counters.close();
+            synchronized (openResources) {
+                openResources.remove(counters);
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered counter updates now
+     */
+    public void flushCounters() {
+        CounterBuffer counters = this.counters;
+        if (counters != null) {
+            flushCounters(counters);
+        }
+    }
+
+    /*
+     * Adds the pending updates of a counter buffer to the stored counters,
+     * with one levelDB write per CounterBuffer.MAX_FLUSH_KEYS counters
+     */
+    void flushCounters(final CounterBuffer counters) {
+        List<byte[]> keys = counters.keys();
+        for (int from = 0; from < keys.size(); from +=
+                CounterBuffer.MAX_FLUSH_KEYS) {
+            List<byte[]> chunk =
+                    keys.subList(from, Math.min(keys.size(), from
+                            + CounterBuffer.MAX_FLUSH_KEYS));
+            KeyFilter filter = keyFilter;
+            List<Lock> keyLocks = locks.getAll(chunk);
+            for (Lock lock : keyLocks) {
+                lock.lock();
+            }
+            try {
+                WriteBatch batch = db.createWriteBatch();
+                try {
+                    for (byte[] key : chunk) {
+                        long delta = counters.pending(key);
+                        if (delta != 0) {
+                            register(key);
+                            batch.put(key, Serializer.serialize(readCounter(key)
+                                    + delta));
+                        }
+                    }
+                    db.write(batch);
+                } finally {
+                    close(batch);
+                }
+                for (byte[] key : chunk) {
+                    counters.discard(key);
+                    invalidate(key);
+                    if (keyFilter != filter) {
+                        register(key);
+                    }
+                }
+            } finally {
+                for (Lock lock : keyLocks) {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches the values read by the typed getters of this instance. Every
+     * write through this instance invalidates the cached value of its key, so
+     * reads never return outdated values. Sets are cached with their pending
+     * deltas merged.
+     * 
+     * Writes of other instances using the same key prefix are not noticed.
+     * 
+     * @param maxBytes
+     *            estimated memory the cached values may use
+     */
+    public synchronized void enableCache(final long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        cache = new ValueCache(maxBytes);
+    }
+
+    /**
+     * Drops all cached values and stops caching
+     */
+    public synchronized void disableCache() {
+        ValueCache cache = this.cache;
+        if (cache != null) {
+            this.cache = null;
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return the cache of this instance, e.g. to read its hit rate, or null
+     *         if caching is disabled
+     */
+    public ValueCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Starts counting the operations of this instance, the bytes of their
+     * keys and values and their latencies, and publishes them together with
+     * the levelDB statistics of the shard of this instance as an MXBean named
+     * de.metalcon.dbhelper:type=LevelDbHandler,prefix=&lt;key prefix&gt;.
+     * 
+     * While metrics are disabled every operation only checks a volatile
+     * field twice.
+     */
+    public synchronized void enableMetrics() {
+        if (metrics != null) {
+            return;
+        }
+        HandlerMetrics metrics =
+                new HandlerMetrics(this, db, Serializer.readLong(keyPrefix, 0));
+        metrics.register();
+        synchronized (openResources) {
+            openResources.add(metrics);
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Stops counting and removes the MXBean
+     */
+    public synchronized void disableMetrics() {
+        HandlerMetrics metrics = this.metrics;
+        if (metrics != null) {
+            this.metrics = null;
+            metrics.close();
+            synchronized (openResources) {
+                openResources.remove(metrics);
+            }
+        }
+    }
+
+    /**
+     * @return the metrics of this instance, or null if they are disabled
+     */
+    public HandlerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /*
+     * Starts timing an operation, returns 0 if metrics are disabled
+     */
+    private long startTimer() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    /*
+     * Records an operation timed by startTimer
+     */
+    private void record(final HandlerMetrics.Operation operation,
+            final long start, final int keyLength, final int valueLength) {
+        HandlerMetrics metrics = this.metrics;
+        if (metrics != null && start != 0) {
+            metrics.record(operation, start, keyLength, valueLength);
+        }
+    }
+
+    private static int length(final byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static int length(final byte[][] keys) {
+        int length = 0;
+        for (byte[] key : keys) {
+            length += key.length;
+        }
+        return length;
+    }
+
+    /**
+     * Keeps a Bloom filter over the keys of this instance in memory so that
+     * lookups of missing keys (getters, getXOrDefault, containsKey,
+     * setContainsElement) are answered without reading levelDB. The filter is
+     * filled by scanning all keys of this instance, writes through this
+     * instance add their keys before they are written.
+     * 
+     * Keys written by other instances with the same key prefix (e.g. other
+     * processes) are not noticed. Removed keys stay in the filter.
+     * 
+     * @param expectedKeys
+     *            number of keys the filter is sized for
+     * @param falsePositiveRate
+     *            fraction of missing keys that still cause a levelDB read
+     *            once expectedKeys keys are stored
+     */
+    public synchronized void enableKeyFilter(final long expectedKeys,
+            final double falsePositiveRate) {
+        KeyFilter filter = new KeyFilter(expectedKeys, falsePositiveRate);
+
+        /*
+         * Writers add their keys as soon as the filter is installed, keys
+         * written before are found by the scan
+         */
+        keyFilter = filter;
+        scanKeys(filter, keyPrefix, false);
+        scanKeys(filter, setDeltas.namespace(), true);
+        filter.ready();
+    }
+
+    /**
+     * Drops the key filter
+     */
+    public synchronized void disableKeyFilter() {
+        keyFilter = null;
+    }
+
+    /**
+     * @return the key filter of this instance, e.g. to read how many lookups
+     *         it has answered, or null if it is disabled
+     */
+    public KeyFilter getKeyFilter() {
+        return keyFilter;
+    }
+
+    /*
+     * Adds all stored keys starting with prefix to the filter. Set deltas are
+     * added with the key of their set.
+     */
+    private void scanKeys(final KeyFilter filter, final byte[] prefix,
+            final boolean deltas) {
+        DBIterator iterator = db.iterator();
+        try {
+            for (iterator.seek(prefix); iterator.hasNext(); iterator.next()) {
+                byte[] key = iterator.peekNext().getKey();
+                if (!ByteArrayKey.startsWith(key, prefix)) {
+                    break;
+                }
+                filter.add(deltas ? setDeltas.setKey(key) : key);
+            }
+        } finally {
+            close(iterator);
+        }
+    }
+
+    /*
+     * Adds a key to the key filter before it is written. If the filter has
+     * been replaced once the key has been written, the key has to be
+     * registered again: the new filter may have scanned the DB before the key
+     * was written.
+     * 
+     * @return the filter the key has been added to (may be null)
+     */
+    private KeyFilter register(final byte[] key) {
+        KeyFilter filter = keyFilter;
+        if (filter != null) {
+            filter.add(key);
+        }
+        return filter;
+    }
+
+    /*
+     * Registers all keys a batch may create, see register
+     */
+    private KeyFilter registerAll(final List<LevelDbBatch.Op> ops) {
+        KeyFilter filter = keyFilter;
+        if (filter != null) {
+            for (LevelDbBatch.Op op : ops) {
+                if (op.type != LevelDbBatch.DELETE
+                        && op.type != LevelDbBatch.REMOVE_FROM_SET) {
+                    filter.add(op.key);
+                }
+            }
+        }
+        return filter;
+    }
+
+    /*
+     * Checks whether the key filter proves that key is not stored. Keys
+     * outside the prefix of this instance are not covered by the filter.
+     */
+    private boolean rejects(final byte[] key) {
+        KeyFilter filter = keyFilter;
+        return filter != null && ByteArrayKey.startsWith(key, keyPrefix)
+                && filter.rejects(key);
+    }
+
+    /*
+     * Reads the stored value of key unless the key filter rejects it
+     */
+    private byte[] load(final byte[] key) {
+        if (rejects(key)) {
+            return null;
+        }
+        ReadOptions options = ReadSnapshot.optionsFor(db);
+        return options == null ? db.get(key) : db.get(key, options);
+    }
+
+    /*
+     * The cache to be used by reads, null if it is disabled or the current
+     * thread reads from a snapshot
+     */
+    private ValueCache readCache() {
+        ValueCache cache = this.cache;
+        return cache == null || ReadSnapshot.isOpen() ? null : cache;
+    }
+
+    /*
+     * Drops the cached value of a key after it has been written
+     */
+    private void invalidate(final byte[] key) {
+        ValueCache cache = this.cache;
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    /*
+     * Generates the prefix of an internal namespace of this instance
+     */
+    private byte[] internalNamespace(final byte namespace) {
+        byte[] prefix = Arrays.copyOf(internalPrefix, 9);
+        prefix[8] = namespace;
+        return prefix;
+    }
+
+    private static void close(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Checks whether bytes has been written by LongSetSerializer
+     */
+    private static boolean isSet(final byte[] bytes) {
+        return !Serializer.isLegacy(bytes)
+                && Serializer.typeOf(bytes) == Serializer.TYPE_LONG_SET;
+    }
+
+    /*
+     * Decodes a stored set or any stored long[] into a sorted set. Missing
+     * values are treated as empty sets.
+     */
+    static long[] toSortedSet(final byte[] bytes) {
+        if (bytes == null) {
+            return new long[0];
+        } else if (isSet(bytes)) {
+            return LongSetSerializer.deserialize(bytes);
+        }
+        return LongSetSerializer.toSet(Serializer.deserializeLongs(bytes));
+    }
+
+    /*
+     * Membership check on a stored set or any stored long[]
+     */
+    private static boolean setContains(final byte[] bytes, final long value) {
+        if (isSet(bytes)) {
+            return LongSetSerializer.contains(bytes, value);
+        }
+        for (long l : Serializer.deserializeLongs(bytes)) {
+            if (l == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generates a key identifying the given keySuffix within this instance
+     * 
+     * @param keySuffix
+     *            the key that should be concatenated to the key identifying
+     *            this instance
+     * @return the key identifying keySuffix within this instance
+     */
+    public byte[] generateKey(final String keySuffix) {
+        if (keySuffix.length() == 0) {
+            return null;
+        }
+        byte[] key = new byte[8 + Serializer.utf8Length(keySuffix)];
+        System.arraycopy(keyPrefix, 0, key, 0, 8);
+        Serializer.writeUtf8(key, 8, keySuffix);
+
+        return key;
+    }
+
+    /**
+     * Generates a key identifying the given keySuffix within this instance
+     * 
+     * @param keySuffix
+     *            the key that should be concatenated to the key identifying
+     *            this instance
+     * @return the key identifying keySuffix within this instance
+     */
+    public byte[] generateKey(final long keySuffix) {
+        return writeKey(new byte[16], keySuffix);
+    }
+
+    /**
+     * Generates a key identifying the given keySuffix within this instance
+     * 
+     * @param keySuffix
+     *            the key that should be concatenated to the key identifying
+     *            this instance
+     * @return the key identifying keySuffix within this instance
+     */
+    public byte[] generateKey(final int keySuffix) {
+        return writeKey(new byte[12], keySuffix);
+    }
+
+    /**
+     * Generates a key identifying the given keySuffix within this instance
+     * 
+     * @param keySuffix
+     *            the key that should be concatenated to the key identifying
+     *            this instance
+     * @return the key identifying keySuffix within this instance
+     */
+    public byte[] generateKey(final short keySuffix) {
+        return writeKey(new byte[10], keySuffix);
+    }
+
+    /**
+     * Generates a compound key, e.g. (itemId, day). Keys sharing the first
+     * component are stored next to each other ordered by the second one, so
+     * they can be read with one range query.
+     * 
+     * @param first
+     *            the major key component
+     * @param second
+     *            the minor key component
+     * @return the key identifying (first, second) within this instance
+     */
+    public byte[] generateKey(final long first, final long second) {
+        byte[] key = new byte[24];
+        System.arraycopy(keyPrefix, 0, key, 0, 8);
+        Serializer.writeLong(key, 8, keyEncoding.encode(first));
+        Serializer.writeLong(key, 16, keyEncoding.encode(second));
+        return key;
+    }
+
+    /**
+     * Generates a compound key, see generateKey(long, long)
+     * 
+     * @param first
+     *            the major key component
+     * @param second
+     *            the minor key component
+     * @return the key identifying (first, second) within this instance
+     */
+    public byte[] generateKey(final long first, final int second) {
+        byte[] key = new byte[20];
+        System.arraycopy(keyPrefix, 0, key, 0, 8);
+        Serializer.writeLong(key, 8, keyEncoding.encode(first));
+        Serializer.writeInt(key, 16, keyEncoding.encode(second));
+        return key;
+    }
+
+    private byte[] writeKey(final byte[] key, final long keySuffix) {
+        System.arraycopy(keyPrefix, 0, key, 0, 8);
+        Serializer.writeLong(key, 8, keyEncoding.encode(keySuffix));
+        return key;
+    }
+
+    private byte[] writeKey(final byte[] key, final int keySuffix) {
+        System.arraycopy(keyPrefix, 0, key, 0, 8);
+        Serializer.writeInt(key, 8, keyEncoding.encode(keySuffix));
+        return key;
+    }
+
+    private byte[] writeKey(final byte[] key, final short keySuffix) {
+        System.arraycopy(keyPrefix, 0, key, 0, 8);
+        short suffix = keyEncoding.encode(keySuffix);
+        key[8] = (byte) (suffix >> 8);
+        key[9] = (byte) (suffix);
+        return key;
+    }
+
+    /*
+     * Generate keys into the buffers of the current thread. Only for calls
+     * that do not retain the key, see ScratchBuffers.
+     */
+
+    private byte[] scratchKey(final long keySuffix) {
+        return writeKey(ScratchBuffers.get().longKey, keySuffix);
+    }
+
+    private byte[] scratchKey(final int keySuffix) {
+        return writeKey(ScratchBuffers.get().intKey, keySuffix);
+    }
+
+    private byte[] scratchKey(final short keySuffix) {
+        return writeKey(ScratchBuffers.get().shortKey, keySuffix);
+    }
+
+    /*
+     * Serialize values into the buffers of the current thread, see scratchKey
+     */
+
+    private static byte[] scratchValue(final long value) {
+        return Serializer.serialize(value, ScratchBuffers.get().longValue);
+    }
+
+    private static byte[] scratchValue(final int value) {
+        return Serializer.serialize(value, ScratchBuffers.get().intValue);
+    }
+
+    private static byte[] scratchValue(final short value) {
+        return Serializer.serialize(value, ScratchBuffers.get().shortValue);
+    }
+
+    private static byte[] scratchValue(final boolean value) {
+        return Serializer.serialize(value, ScratchBuffers.get().booleanValue);
+    }
+
+    /**
+     * @return the encoding of the numeric keys of this instance
+     */
+    public KeyEncoding getKeyEncoding() {
+        return keyEncoding;
+    }
+
+    /**
+     * Scans all entries of this instance in key order. Internal entries (e.g.
+     * set deltas) are not included, sets are returned as stored: run
+     * compactSets first if set deltas are enabled.
+     * 
+     * @return a scan that has to be closed after use
+     */
+    public KeyScan scan() {
+        return scan(keyPrefix, prefixEnd());
+    }
+
+    /**
+     * Scans the entries of this instance with keys in [from, to) in key
+     * order. Range queries over numeric keys require non-negative keys or
+     * KeyEncoding.ORDERED.
+     * 
+     * @param from
+     *            first key of the range (inclusive)
+     * @param to
+     *            end of the range (exclusive)
+     * @return a scan that has to be closed after use
+     */
+    public KeyScan range(final byte[] from, final byte[] to) {
+        byte[] end = prefixEnd();
+        return scan(ByteArrayKey.compare(from, keyPrefix) < 0 ? keyPrefix
+                : from, end != null && ByteArrayKey.compare(to, end) > 0 ? end
+                : to);
+    }
+
+    public KeyScan range(final long from, final long to) {
+        return range(generateKey(from), generateKey(to));
+    }
+
+    public KeyScan range(final int from, final int to) {
+        return range(generateKey(from), generateKey(to));
+    }
+
+    public KeyScan range(final short from, final short to) {
+        return range(generateKey(from), generateKey(to));
+    }
+
+    public KeyScan range(final String from, final String to) {
+        return range(generateKey(from), generateKey(to));
+    }
+
+    /**
+     * Scans the entries of this instance with keys less than to
+     * 
+     * @param to
+     *            end of the range (exclusive)
+     * @return a scan that has to be closed after use
+     */
+    public KeyScan headRange(final byte[] to) {
+        return range(keyPrefix, to);
+    }
+
+    public KeyScan headRange(final long to) {
+        return headRange(generateKey(to));
+    }
+
+    public KeyScan headRange(final int to) {
+        return headRange(generateKey(to));
+    }
+
+    public KeyScan headRange(final short to) {
+        return headRange(generateKey(to));
+    }
+
+    public KeyScan headRange(final String to) {
+        return headRange(generateKey(to));
+    }
+
+    /**
+     * Scans the entries of this instance with keys greater than or equal to
+     * from
+     * 
+     * @param from
+     *            first key of the range (inclusive)
+     * @return a scan that has to be closed after use
+     */
+    public KeyScan tailRange(final byte[] from) {
+        byte[] end = prefixEnd();
+        return scan(ByteArrayKey.compare(from, keyPrefix) < 0 ? keyPrefix
+                : from, end);
+    }
+
+    public KeyScan tailRange(final long from) {
+        return tailRange(generateKey(from));
+    }
+
+    public KeyScan tailRange(final int from) {
+        return tailRange(generateKey(from));
+    }
+
+    public KeyScan tailRange(final short from) {
+        return tailRange(generateKey(from));
+    }
+
+    public KeyScan tailRange(final String from) {
+        return tailRange(generateKey(from));
+    }
+
+    /**
+     * Scans all entries whose keys start with prefix, e.g. all (itemId, day)
+     * keys of one item using generateKey(itemId) as prefix
+     * 
+     * @param prefix
+     *            a key of this instance
+     * @return a scan that has to be closed after use
+     */
+    public KeyScan prefixRange(final byte[] prefix) {
+        if (!ByteArrayKey.startsWith(prefix, keyPrefix)) {
+            throw new IllegalArgumentException(
+                    "prefix is not a key of this instance");
+        }
+        byte[] end = successor(prefix);
+        return scan(prefix, end == null ? prefixEnd() : end);
+    }
+
+    private KeyScan scan(final byte[] from, final byte[] end) {
+        long start = startTimer();
+        KeyScan scan =
+                new KeyScan(db, from, end, keyPrefix.length, keyEncoding);
+        record(HandlerMetrics.Operation.SCAN, start, from.length, 0);
+        return scan;
+    }
+
+    /**
+     * Splits the entries of this instance into consecutive key ranges that
+     * can be scanned in parallel, e.g. by one thread per range. Every range
+     * reads its own snapshot.
+     * 
+     * @param parts
+     *            maximum number of ranges
+     * @return scans covering all entries of this instance in key order. They
+     *         have to be closed after use.
+     */
+    public List<KeyScan> scanRanges(final int parts) {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("parts must be positive");
+        }
+        byte[] end = prefixEnd();
+        List<KeyScan> scans = new ArrayList<KeyScan>(parts);
+        byte[] from = keyPrefix;
+        for (byte[] point : KeyScan.splitPoints(db, keyPrefix, end, parts)) {
+            scans.add(scan(from, point));
+            from = point;
+        }
+        scans.add(scan(from, end));
+        return scans;
+    }
+
+    /*
+     * @return the first key after all keys of this instance, null if there
+     *         is none
+     */
+    private byte[] prefixEnd() {
+        return successor(keyPrefix);
+    }
+
+    /*
+     * @return the first key after all keys starting with prefix, null if
+     *         there is none
+     */
+    private static byte[] successor(final byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes all data of this instance, including its set deltas, large sets
+     * and pending counter updates, while other instances sharing the DB keep
+     * serving. The keys are deleted in large batches, then the key ranges are
+     * compacted, so the space is reclaimed and later reads do not have to skip
+     * the deletion markers.
+     * 
+     * Writes of this instance running concurrently may or may not survive.
+     * The key filter keeps the deleted keys, which only costs lookups of
+     * missing keys that it would have rejected; it can be re-enabled to
+     * reset it.
+     * 
+     * @return the number of deleted entries
+     */
+    public long clearPrefix() {
+        flush();
+        flushCounters();
+
+        long deleted = deleteRange(keyPrefix, prefixEnd());
+        deleted += deleteRange(internalPrefix, successor(internalPrefix));
+        setDeltas.clear();
+        ValueCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+
+        db.compactRange(keyPrefix, prefixEnd());
+        db.compactRange(internalPrefix, successor(internalPrefix));
+        return deleted;
+    }
+
+    /*
+     * Deletes the keys in [from, end) with one write per CLEAR_BATCH_SIZE
+     * keys, end may be null
+     */
+    private long deleteRange(final byte[] from, final byte[] end) {
+        long deleted = 0;
+        Snapshot snapshot = db.getSnapshot();
+        DBIterator iterator =
+                db.iterator(new ReadOptions().snapshot(snapshot));
+        WriteBatch batch = db.createWriteBatch();
+        int batched = 0;
+        try {
+            for (iterator.seek(from); iterator.hasNext(); iterator.next()) {
+                byte[] key = iterator.peekNext().getKey();
+                if (end != null && ByteArrayKey.compare(key, end) >= 0) {
+                    break;
+                }
+                batch.delete(key);
+                deleted++;
+                if (++batched == CLEAR_BATCH_SIZE) {
+                    db.write(batch);
+                    close(batch);
+                    batch = db.createWriteBatch();
+                    batched = 0;
+                }
+            }
+            db.write(batch);
+        } finally {
+            close(batch);
+            close(iterator);
+            close(snapshot);
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes a consistent backup of all data of this instance, including its
+     * set deltas and large sets, while reads and writes continue. Queued
+     * asynchronous writes and buffered counter updates are committed first.
+     * The backup can be restored with restore.
+     * 
+     * @param file
+     *            the backup file, an existing file is overwritten
+     * @param compress
+     *            whether the backup is GZIP compressed
+     * @param bytesPerSecond
+     *            maximum rate the file is written with, 0 for no limit
+     * @return the number of entries written
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public long backupPrefix(final File file, final boolean compress,
+            final long bytesPerSecond) throws IOException {
+        flush();
+        flushCounters();
+        Snapshot snapshot = db.getSnapshot();
+        try {
+            ReadOptions options = new ReadOptions().snapshot(snapshot);
+            BackupFile.Writer writer =
+                    new BackupFile.Writer(file, compress, bytesPerSecond);
+            try {
+                writer.section(BackupFile.PREFIX,
+                        Serializer.readLong(keyPrefix, 0), getShardCount());
+                writer.entries(db, options, keyPrefix, prefixEnd());
+                writer.entries(db, options, internalPrefix,
+                        successor(internalPrefix));
+                writer.finish();
+            } finally {
+                writer.close();
+            }
+            return writer.getEntryCount();
+        } finally {
+            close(snapshot);
+        }
+    }
+
+    /**
+     * Exports the entries of this instance into a memory-mapped file served
+     * by ExportReader, for lookup tables that are rebuilt periodically and
+     * read far more often. Queued asynchronous writes and buffered counter
+     * updates are committed and pending set deltas are compacted first, then
+     * the entries are read from a snapshot. Large sets are not exported.
+     *
+     * The export is written next to file and moved over it atomically, so
+     * ExportReader.reload picks up either the old or the new export and
+     * readers still mapping the old file are not disturbed. Exports are
+     * limited to 2 GB.
+     *
+     * @param file
+     *            the export file, an existing file is replaced
+     * @return the number of entries exported
+     * @throws IOException
+     *             if the file cannot be written. An existing export is kept.
+     */
+    public long exportPrefix(final File file) throws IOException {
+        flush();
+        flushCounters();
+        compactSets();
+
+        File tmp =
+                new File(file.getAbsoluteFile().getParentFile(),
+                        file.getName() + ".tmp");
+        byte[] end = prefixEnd();
+        long exported;
+        Snapshot snapshot = db.getSnapshot();
+        DBIterator iterator =
+                db.iterator(new ReadOptions().snapshot(snapshot));
+        try {
+            PrefixExport.Writer writer =
+                    new PrefixExport.Writer(tmp, keyPrefix, keyEncoding);
+            try {
+                for (iterator.seek(keyPrefix); iterator.hasNext(); iterator
+                        .next()) {
+                    Map.Entry<byte[], byte[]> entry = iterator.peekNext();
+                    if (end != null
+                            && ByteArrayKey.compare(entry.getKey(), end) >= 0) {
+                        break;
+                    }
+                    byte[] value = entry.getValue();
+                    if (Serializer.isLegacy(value)) {
+                        value =
+                                Serializer.Serialize(Serializer
+                                        .deserialize(value));
+                    }
+                    writer.add(entry.getKey(), value);
+                }
+                writer.finish();
+                exported = writer.getEntryCount();
+            } finally {
+                writer.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            close(iterator);
+            close(snapshot);
+            tmp.delete();
+        }
+        return exported;
+    }
+
+    /**
+     * Converts the numeric keys of this instance written with another
+     * encoding to the encoding of this instance. Keys whose suffix has the
+     * length of a key written by generateKey(short), (int), (long),
+     * (long, int) or (long, long) are treated as numeric keys, so instances
+     * mixing them with String keys of 2, 4, 8, 12 or 16 bytes cannot be
+     * migrated.
+     * 
+     * Pending set deltas are compacted first, large sets are migrated along
+     * with the keys of this instance. The migration must not run
+     * concurrently with writes to this instance. It is not atomic: a crash
+     * during the migration leaves the keys partially migrated, so the DB
+     * should be backed up first.
+     * 
+     * @param source
+     *            encoding the stored keys have been written with
+     * @return the number of migrated keys
+     */
+    public long migrateKeys(final KeyEncoding source) {
+        if (source == keyEncoding) {
+            return 0;
+        }
+        flush();
+        compactSets();
+
+        long migrated;
+        Snapshot snapshot = db.getSnapshot();
+        try {
+            ReadOptions options = new ReadOptions().snapshot(snapshot);
+            migrated = migrateRange(keyPrefix, prefixEnd(), options, false);
+
+            /*
+             * Large sets are stored under the encoded key of their set
+             */
+            migrateRange(largeSets, successor(largeSets), options, true);
+        } finally {
+            close(snapshot);
+        }
+
+        ValueCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+        return migrated;
+    }
+
+    /*
+     * Migrates the keys in [from, end) of the snapshot read with options
+     * 
+     * @return the number of migrated keys
+     */
+    private long migrateRange(
+            final byte[] from,
+            final byte[] end,
+            final ReadOptions options,
+            final boolean largeSetKeys) {
+        long migrated = 0;
+        DBIterator iterator = db.iterator(options);
+        WriteBatch batch = db.createWriteBatch();
+        int batched = 0;
+        try {
+            for (iterator.seek(from); iterator.hasNext(); iterator.next()) {
+                Map.Entry<byte[], byte[]> entry = iterator.peekNext();
+                byte[] key = entry.getKey();
+                if (end != null && ByteArrayKey.compare(key, end) >= 0) {
+                    break;
+                }
+                byte[] migratedKey =
+                        largeSetKeys ? recodeLargeSetKey(key) : recode(key);
+                if (migratedKey == null) {
+                    continue;
+                }
+
+                /*
+                 * Both encodings differ by flipped sign bits, so the migrated
+                 * key may be another stored key. That key is migrated from
+                 * the snapshot as well and must not be deleted.
+                 */
+                batch.put(migratedKey, entry.getValue());
+                if (db.get(migratedKey, options) == null) {
+                    batch.delete(key);
+                }
+                if (!largeSetKeys) {
+                    register(migratedKey);
+                }
+                migrated++;
+                if (++batched == 1024) {
+                    db.write(batch);
+                    close(batch);
+                    batch = db.createWriteBatch();
+                    batched = 0;
+                }
+            }
+            db.write(batch);
+        } finally {
+            close(batch);
+            close(iterator);
+        }
+        return migrated;
+    }
+
+    /*
+     * Recodes the set key of a large set header or chunk key
+     * [largeSets][int length][set key][chunk], null if the set key is not
+     * numeric
+     */
+    private byte[] recodeLargeSetKey(final byte[] key) {
+        int offset = largeSets.length + 4;
+        int length = Serializer.readInt(key, largeSets.length);
+        byte[] setKey =
+                recode(Arrays.copyOfRange(key, offset, offset + length));
+        if (setKey == null) {
+            return null;
+        }
+        byte[] recoded = key.clone();
+        System.arraycopy(setKey, 0, recoded, offset, length);
+        return recoded;
+    }
+
+    /*
+     * Flips the sign bits of the numeric components of a key, null if the key
+     * is not numeric
+     */
+    private byte[] recode(final byte[] key) {
+        int prefixLength = keyPrefix.length;
+        byte[] recoded;
+        switch (key.length - prefixLength) {
+            case 2:
+            case 4:
+            case 8:
+                recoded = key.clone();
+                recoded[prefixLength] ^= 0x80;
+                return recoded;
+            case 12:
+            case 16:
+                recoded = key.clone();
+                recoded[prefixLength] ^= 0x80;
+                recoded[prefixLength + 8] ^= 0x80;
+                return recoded;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (db == null) {
+            return "DB is Empty";
+        }
+        StringBuilder builder = new StringBuilder();
+        KeyScan scan = scan();
+        try {
+            for (KeyScan.Entry entry : scan) {
+                Object value = entry.getObject();
+                builder.append(asString(entry.getKeySuffix())).append(":\t")
+                        .append(value instanceof long[] ? Arrays
+                                .toString((long[]) value) : value)
+                        .append('\n');
+            }
+        } finally {
+            scan.close();
         }
         return builder.toString();
     }
@@ -0,0 +1,437 @@
+package de.metalcon.dbhelper;
+
+import java.util.Arrays;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+/**
+ * Binary format for the sets written by LevelDbHandler.addToSet and
+ * removeFromSet.
+ *
+ * The members are sorted and split into blocks of BLOCK_SIZE elements. A
+ * fixed width block index stores the first member and the data offset of
+ * every block, the remaining members of a block are stored as varint encoded
+ * deltas to their predecessor. Membership checks binary search the block
+ * index and decode at most one block.
+ *
+ * <pre>
+ * [version][TYPE_LONG_SET][int count][int blocks]
+ * blocks * [long first][int offset]
+ * blocks * [varint delta]*
+ * </pre>
+ */
+public class LongSetSerializer {
+
+    /**
+     * Maximum number of members per block
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    /*
+     * Offset of the block index
+     */
+    private static final int INDEX_START = Serializer.HEADER_LENGTH + 8;
+
+    /*
+     * Size of one block index entry (first member + data offset)
+     */
+    private static final int INDEX_ENTRY = 12;
+
+    /**
+     * Encodes a set
+     *
+     * @param set
+     *            sorted members without duplicates
+     * @return the encoded set
+     */
+    public static byte[] serialize(final long[] set) {
+        int blocks = (set.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int dataStart = INDEX_START + blocks * INDEX_ENTRY;
+
+        int dataLength = 0;
+        for (int i = 0; i < set.length; i++) {
+            if (i % BLOCK_SIZE != 0) {
+                dataLength += varintLength(set[i] - set[i - 1]);
+            }
+        }
+
+        byte[] out =
+                Serializer.header(Serializer.TYPE_LONG_SET, 8 + blocks
+                        * INDEX_ENTRY + dataLength);
+        Serializer.writeInt(out, Serializer.HEADER_LENGTH, set.length);
+        Serializer.writeInt(out, Serializer.HEADER_LENGTH + 4, blocks);
+
+        int pos = dataStart;
+        for (int i = 0; i < set.length; i++) {
+            if (i % BLOCK_SIZE == 0) {
+                int entry = INDEX_START + (i / BLOCK_SIZE) * INDEX_ENTRY;
+                Serializer.writeLong(out, entry, set[i]);
+                Serializer.writeInt(out, entry + 8, pos - dataStart);
+            } else {
+                pos = writeVarint(out, pos, set[i] - set[i - 1]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the sorted members of the encoded set
+     */
+    public static long[] deserialize(final byte[] obj) {
+        checkType(obj);
+        int count = size(obj);
+        int blocks = blocks(obj);
+        int dataStart = INDEX_START + blocks * INDEX_ENTRY;
+
+        long[] out = new long[count];
+        int pos = dataStart;
+        for (int i = 0; i < count; i++) {
+            if (i % BLOCK_SIZE == 0) {
+                out[i] =
+                        Serializer.readLong(obj, INDEX_START + (i / BLOCK_SIZE)
+                                * INDEX_ENTRY);
+            } else {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = obj[pos++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                out[i] = out[i - 1] + delta;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the number of members of the encoded set
+     */
+    public static int size(final byte[] obj) {
+        return Serializer.readInt(obj, Serializer.HEADER_LENGTH);
+    }
+
+    /**
+     * Checks whether the encoded set contains value without decoding the
+     * whole set
+     */
+    public static boolean contains(final byte[] obj, final long value) {
+        checkType(obj);
+        int count = size(obj);
+        int blocks = blocks(obj);
+
+        /*
+         * Find the last block starting with a member <= value
+         */
+        int low = 0;
+        int high = blocks - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long first =
+                    Serializer.readLong(obj, INDEX_START + mid * INDEX_ENTRY);
+            if (first == value) {
+                return true;
+            } else if (first < value) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block == -1) {
+            return false;
+        }
+
+        int entry = INDEX_START + block * INDEX_ENTRY;
+        long current = Serializer.readLong(obj, entry);
+        int pos = INDEX_START + blocks * INDEX_ENTRY
+                + Serializer.readInt(obj, entry + 8);
+        int members = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+        for (int i = 1; i < members; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = obj[pos++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            current += delta;
+            if (current >= value) {
+                return current == value;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Converts any array into a valid set by sorting it and removing
+     * duplicates. Used for values that have not been written by this class.
+     *
+     * @return a sorted copy of values without duplicates
+     */
+    public static long[] toSet(final long[] values) {
+        long[] set = values.clone();
+        Arrays.sort(set);
+        int length = 0;
+        for (int i = 0; i < set.length; i++) {
+            if (length == 0 || set[length - 1] != set[i]) {
+                set[length++] = set[i];
+            }
+        }
+        return length == set.length ? set : Arrays.copyOf(set, length);
+    }
+
+    /**
+     * @return a copy of set with value inserted at its sorted position or set
+     *         itself if it already contains value
+     */
+    public static long[] add(final long[] set, final long value) {
+        int pos = Arrays.binarySearch(set, value);
+        if (pos >= 0) {
+            return set;
+        }
+        pos = -pos - 1;
+        long[] out = new long[set.length + 1];
+        System.arraycopy(set, 0, out, 0, pos);
+        out[pos] = value;
+        System.arraycopy(set, pos, out, pos + 1, set.length - pos);
+        return out;
+    }
+
+    /**
+     * @return a copy of set without value or set itself if it does not
+     *         contain value
+     */
+    public static long[] remove(final long[] set, final long value) {
+        int pos = Arrays.binarySearch(set, value);
+        if (pos < 0) {
+            return set;
+        }
+        long[] out = new long[set.length - 1];
+        System.arraycopy(set, 0, out, 0, pos);
+        System.arraycopy(set, pos + 1, out, pos, out.length - pos);
+        return out;
+    }
+
+    /**
+     * Merges sorted insertions and removals into a set in a single pass
+     *
+     * @param set
+     *            sorted members without duplicates
+     * @param added
+     *            sorted members to be inserted
+     * @param removed
+     *            sorted members to be removed, disjoint from added
+     * @return the resulting set
+     */
+    public static long[] merge(final long[] set, final long[] added,
+            final long[] removed) {
+        long[] out = new long[set.length + added.length];
+        int length = 0;
+        int a = 0;
+        int r = 0;
+        for (long member : set) {
+            while (a < added.length && added[a] < member) {
+                out[length++] = added[a++];
+            }
+            if (a < added.length && added[a] == member) {
+                a++;
+            }
+            while (r < removed.length && removed[r] < member) {
+                r++;
+            }
+            if (r < removed.length && removed[r] == member) {
+                continue;
+            }
+            out[length++] = member;
+        }
+        while (a < added.length) {
+            out[length++] = added[a++];
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    /**
+     * @return a cursor over the members of the encoded set that decodes
+     *         only the blocks it visits
+     */
+    static SetCursor cursor(final byte[] obj) {
+        checkType(obj);
+        return size(obj) == 0 ? SetCursor.EMPTY : new EncodedCursor(obj);
+    }
+
+    /*
+     * Skips whole blocks using the block index and decodes the deltas of the
+     * current block one at a time
+     */
+    private static final class EncodedCursor extends SetCursor {
+
+        private final byte[] obj;
+
+        private final int count;
+
+        private final int blocks;
+
+        private final int dataStart;
+
+        private int block;
+
+        /*
+         * Position of the current member within its block
+         */
+        private int index;
+
+        /*
+         * Number of members of the current block
+         */
+        private int members;
+
+        /*
+         * Offset of the next delta
+         */
+        private int pos;
+
+        private long current;
+
+        EncodedCursor(
+                final byte[] obj) {
+            this.obj = obj;
+            count = LongSetSerializer.size(obj);
+            blocks = blocks(obj);
+            dataStart = INDEX_START + blocks * INDEX_ENTRY;
+            enter(0);
+        }
+
+        @Override
+        int size() {
+            return count;
+        }
+
+        @Override
+        long last() {
+            EncodedCursor cursor = new EncodedCursor(obj);
+            cursor.enter(blocks - 1);
+            long last = cursor.current();
+            for (cursor.next(); cursor.hasCurrent(); cursor.next()) {
+                last = cursor.current();
+            }
+            return last;
+        }
+
+        @Override
+        boolean hasCurrent() {
+            return block < blocks;
+        }
+
+        @Override
+        long current() {
+            return current;
+        }
+
+        @Override
+        void next() {
+            if (++index == members) {
+                enter(block + 1);
+                return;
+            }
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = obj[pos++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            current += delta;
+        }
+
+        @Override
+        void advance(final long target) {
+            if (block >= blocks || current >= target) {
+                return;
+            }
+            if (block + 1 < blocks && first(block + 1) <= target) {
+                /*
+                 * Gallop over the block index to the last block starting
+                 * with a member <= target
+                 */
+                int low = block + 1;
+                int high = low + 1;
+                int step = 1;
+                while (high < blocks && first(high) <= target) {
+                    low = high;
+                    step <<= 1;
+                    high = blocks - low > step ? low + step : blocks;
+                }
+                while (high - low > 1) {
+                    int mid = (low + high) >>> 1;
+                    if (first(mid) <= target) {
+                        low = mid;
+                    } else {
+                        high = mid;
+                    }
+                }
+                enter(low);
+            }
+            while (block < blocks && current < target) {
+                next();
+            }
+        }
+
+        private long first(final int block) {
+            return Serializer.readLong(obj, INDEX_START + block * INDEX_ENTRY);
+        }
+
+        /*
+         * Moves to the first member of a block
+         */
+        private void enter(final int block) {
+            this.block = block;
+            if (block >= blocks) {
+                return;
+            }
+            int entry = INDEX_START + block * INDEX_ENTRY;
+            current = Serializer.readLong(obj, entry);
+            pos = dataStart + Serializer.readInt(obj, entry + 8);
+            index = 0;
+            members = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+        }
+    }
+
+    private static int blocks(final byte[] obj) {
+        return Serializer.readInt(obj, Serializer.HEADER_LENGTH + 4);
+    }
+
+    private static void checkType(final byte[] obj) {
+        if (Serializer.typeOf(obj) != Serializer.TYPE_LONG_SET) {
+            throw new MetalconRuntimeException("Stored value has type "
+                    + obj[1] + " but a set was requested");
+        }
+    }
+
+    /*
+     * Deltas are written as unsigned varints. The difference of two sorted
+     * longs may exceed Long.MAX_VALUE, but it always fits into 64 unsigned
+     * bits and the wrapping addition in deserialize restores the member.
+     */
+    static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    static int writeVarint(final byte[] dst, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            dst[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+}
@@ -0,0 +1,104 @@
+package de.metalcon.dbhelper;
+
+/**
+ * The values read by LevelDbHandler.multiGet, in the order of the requested
+ * keys. Values are decoded when they are requested. Missing keys are marked
+ * as not present, the getters return the given default or null for them.
+ */
+public final class MultiGetResult {
+
+    /*
+     * Serialized values, null for missing keys
+     */
+    private final byte[][] values;
+
+    MultiGetResult(
+            final byte[][] values) {
+        this.values = values;
+    }
+
+    /**
+     * @return the number of requested keys
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @return true if the key at index is stored
+     */
+    public boolean isPresent(final int index) {
+        return values[index] != null;
+    }
+
+    /**
+     * @return the number of requested keys that are stored
+     */
+    public int getPresentCount() {
+        int present = 0;
+        for (byte[] value : values) {
+            if (value != null) {
+                present++;
+            }
+        }
+        return present;
+    }
+
+    /**
+     * @return the serialized value of the key at index, or null if the key
+     *         is missing
+     */
+    public byte[] getValue(final int index) {
+        return values[index];
+    }
+
+    public long getLongOrDefault(final int index, final long defaultValue) {
+        byte[] value = values[index];
+        return value == null ? defaultValue : Serializer.deserializeLong(value);
+    }
+
+    public int getIntOrDefault(final int index, final int defaultValue) {
+        byte[] value = values[index];
+        return value == null ? defaultValue : Serializer.deserializeInt(value);
+    }
+
+    public short getShortOrDefault(final int index, final short defaultValue) {
+        byte[] value = values[index];
+        return value == null ? defaultValue : Serializer
+                .deserializeShort(value);
+    }
+
+    public boolean getBooleanOrDefault(final int index,
+            final boolean defaultValue) {
+        byte[] value = values[index];
+        return value == null ? defaultValue : Serializer
+                .deserializeBoolean(value);
+    }
+
+    /**
+     * @return the String stored at the key at index, or null if the key is
+     *         missing
+     */
+    public String getString(final int index) {
+        return Serializer.deserializeString(values[index]);
+    }
+
+    /**
+     * @return the long[] or set stored at the key at index, or null if the
+     *         key is missing. Pending set deltas (see
+     *         LevelDbHandler.enableSetDeltas) are not merged.
+     */
+    public long[] getLongs(final int index) {
+        byte[] value = values[index];
+        return value == null ? null : Serializer.deserializeLongs(value);
+    }
+
+    /**
+     * @return the value of the key at index decoded according to its stored
+     *         type, or null if the key is missing
+     */
+    public Object getObject(final int index) {
+        byte[] value = values[index];
+        return value == null ? null : Serializer.deserialize(value);
+    }
+}
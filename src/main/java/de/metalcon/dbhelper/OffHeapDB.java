@@ -0,0 +1,1020 @@
+package de.metalcon.dbhelper;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Range;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+/**
+ * A sorted in-memory DB storing all its data in direct memory, created by
+ * OffHeapDBFactory.
+ *
+ * Keys are indexed by a skip list whose nodes are records in direct memory
+ * slabs, like the versions of their values:
+ *
+ * <pre>
+ * node:    [long newest version][int key length][byte height]
+ *          [long next node]*height [key]
+ * version: [long sequence][long older version][int value length][value]
+ * </pre>
+ *
+ * Records refer to each other by pointers holding the number of their slab
+ * and their offset, so the heap only holds one buffer per slab no matter how
+ * many entries are stored.
+ *
+ * Every write gets a sequence number and adds a version to the key, so
+ * snapshots and iterators read the newest versions not newer than their
+ * sequence. Versions that no open snapshot can see are freed whenever their
+ * key is written and by compactRange. Slabs are released once they hold no
+ * live record, compactRange moves the records of half empty slabs.
+ *
+ * Reads share a read lock, writes and batches are serialized by the write
+ * lock.
+ */
+final class OffHeapDB implements DB {
+
+    /*
+     * Pointers hold the number of the slab plus one in the upper and the
+     * offset in the lower 32 bits
+     */
+    private static final long NULL = 0;
+
+    /*
+     * Pointer to the head of the skip list, which is kept on the heap
+     */
+    private static final long HEAD = -1;
+
+    /*
+     * Nodes get another level with a probability of 1/4
+     */
+    private static final int MAX_HEIGHT = 16;
+
+    /*
+     * Fields of nodes
+     */
+    private static final int NODE_NEWEST = 0;
+
+    private static final int NODE_KEY_LENGTH = 8;
+
+    private static final int NODE_HEIGHT = 12;
+
+    private static final int NODE_NEXT = 13;
+
+    /*
+     * Fields of versions, deletions have the value length -1
+     */
+    private static final int VERSION_SEQUENCE = 0;
+
+    private static final int VERSION_OLDER = 8;
+
+    private static final int VERSION_LENGTH = 16;
+
+    private static final int VERSION_VALUE = 20;
+
+    /*
+     * Direct memory holding records one after another
+     */
+    private static final class Slab {
+
+        final int number;
+
+        final ByteBuffer buffer;
+
+        int used = 0;
+
+        /*
+         * Bytes of records that are still referenced
+         */
+        int live = 0;
+
+        Slab(
+                final int number,
+                final int size) {
+            this.number = number;
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    private static final class OffHeapSnapshot implements Snapshot {
+
+        private final OffHeapDB db;
+
+        final long sequence;
+
+        private boolean closed = false;
+
+        OffHeapSnapshot(
+                final OffHeapDB db,
+                final long sequence) {
+            this.db = db;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                db.unpin(sequence);
+            }
+        }
+    }
+
+    /*
+     * Collects the updates of a batch in the order they were added
+     */
+    private static final class OffHeapBatch implements WriteBatch {
+
+        final List<byte[]> keys = new ArrayList<byte[]>();
+
+        /*
+         * Values of the updates, null for deletions
+         */
+        final List<byte[]> values = new ArrayList<byte[]>();
+
+        @Override
+        public WriteBatch put(final byte[] key, final byte[] value) {
+            keys.add(key.clone());
+            values.add(value.clone());
+            return this;
+        }
+
+        @Override
+        public WriteBatch delete(final byte[] key) {
+            keys.add(key.clone());
+            values.add(null);
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final String name;
+
+    private final int slabSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Lock readLock = lock.readLock();
+
+    private final Lock writeLock = lock.writeLock();
+
+    /*
+     * Slabs by their number, null for released slabs
+     */
+    private Slab[] slabs = new Slab[16];
+
+    private int slabCount = 0;
+
+    /*
+     * Slab new records are appended to
+     */
+    private Slab current = null;
+
+    /*
+     * First node of every level of the skip list
+     */
+    private final long[] head = new long[MAX_HEIGHT];
+
+    /*
+     * Last nodes before the key being written on every level, used under the
+     * write lock
+     */
+    private final long[] update = new long[MAX_HEIGHT];
+
+    private final Random random = new Random();
+
+    private int keys = 0;
+
+    private volatile long sequence = 0;
+
+    /*
+     * Sequences of open snapshots and iterators with their reference counts
+     */
+    private final TreeMap<Long, Integer> pinned = new TreeMap<Long, Integer>();
+
+    private long liveBytes = 0;
+
+    private volatile boolean closed = false;
+
+    OffHeapDB(
+            final String name,
+            final int slabSize) {
+        this.name = name;
+        this.slabSize = slabSize;
+    }
+
+    @Override
+    public byte[] get(final byte[] key) {
+        return get(key, null);
+    }
+
+    @Override
+    public byte[] get(final byte[] key, final ReadOptions options) {
+        readLock.lock();
+        try {
+            checkOpen();
+            long node = find(key);
+            return node == NULL ? null : read(visible(newest(node),
+                    sequenceOf(options)));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public DBIterator iterator() {
+        return iterator(null);
+    }
+
+    @Override
+    public DBIterator iterator(final ReadOptions options) {
+        readLock.lock();
+        try {
+            checkOpen();
+            long sequence = sequenceOf(options);
+            pin(sequence);
+            return new OffHeapIterator(sequence);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final byte[] key, final byte[] value) {
+        OffHeapBatch batch = new OffHeapBatch();
+        batch.put(key, value);
+        write(batch);
+    }
+
+    @Override
+    public void delete(final byte[] key) {
+        OffHeapBatch batch = new OffHeapBatch();
+        batch.delete(key);
+        write(batch);
+    }
+
+    /**
+     * Applies all updates of the batch with one sequence number, so readers
+     * see all or none of them
+     */
+    @Override
+    public void write(final WriteBatch updates) {
+        OffHeapBatch batch = (OffHeapBatch) updates;
+        writeLock.lock();
+        try {
+            checkOpen();
+            long next = sequence + 1;
+            for (int i = 0; i < batch.keys.size(); i++) {
+                apply(batch.keys.get(i), batch.values.get(i), next);
+            }
+            sequence = next;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public WriteBatch createWriteBatch() {
+        return new OffHeapBatch();
+    }
+
+    @Override
+    public Snapshot put(final byte[] key, final byte[] value,
+            final WriteOptions options) {
+        put(key, value);
+        return options.snapshot() ? getSnapshot() : null;
+    }
+
+    @Override
+    public Snapshot delete(final byte[] key, final WriteOptions options) {
+        delete(key);
+        return options.snapshot() ? getSnapshot() : null;
+    }
+
+    @Override
+    public Snapshot write(final WriteBatch updates,
+            final WriteOptions options) {
+        write(updates);
+        return options.snapshot() ? getSnapshot() : null;
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        readLock.lock();
+        try {
+            checkOpen();
+            long sequence = this.sequence;
+            pin(sequence);
+            return new OffHeapSnapshot(this, sequence);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return the bytes of the keys and values visible in each range
+     */
+    @Override
+    public long[] getApproximateSizes(final Range... ranges) {
+        long[] sizes = new long[ranges.length];
+        readLock.lock();
+        try {
+            checkOpen();
+            long sequence = this.sequence;
+            for (int i = 0; i < ranges.length; i++) {
+                long node = ceiling(ranges[i].start(), null);
+                while (node != NULL && compare(node, ranges[i].limit()) < 0) {
+                    long version = visible(newest(node), sequence);
+                    if (version != NULL) {
+                        sizes[i] +=
+                                keyLength(node)
+                                        + getInt(version, VERSION_LENGTH);
+                    }
+                    node = nextNode(node, 0);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return sizes;
+    }
+
+    /**
+     * Supports leveldb.stats and leveldb.sstables, which describe the memory
+     * of this DB since it has no tables
+     */
+    @Override
+    public String getProperty(final String name) {
+        if (!"leveldb.stats".equals(name) && !"leveldb.sstables".equals(name)) {
+            return null;
+        }
+        readLock.lock();
+        try {
+            long allocated = 0;
+            for (Slab slab : slabs) {
+                if (slab != null) {
+                    allocated += slab.buffer.capacity();
+                }
+            }
+            return "off-heap DB " + this.name + "\nkeys: " + keys
+                    + "\nlive bytes: " + liveBytes + "\nslabs: " + slabCount
+                    + "\nallocated bytes: " + allocated + "\nsequence: "
+                    + sequence + "\n";
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Does nothing, there are no background compactions
+     */
+    @Override
+    public void suspendCompactions() {
+    }
+
+    @Override
+    public void resumeCompactions() {
+    }
+
+    /**
+     * Frees the versions in [begin, end] that no snapshot can see and moves
+     * the nodes and versions of half empty slabs, so their memory can be
+     * released. Null bounds mean the first or last key.
+     */
+    @Override
+    public void compactRange(final byte[] begin, final byte[] end) {
+        writeLock.lock();
+        try {
+            checkOpen();
+            long node;
+            if (begin == null) {
+                Arrays.fill(update, HEAD);
+                node = nextNode(HEAD, 0);
+            } else {
+                node = ceiling(begin, update);
+            }
+            while (node != NULL && (end == null || compare(node, end) <= 0)) {
+                long following = nextNode(node, 0);
+                if (prune(node)) {
+                    unlink(node);
+                    node = following;
+                    continue;
+                }
+
+                long referrer = node;
+                int field = NODE_NEWEST;
+                for (long version = newest(node); version != NULL; version =
+                        getLong(version, VERSION_OLDER)) {
+                    if (isSparse(version)) {
+                        version = move(version, versionSize(version));
+                        putLong(referrer, field, version);
+                    }
+                    referrer = version;
+                    field = VERSION_OLDER;
+                }
+                if (isSparse(node)) {
+                    long moved = move(node, nodeSize(node));
+                    for (int level = 0; level < height(moved); level++) {
+                        setNextNode(update[level], level, moved);
+                    }
+                    node = moved;
+                }
+
+                for (int level = 0; level < height(node); level++) {
+                    update[level] = node;
+                }
+                node = following;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Releases all memory, the data is lost
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            closed = true;
+            Arrays.fill(head, NULL);
+            slabs = new Slab[0];
+            slabCount = 0;
+            current = null;
+            keys = 0;
+            liveBytes = 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "off-heap DB " + name;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new DBException("The DB " + name + " has been closed");
+        }
+    }
+
+    private long sequenceOf(final ReadOptions options) {
+        Snapshot snapshot = options == null ? null : options.snapshot();
+        return snapshot == null ? sequence
+                : ((OffHeapSnapshot) snapshot).sequence;
+    }
+
+    /*
+     * Adds a version of key, the caller holds the write lock
+     */
+    private void apply(final byte[] key, final byte[] value,
+            final long sequence) {
+        long node = ceiling(key, update);
+        if (node != NULL && compare(node, key) != 0) {
+            node = NULL;
+        }
+        if (node == NULL) {
+            if (value == null) {
+                return;
+            }
+            node = insert(key);
+        }
+
+        int length = value == null ? -1 : value.length;
+        long version = allocate(VERSION_VALUE + Math.max(length, 0));
+        putLong(version, VERSION_SEQUENCE, sequence);
+        putLong(version, VERSION_OLDER, newest(node));
+        putInt(version, VERSION_LENGTH, length);
+        if (value != null) {
+            ByteBuffer buffer = slab(version).buffer.duplicate();
+            buffer.position((int) version + VERSION_VALUE);
+            buffer.put(value);
+        }
+        putLong(node, NODE_NEWEST, version);
+
+        if (prune(node)) {
+            unlink(node);
+        }
+    }
+
+    /*
+     * Links a new node for key behind the nodes in update
+     */
+    private long insert(final byte[] key) {
+        int height = 1;
+        while (height < MAX_HEIGHT && random.nextInt(4) == 0) {
+            height++;
+        }
+        long node = allocate(NODE_NEXT + 8 * height + key.length);
+        ByteBuffer buffer = slab(node).buffer.duplicate();
+        int offset = (int) node;
+        buffer.putLong(offset + NODE_NEWEST, NULL);
+        buffer.putInt(offset + NODE_KEY_LENGTH, key.length);
+        buffer.put(offset + NODE_HEIGHT, (byte) height);
+        for (int level = 0; level < height; level++) {
+            setNextNode(node, level, nextNode(update[level], level));
+            setNextNode(update[level], level, node);
+        }
+        buffer.position(offset + NODE_NEXT + 8 * height);
+        buffer.put(key);
+        keys++;
+        return node;
+    }
+
+    /*
+     * Removes a node behind the nodes in update and frees it
+     */
+    private void unlink(final long node) {
+        for (int level = 0; level < height(node); level++) {
+            if (nextNode(update[level], level) == node) {
+                setNextNode(update[level], level, nextNode(node, level));
+            }
+        }
+        free(node, nodeSize(node));
+        keys--;
+    }
+
+    /*
+     * Frees the versions older than the newest version every open snapshot
+     * can see
+     *
+     * @return true if the node can be removed because its newest version is
+     *         a deletion no snapshot needs, the deletion has been freed then
+     */
+    private boolean prune(final long node) {
+        long horizon;
+        synchronized (pinned) {
+            horizon = pinned.isEmpty() ? Long.MAX_VALUE : pinned.firstKey();
+        }
+        long newest = newest(node);
+        long keep = newest;
+        while (getLong(keep, VERSION_SEQUENCE) > horizon
+                && getLong(keep, VERSION_OLDER) != NULL) {
+            keep = getLong(keep, VERSION_OLDER);
+        }
+        long old = getLong(keep, VERSION_OLDER);
+        while (old != NULL) {
+            long older = getLong(old, VERSION_OLDER);
+            free(old, versionSize(old));
+            old = older;
+        }
+        putLong(keep, VERSION_OLDER, NULL);
+        if (keep == newest && getInt(newest, VERSION_LENGTH) < 0) {
+            free(newest, versionSize(newest));
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * @return a pointer to length bytes in the current slab
+     */
+    private long allocate(final int length) {
+        if (current == null
+                || current.buffer.capacity() - current.used < length) {
+            Slab previous = current;
+            int number = 0;
+            while (number < slabs.length && slabs[number] != null) {
+                number++;
+            }
+            if (number == slabs.length) {
+                slabs = Arrays.copyOf(slabs, Math.max(16, 2 * number));
+            }
+            current = new Slab(number, Math.max(slabSize, length));
+            slabs[number] = current;
+            slabCount++;
+            if (previous != null && previous.live == 0) {
+                release(previous);
+            }
+        }
+        long pointer = (long) (current.number + 1) << 32 | current.used;
+        current.used += length;
+        current.live += length;
+        liveBytes += length;
+        return pointer;
+    }
+
+    private void free(final long pointer, final int length) {
+        Slab slab = slab(pointer);
+        slab.live -= length;
+        liveBytes -= length;
+        if (slab.live == 0 && slab != current) {
+            release(slab);
+        }
+    }
+
+    private void release(final Slab slab) {
+        slabs[slab.number] = null;
+        slabCount--;
+    }
+
+    /*
+     * @return true if the record is in a half empty slab other than the
+     *         current one
+     */
+    private boolean isSparse(final long pointer) {
+        Slab slab = slab(pointer);
+        return slab != current && slab.live < slab.used / 2;
+    }
+
+    /*
+     * Copies a record into the current slab and frees the original
+     */
+    private long move(final long pointer, final int length) {
+        byte[] record = new byte[length];
+        ByteBuffer buffer = slab(pointer).buffer.duplicate();
+        buffer.position((int) pointer);
+        buffer.get(record);
+        long moved = allocate(length);
+        buffer = slab(moved).buffer.duplicate();
+        buffer.position((int) moved);
+        buffer.put(record);
+        free(pointer, length);
+        return moved;
+    }
+
+    private void pin(final long sequence) {
+        synchronized (pinned) {
+            Integer count = pinned.get(sequence);
+            pinned.put(sequence, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void unpin(final long sequence) {
+        synchronized (pinned) {
+            Integer count = pinned.get(sequence);
+            if (count == 1) {
+                pinned.remove(sequence);
+            } else {
+                pinned.put(sequence, count - 1);
+            }
+        }
+    }
+
+    /*
+     * Skip list searches, the caller holds a lock
+     */
+
+    /*
+     * @return the first node not before key, NULL if there is none. The last
+     *         nodes before key on every level are stored in update if it is
+     *         not null.
+     */
+    private long ceiling(final byte[] key, final long[] update) {
+        return nextNode(lower(key, update), 0);
+    }
+
+    /*
+     * @return the last node before key, HEAD if there is none
+     */
+    private long lower(final byte[] key) {
+        return lower(key, null);
+    }
+
+    private long lower(final byte[] key, final long[] update) {
+        long node = HEAD;
+
+        /*
+         * A node found not to be before key on a level is not compared again
+         * on the levels below
+         */
+        long notBefore = NULL;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = nextNode(node, level);
+            while (next != NULL && next != notBefore
+                    && compare(next, key) < 0) {
+                node = next;
+                next = nextNode(node, level);
+            }
+            notBefore = next;
+            if (update != null) {
+                update[level] = node;
+            }
+        }
+        return node;
+    }
+
+    /*
+     * @return the last node, HEAD if there is none
+     */
+    private long lastNode() {
+        long node = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            while (nextNode(node, level) != NULL) {
+                node = nextNode(node, level);
+            }
+        }
+        return node;
+    }
+
+    /*
+     * @return the node of key, NULL if there is none
+     */
+    private long find(final byte[] key) {
+        long node = ceiling(key, null);
+        return node != NULL && compare(node, key) == 0 ? node : NULL;
+    }
+
+    /*
+     * Compares the key of a node with key in the order used by levelDB
+     */
+    private int compare(final long node, final byte[] key) {
+        ByteBuffer buffer = slab(node).buffer;
+        int length = buffer.getInt((int) node + NODE_KEY_LENGTH);
+        int offset = keyOffset(node);
+        int common = Math.min(length, key.length);
+        int i = 0;
+
+        /*
+         * Compares 8 bytes at once, flipped sign bits make the comparison
+         * unsigned
+         */
+        for (; i + 8 <= common; i += 8) {
+            long stored = buffer.getLong(offset + i);
+            long other = Serializer.readLong(key, i);
+            if (stored != other) {
+                return (stored ^ Long.MIN_VALUE) < (other ^ Long.MIN_VALUE) ? -1
+                        : 1;
+            }
+        }
+        for (; i < common; i++) {
+            int diff = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length;
+    }
+
+    /*
+     * @return the newest version of a node not newer than sequence, NULL if
+     *         there is none or it is a deletion
+     */
+    private long visible(long version, final long sequence) {
+        while (version != NULL
+                && getLong(version, VERSION_SEQUENCE) > sequence) {
+            version = getLong(version, VERSION_OLDER);
+        }
+        return version == NULL || getInt(version, VERSION_LENGTH) < 0 ? NULL
+                : version;
+    }
+
+    /*
+     * Copies a value to the heap, null for NULL
+     */
+    private byte[] read(final long version) {
+        if (version == NULL) {
+            return null;
+        }
+        byte[] value = new byte[getInt(version, VERSION_LENGTH)];
+        ByteBuffer buffer = slab(version).buffer.duplicate();
+        buffer.position((int) version + VERSION_VALUE);
+        buffer.get(value);
+        return value;
+    }
+
+    /*
+     * Copies the key of a node to the heap
+     */
+    private byte[] keyOf(final long node) {
+        byte[] key = new byte[keyLength(node)];
+        ByteBuffer buffer = slab(node).buffer.duplicate();
+        buffer.position(keyOffset(node));
+        buffer.get(key);
+        return key;
+    }
+
+    /*
+     * Record accessors, records are read and written with absolute methods
+     */
+
+    private Slab slab(final long pointer) {
+        return slabs[(int) (pointer >>> 32) - 1];
+    }
+
+    private long getLong(final long pointer, final int field) {
+        return slab(pointer).buffer.getLong((int) pointer + field);
+    }
+
+    private void putLong(final long pointer, final int field,
+            final long value) {
+        slab(pointer).buffer.putLong((int) pointer + field, value);
+    }
+
+    private int getInt(final long pointer, final int field) {
+        return slab(pointer).buffer.getInt((int) pointer + field);
+    }
+
+    private void putInt(final long pointer, final int field, final int value) {
+        slab(pointer).buffer.putInt((int) pointer + field, value);
+    }
+
+    private long newest(final long node) {
+        return getLong(node, NODE_NEWEST);
+    }
+
+    private int keyLength(final long node) {
+        return getInt(node, NODE_KEY_LENGTH);
+    }
+
+    private int height(final long node) {
+        return slab(node).buffer.get((int) node + NODE_HEIGHT);
+    }
+
+    private int keyOffset(final long node) {
+        return (int) node + NODE_NEXT + 8 * height(node);
+    }
+
+    private long nextNode(final long node, final int level) {
+        return node == HEAD ? head[level] : getLong(node, NODE_NEXT + 8
+                * level);
+    }
+
+    private void setNextNode(final long node, final int level,
+            final long next) {
+        if (node == HEAD) {
+            head[level] = next;
+        } else {
+            putLong(node, NODE_NEXT + 8 * level, next);
+        }
+    }
+
+    private int nodeSize(final long node) {
+        return NODE_NEXT + 8 * height(node) + keyLength(node);
+    }
+
+    private int versionSize(final long version) {
+        return VERSION_VALUE + Math.max(getInt(version, VERSION_LENGTH), 0);
+    }
+
+    /*
+     * Iterates over the state of a sequence. The position is the key of the
+     * entry returned by peekNext, null once the iterator has passed the last
+     * entry. Like levelDB iterators, it has no previous entry then. Keys are
+     * looked up again on every step, so the iterator is not affected by
+     * records moved or freed in the meantime.
+     */
+    private final class OffHeapIterator implements DBIterator {
+
+        private final long sequence;
+
+        private byte[] position;
+
+        private boolean released = false;
+
+        OffHeapIterator(
+                final long sequence) {
+            this.sequence = sequence;
+            position = first(null, true);
+        }
+
+        @Override
+        public void seek(final byte[] key) {
+            position = first(key, true);
+        }
+
+        @Override
+        public void seekToFirst() {
+            position = first(null, true);
+        }
+
+        @Override
+        public void seekToLast() {
+            position = last(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position != null;
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> peekNext() {
+            if (position == null) {
+                throw new NoSuchElementException();
+            }
+            return entry(position);
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> next() {
+            Map.Entry<byte[], byte[]> entry = peekNext();
+            position = first(position, false);
+            return entry;
+        }
+
+        @Override
+        public boolean hasPrev() {
+            return position != null && last(position) != null;
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> peekPrev() {
+            byte[] previous = position == null ? null : last(position);
+            if (previous == null) {
+                throw new NoSuchElementException();
+            }
+            return entry(previous);
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> prev() {
+            Map.Entry<byte[], byte[]> entry = peekPrev();
+            position = entry.getKey();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                unpin(sequence);
+            }
+        }
+
+        /*
+         * @return the first key visible to this iterator after from (or not
+         *         before from if inclusive), any key if from is null
+         */
+        private byte[] first(final byte[] from, final boolean inclusive) {
+            readLock.lock();
+            try {
+                checkOpen();
+                long node =
+                        from == null ? nextNode(HEAD, 0) : ceiling(from, null);
+                if (!inclusive && node != NULL && compare(node, from) == 0) {
+                    node = nextNode(node, 0);
+                }
+                while (node != NULL
+                        && visible(newest(node), sequence) == NULL) {
+                    node = nextNode(node, 0);
+                }
+                return node == NULL ? null : keyOf(node);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        /*
+         * @return the last key visible to this iterator before before, any
+         *         key if before is null
+         */
+        private byte[] last(final byte[] before) {
+            readLock.lock();
+            try {
+                checkOpen();
+                long node = before == null ? lastNode() : lower(before);
+                while (node != HEAD
+                        && visible(newest(node), sequence) == NULL) {
+                    node = lower(keyOf(node));
+                }
+                return node == HEAD ? null : keyOf(node);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        private Map.Entry<byte[], byte[]> entry(final byte[] key) {
+            readLock.lock();
+            try {
+                checkOpen();
+                long node = find(key);
+                byte[] value =
+                        node == NULL ? null : read(visible(newest(node),
+                                sequence));
+                if (value == null) {
+                    throw new NoSuchElementException();
+                }
+                return new AbstractMap.SimpleImmutableEntry<byte[], byte[]>(
+                        key.clone(), value);
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package de.metalcon.dbhelper;
+
+import java.io.File;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBFactory;
+import org.iq80.leveldb.Options;
+
+/**
+ * Storage engine keeping a sorted DB in memory outside of the Java heap, for
+ * hot ephemeral data and fast tests:
+ *
+ * <pre>
+ * LevelDbHandler.initialize(OffHeapDBFactory.factory, "sessions");
+ * </pre>
+ *
+ * The DBs support the same operations as levelDB, including atomic batches,
+ * snapshots and iterators reading from the state they were created in. Keys
+ * are ordered by their unsigned bytes like in levelDB, so prefixes and scans
+ * behave the same. Keys, values and the sorted index are stored in direct
+ * memory slabs of SLAB_SIZE bytes, so the heap only holds one buffer per slab
+ * and large data sets hardly add work for the garbage collector.
+ *
+ * Nothing is persisted: the path only names the DB, and its data is lost when
+ * the DB is closed. Every open creates an empty DB.
+ */
+public final class OffHeapDBFactory implements DBFactory {
+
+    /**
+     * Size of the direct memory slabs entries are stored in. Larger values
+     * get a slab of their own.
+     */
+    public static final int SLAB_SIZE = 8 << 20;
+
+    public static final OffHeapDBFactory factory = new OffHeapDBFactory();
+
+    private OffHeapDBFactory() {
+    }
+
+    @Override
+    public DB open(final File path, final Options options) {
+        return new OffHeapDB(path.getPath(), SLAB_SIZE);
+    }
+
+    /**
+     * Does nothing, the data of a DB is dropped when it is closed
+     */
+    @Override
+    public void destroy(final File path, final Options options) {
+    }
+
+    /**
+     * Does nothing, there are no files to repair
+     */
+    @Override
+    public void repair(final File path, final Options options) {
+    }
+
+    @Override
+    public String toString() {
+        return "off-heap";
+    }
+}
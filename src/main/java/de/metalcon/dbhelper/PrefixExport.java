@@ -0,0 +1,392 @@
+package de.metalcon.dbhelper;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+/**
+ * Immutable, memory-mapped copy of the entries of one instance written by
+ * LevelDbHandler.exportPrefix and read by ExportReader:
+ *
+ * <pre>
+ * [int MAGIC][byte VERSION][byte key encoding][short 0][long key prefix]
+ * records in key order: ([int suffix length][key suffix]
+ *                        [int value length][value])*
+ * index:                 ([long head][int record offset])*
+ * footer:                [int entries][int index offset][int CRC32]
+ * </pre>
+ *
+ * The head of a record holds the first 8 bytes of its key suffix, padded with
+ * zeros, so the binary search over the index only reads the record for keys
+ * starting with the same 8 bytes. The CRC32 covers all bytes before it.
+ * Values are stored in the format of Serializer and read straight from the
+ * mapped file with absolute reads, so an export can be shared by any number
+ * of threads.
+ */
+final class PrefixExport {
+
+    static final int MAGIC = 0x44424845;
+
+    static final byte VERSION = 1;
+
+    private static final int HEADER_LENGTH = 16;
+
+    private static final int FOOTER_LENGTH = 12;
+
+    private static final int INDEX_ENTRY = 12;
+
+    private final File file;
+
+    private final MappedByteBuffer buffer;
+
+    private final byte[] keyPrefix = new byte[8];
+
+    private final KeyEncoding encoding;
+
+    private final int entries;
+
+    private final int index;
+
+    private PrefixExport(
+            final File file,
+            final MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        int size = buffer.capacity();
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not an export");
+        }
+        if (buffer.get(4) != VERSION) {
+            throw new IOException("Unsupported export version "
+                    + buffer.get(4));
+        }
+        int encoding = buffer.get(5);
+        if (encoding < 0 || encoding >= KeyEncoding.values().length) {
+            throw new IOException("Unknown key encoding " + encoding);
+        }
+        this.encoding = KeyEncoding.values()[encoding];
+        for (int i = 0; i < 8; i++) {
+            keyPrefix[i] = buffer.get(8 + i);
+        }
+        entries = buffer.getInt(size - FOOTER_LENGTH);
+        index = buffer.getInt(size - FOOTER_LENGTH + 4);
+        if (entries < 0 || index < HEADER_LENGTH
+                || (long) index + (long) INDEX_ENTRY * entries != size
+                        - FOOTER_LENGTH) {
+            throw new IOException(file + " is corrupt");
+        }
+
+        /*
+         * Reading the whole file once also loads it into the page cache
+         * before the first lookup
+         */
+        CRC32 crc = new CRC32();
+        ByteBuffer data = buffer.duplicate();
+        data.limit(size - 4);
+        byte[] chunk = new byte[1 << 16];
+        while (data.hasRemaining()) {
+            int length = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        if (buffer.getInt(size - 4) != (int) crc.getValue()) {
+            throw new IOException(file + " is corrupt");
+        }
+    }
+
+    /**
+     * Maps an export and verifies its checksum
+     *
+     * @throws IOException
+     *             if the file cannot be read, is not an export or is corrupt
+     */
+    static PrefixExport open(final File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            long length = in.length();
+            if (length < HEADER_LENGTH + FOOTER_LENGTH
+                    || length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not an export");
+            }
+            buffer = in.getChannel().map(MapMode.READ_ONLY, 0, length);
+        } finally {
+            /*
+             * The mapping stays valid after the file is closed
+             */
+            in.close();
+        }
+        return new PrefixExport(file, buffer);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    byte[] getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    KeyEncoding getKeyEncoding() {
+        return encoding;
+    }
+
+    int size() {
+        return entries;
+    }
+
+    /**
+     * @return the position of the value stored at key, -1 if the key is
+     *         missing
+     */
+    int find(final byte[] key) {
+        if (!ByteArrayKey.startsWith(key, keyPrefix)) {
+            return -1;
+        }
+        long head = head(key, 8, key.length - 8) ^ Long.MIN_VALUE;
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = index + INDEX_ENTRY * mid;
+
+            /*
+             * Heads are compared unsigned like the bytes they hold
+             */
+            long entryHead = buffer.getLong(entry) ^ Long.MIN_VALUE;
+            int record = buffer.getInt(entry + 8);
+            int cmp =
+                    entryHead < head ? -1 : entryHead > head ? 1 : compare(
+                            record, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return record + 4 + buffer.getInt(record);
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * @return the first 8 bytes of key[from, from + length) padded with zeros
+     */
+    private static long head(final byte[] key, final int from,
+            final int length) {
+        long head = 0;
+        for (int i = 0; i < 8; i++) {
+            head <<= 8;
+            if (i < length) {
+                head |= key[from + i] & 0xFF;
+            }
+        }
+        return head;
+    }
+
+    /*
+     * Compares the key suffix of a record with the suffix of key in the order
+     * used by levelDB
+     */
+    private int compare(final int record, final byte[] key) {
+        int length = buffer.getInt(record);
+        int keyLength = key.length - 8;
+        int common = Math.min(length, keyLength);
+        int pos = record + 4;
+        for (int i = 0; i < common; i++) {
+            int diff = (buffer.get(pos + i) & 0xFF) - (key[8 + i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - keyLength;
+    }
+
+    /*
+     * Decoders of the value at a position returned by find, see Serializer
+     */
+
+    long getLong(final int value) {
+        int payload = value + 4 + Serializer.HEADER_LENGTH;
+        switch (typeOf(value)) {
+            case Serializer.TYPE_LONG:
+                return buffer.getLong(payload);
+            case Serializer.TYPE_INT:
+                return buffer.getInt(payload);
+            case Serializer.TYPE_SHORT:
+                return buffer.getShort(payload);
+            default:
+                throw typeMismatch(value, Serializer.TYPE_LONG);
+        }
+    }
+
+    int getInt(final int value) {
+        int payload = value + 4 + Serializer.HEADER_LENGTH;
+        switch (typeOf(value)) {
+            case Serializer.TYPE_INT:
+                return buffer.getInt(payload);
+            case Serializer.TYPE_SHORT:
+                return buffer.getShort(payload);
+            default:
+                throw typeMismatch(value, Serializer.TYPE_INT);
+        }
+    }
+
+    short getShort(final int value) {
+        checkType(value, Serializer.TYPE_SHORT);
+        return buffer.getShort(value + 4 + Serializer.HEADER_LENGTH);
+    }
+
+    boolean getBoolean(final int value) {
+        checkType(value, Serializer.TYPE_BOOLEAN);
+        return buffer.get(value + 4 + Serializer.HEADER_LENGTH) != 0;
+    }
+
+    /**
+     * @return a copy of the serialized value
+     */
+    byte[] getBytes(final int value) {
+        byte[] bytes = new byte[buffer.getInt(value)];
+        ByteBuffer data = buffer.duplicate();
+        data.position(value + 4);
+        data.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return a read-only view of the serialized value in the mapped file
+     */
+    ByteBuffer getBuffer(final int value) {
+        ByteBuffer data = buffer.asReadOnlyBuffer();
+        data.position(value + 4);
+        data.limit(value + 4 + buffer.getInt(value));
+        return data.slice();
+    }
+
+    private byte typeOf(final int value) {
+        if (buffer.getInt(value) < Serializer.HEADER_LENGTH
+                || buffer.get(value + 4) != Serializer.VERSION) {
+            throw new MetalconRuntimeException(
+                    "Unsupported value format version "
+                            + buffer.get(value + 4));
+        }
+        return buffer.get(value + 5);
+    }
+
+    private void checkType(final int value, final byte expected) {
+        if (typeOf(value) != expected) {
+            throw typeMismatch(value, expected);
+        }
+    }
+
+    private MetalconRuntimeException typeMismatch(final int value,
+            final byte expected) {
+        return new MetalconRuntimeException("Stored value has type "
+                + buffer.get(value + 5) + " but type " + expected
+                + " was requested");
+    }
+
+    /**
+     * Writes an export, see LevelDbHandler.exportPrefix
+     */
+    static final class Writer implements Closeable {
+
+        private final FileOutputStream fileOut;
+
+        private final CRC32 crc = new CRC32();
+
+        private final DataOutputStream out;
+
+        /*
+         * Heads and offsets of the records written so far
+         */
+        private long[] heads = new long[1024];
+
+        private int[] records = new int[1024];
+
+        private int entries = 0;
+
+        private long position = HEADER_LENGTH;
+
+        Writer(
+                final File file,
+                final byte[] keyPrefix,
+                final KeyEncoding encoding) throws IOException {
+            fileOut = new FileOutputStream(file);
+            out =
+                    new DataOutputStream(new BufferedOutputStream(
+                            new CheckedOutputStream(fileOut, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(encoding.ordinal());
+            out.writeShort(0);
+            out.write(keyPrefix, 0, 8);
+        }
+
+        /**
+         * Adds an entry, keys have to be added in ascending order
+         */
+        void add(final byte[] key, final byte[] value) throws IOException {
+            int suffixLength = key.length - 8;
+            long length = 8L + suffixLength + value.length;
+            long end =
+                    position + length + (long) INDEX_ENTRY * (entries + 1)
+                            + FOOTER_LENGTH;
+            if (end > Integer.MAX_VALUE) {
+                throw new IOException("Exports are limited to 2 GB");
+            }
+            if (entries == records.length) {
+                heads = Arrays.copyOf(heads, 2 * entries);
+                records = Arrays.copyOf(records, 2 * entries);
+            }
+            heads[entries] = head(key, 8, suffixLength);
+            records[entries++] = (int) position;
+            out.writeInt(suffixLength);
+            out.write(key, 8, suffixLength);
+            out.writeInt(value.length);
+            out.write(value);
+            position += length;
+        }
+
+        /**
+         * Writes the index and the footer and syncs the file to disk
+         */
+        void finish() throws IOException {
+            for (int i = 0; i < entries; i++) {
+                out.writeLong(heads[i]);
+                out.writeInt(records[i]);
+            }
+            out.writeInt(entries);
+            out.writeInt((int) position);
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+        }
+
+        /**
+         * @return the number of entries added so far
+         */
+        int getEntryCount() {
+            return entries;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package de.metalcon.dbhelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+/**
+ * A consistent view of the DB for the reads of one thread. While a snapshot
+ * is open, the typed getters, containsKey, setContainsElement and the scans
+ * of all instances called by the opening thread read the state of the DB at
+ * the time the snapshot was opened:
+ * 
+ * <pre>
+ * try (ReadSnapshot snapshot = LevelDbHandler.openSnapshot()) {
+ *     long count = likeCounts.getLong(entity);
+ *     long[] likers = likes.getLongs(entity);
+ *     boolean liked = likes.setContainsElement(entity, user);
+ * }
+ * </pre>
+ * 
+ * Readers never block writers. Reads under a snapshot bypass the value cache
+ * and do not see writes made after the snapshot was opened, including writes
+ * of the opening thread. Updates reading the stored value (addToSet,
+ * removeFromSet, batches) always work on the latest state.
+ * 
+ * A snapshot must be closed by the thread that opened it, snapshots opened
+ * while another one is open must be closed first. Scans created within the
+ * scope stay valid after it has been closed.
+ */
+public final class ReadSnapshot implements Closeable {
+
+    private static final ThreadLocal<ReadSnapshot> CURRENT =
+            new ThreadLocal<ReadSnapshot>();
+
+    /*
+     * Number of open snapshots of all threads, lets reads skip the thread
+     * local lookup while no snapshot is open
+     */
+    private static final AtomicInteger OPEN = new AtomicInteger();
+
+    private final DB[] dbs;
+
+    private final Snapshot[] snapshots;
+
+    private final ReadOptions[] options;
+
+    /*
+     * The snapshot that was open when this one was opened
+     */
+    private final ReadSnapshot outer;
+
+    private final Thread owner;
+
+    private boolean closed = false;
+
+    private ReadSnapshot(
+            final DB[] dbs) {
+        this.dbs = dbs;
+        snapshots = new Snapshot[dbs.length];
+        options = new ReadOptions[dbs.length];
+        try {
+            for (int i = 0; i < dbs.length; i++) {
+                snapshots[i] = dbs[i].getSnapshot();
+                options[i] = new ReadOptions().snapshot(snapshots[i]);
+            }
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+        owner = Thread.currentThread();
+        outer = CURRENT.get();
+    }
+
+    /**
+     * Opens a snapshot of all shards and binds it to the current thread
+     */
+    static ReadSnapshot open(final DB[] dbs) {
+        ReadSnapshot snapshot = new ReadSnapshot(dbs);
+        CURRENT.set(snapshot);
+        OPEN.incrementAndGet();
+        return snapshot;
+    }
+
+    /**
+     * @return the options reading db from the snapshot open in the current
+     *         thread, or null if there is none
+     */
+    static ReadOptions optionsFor(final DB db) {
+        if (OPEN.get() == 0) {
+            return null;
+        }
+        ReadSnapshot snapshot = CURRENT.get();
+        if (snapshot == null) {
+            return null;
+        }
+        for (int i = 0; i < snapshot.dbs.length; i++) {
+            if (snapshot.dbs[i] == db) {
+                return snapshot.options[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the current thread reads from a snapshot
+     */
+    static boolean isOpen() {
+        return OPEN.get() != 0 && CURRENT.get() != null;
+    }
+
+    /**
+     * Releases the snapshot and restores the snapshot that was open before,
+     * if any
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (Thread.currentThread() != owner) {
+            throw new MetalconRuntimeException(
+                    "A snapshot has to be closed by the thread that opened it");
+        }
+        if (CURRENT.get() != this) {
+            throw new MetalconRuntimeException(
+                    "Snapshots opened later have to be closed first");
+        }
+        closed = true;
+        if (outer == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(outer);
+        }
+        OPEN.decrementAndGet();
+        release();
+    }
+
+    private void release() {
+        for (Snapshot snapshot : snapshots) {
+            if (snapshot != null) {
+                try {
+                    snapshot.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
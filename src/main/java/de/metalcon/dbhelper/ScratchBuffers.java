@@ -0,0 +1,50 @@
+package de.metalcon.dbhelper;
+
+/**
+ * Per-thread buffers used by LevelDbHandler to encode numeric keys and
+ * primitive values without allocating. leveldbjni copies keys and values into
+ * native memory before a call returns, so a buffer can be reused as soon as
+ * the call that used it has returned. Buffers must never be retained, e.g. by
+ * queued writes or caches.
+ */
+final class ScratchBuffers {
+
+    private static final ThreadLocal<ScratchBuffers> BUFFERS =
+            new ThreadLocal<ScratchBuffers>() {
+
+                @Override
+                protected ScratchBuffers initialValue() {
+                    return new ScratchBuffers();
+                }
+            };
+
+    /*
+     * Keys generated from short, int and long suffixes
+     */
+    final byte[] shortKey = new byte[10];
+
+    final byte[] intKey = new byte[12];
+
+    final byte[] longKey = new byte[16];
+
+    /*
+     * Serialized primitive values
+     */
+    final byte[] booleanValue = new byte[Serializer.HEADER_LENGTH + 1];
+
+    final byte[] shortValue = new byte[Serializer.HEADER_LENGTH + 2];
+
+    final byte[] intValue = new byte[Serializer.HEADER_LENGTH + 4];
+
+    final byte[] longValue = new byte[Serializer.HEADER_LENGTH + 8];
+
+    private ScratchBuffers() {
+    }
+
+    /**
+     * @return the buffers of the current thread
+     */
+    static ScratchBuffers get() {
+        return BUFFERS.get();
+    }
+}
@@ -5,19 +5,82 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 
 import de.metalcon.exceptions.MetalconRuntimeException;
 
+/**
+ * Converts the values stored in the DB from and to byte arrays.
+ *
+ * Values are written in a compact tagged binary format: one version byte,
+ * one type tag and the payload (fixed width big-endian primitives, length
+ * prefixed UTF-8 strings and packed long arrays). Values written by older
+ * versions using Java object serialization are still readable and will be
+ * replaced by the binary format the next time they are written.
+ */
 public class Serializer {
 
     /**
-     * Used to serialize any objects that should be stored in the DB
-     * 
+     * Version of the binary value format written by this class
+     */
+    public static final byte VERSION = 1;
+
+    /*
+     * Type tags following the version byte
+     */
+    public static final byte TYPE_STRING = 1;
+
+    public static final byte TYPE_LONG = 2;
+
+    public static final byte TYPE_INT = 3;
+
+    public static final byte TYPE_SHORT = 4;
+
+    public static final byte TYPE_BOOLEAN = 5;
+
+    public static final byte TYPE_LONGS = 6;
+
+    /**
+     * Sorted set of longs, see LongSetSerializer
+     */
+    public static final byte TYPE_LONG_SET = 7;
+
+    /*
+     * Number of bytes preceding the payload (version + type tag)
+     */
+    static final int HEADER_LENGTH = 2;
+
+    /*
+     * First two bytes of any stream written by an ObjectOutputStream
+     */
+    private static final byte LEGACY_MAGIC_0 = (byte) 0xAC;
+
+    private static final byte LEGACY_MAGIC_1 = (byte) 0xED;
+
+    /**
+     * Used to serialize any objects that should be stored in the DB. Strings,
+     * boxed primitives and long[] are written in the binary format, all other
+     * objects fall back to Java object serialization.
+     *
      * @param obj
      *            the object to be serialized
      * @return the serialized object
      */
     public static byte[] Serialize(final Object obj) {
+        if (obj instanceof String) {
+            return serialize((String) obj);
+        } else if (obj instanceof Long) {
+            return serialize((long) obj);
+        } else if (obj instanceof Integer) {
+            return serialize((int) obj);
+        } else if (obj instanceof Short) {
+            return serialize((short) obj);
+        } else if (obj instanceof Boolean) {
+            return serialize((boolean) obj);
+        } else if (obj instanceof long[]) {
+            return serialize((long[]) obj);
+        }
+
         byte[] out = null;
         if (obj != null) {
             try {
@@ -35,22 +98,353 @@ public class Serializer {
 
     /**
      * Used to deserialize any object stored in the DB
-     * 
+     *
      * @param obj
      *            the serialized object
      * @return the deserialized object
      */
     public static Object deserialize(final byte[] obj) {
-        Object out = null;
-        if (obj != null) {
-            try {
-                ByteArrayInputStream bios = new ByteArrayInputStream(obj);
-                ObjectInputStream ois = new ObjectInputStream(bios);
-                out = ois.readObject();
-            } catch (Exception e) {
-                throw new MetalconRuntimeException(e.getMessage());
-            }
+        if (obj == null) {
+            return null;
+        }
+        if (isLegacy(obj)) {
+            return deserializeLegacy(obj);
+        }
+        switch (typeOf(obj)) {
+            case TYPE_STRING:
+                return deserializeString(obj);
+            case TYPE_LONG:
+                return deserializeLong(obj);
+            case TYPE_INT:
+                return deserializeInt(obj);
+            case TYPE_SHORT:
+                return deserializeShort(obj);
+            case TYPE_BOOLEAN:
+                return deserializeBoolean(obj);
+            case TYPE_LONGS:
+            case TYPE_LONG_SET:
+                return deserializeLongs(obj);
+            default:
+                throw new MetalconRuntimeException("Unknown value type "
+                        + obj[1]);
+        }
+    }
+
+    public static byte[] serialize(final String value) {
+        if (value == null) {
+            return null;
+        }
+        int length = utf8Length(value);
+        byte[] out = header(TYPE_STRING, 4 + length);
+        writeInt(out, HEADER_LENGTH, length);
+        writeUtf8(out, HEADER_LENGTH + 4, value);
+        return out;
+    }
+
+    public static byte[] serialize(final long value) {
+        byte[] out = header(TYPE_LONG, 8);
+        writeLong(out, HEADER_LENGTH, value);
+        return out;
+    }
+
+    public static byte[] serialize(final int value) {
+        byte[] out = header(TYPE_INT, 4);
+        writeInt(out, HEADER_LENGTH, value);
+        return out;
+    }
+
+    public static byte[] serialize(final short value) {
+        byte[] out = header(TYPE_SHORT, 2);
+        out[HEADER_LENGTH] = (byte) (value >> 8);
+        out[HEADER_LENGTH + 1] = (byte) value;
+        return out;
+    }
+
+    public static byte[] serialize(final boolean value) {
+        byte[] out = header(TYPE_BOOLEAN, 1);
+        out[HEADER_LENGTH] = (byte) (value ? 1 : 0);
+        return out;
+    }
+
+    /*
+     * Variants writing into a reusable buffer of exactly the encoded size
+     */
+
+    static byte[] serialize(final long value, final byte[] dst) {
+        dst[0] = VERSION;
+        dst[1] = TYPE_LONG;
+        writeLong(dst, HEADER_LENGTH, value);
+        return dst;
+    }
+
+    static byte[] serialize(final int value, final byte[] dst) {
+        dst[0] = VERSION;
+        dst[1] = TYPE_INT;
+        writeInt(dst, HEADER_LENGTH, value);
+        return dst;
+    }
+
+    static byte[] serialize(final short value, final byte[] dst) {
+        dst[0] = VERSION;
+        dst[1] = TYPE_SHORT;
+        dst[HEADER_LENGTH] = (byte) (value >> 8);
+        dst[HEADER_LENGTH + 1] = (byte) value;
+        return dst;
+    }
+
+    static byte[] serialize(final boolean value, final byte[] dst) {
+        dst[0] = VERSION;
+        dst[1] = TYPE_BOOLEAN;
+        dst[HEADER_LENGTH] = (byte) (value ? 1 : 0);
+        return dst;
+    }
+
+    public static byte[] serialize(final long[] value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] out = header(TYPE_LONGS, 8 * value.length);
+        int pos = HEADER_LENGTH;
+        for (long l : value) {
+            writeLong(out, pos, l);
+            pos += 8;
+        }
+        return out;
+    }
+
+    /**
+     * @return the String stored in obj or null if obj is null
+     */
+    public static String deserializeString(final byte[] obj) {
+        if (obj == null) {
+            return null;
+        }
+        if (isLegacy(obj)) {
+            return (String) deserializeLegacy(obj);
+        }
+        checkType(obj, TYPE_STRING);
+        int length = readInt(obj, HEADER_LENGTH);
+        return new String(obj, HEADER_LENGTH + 4, length,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the long stored in obj. Values stored as int or short are
+     *         widened.
+     */
+    public static long deserializeLong(final byte[] obj) {
+        if (isLegacy(obj)) {
+            return ((Number) deserializeLegacy(obj)).longValue();
+        }
+        switch (typeOf(obj)) {
+            case TYPE_LONG:
+                return readLong(obj, HEADER_LENGTH);
+            case TYPE_INT:
+                return readInt(obj, HEADER_LENGTH);
+            case TYPE_SHORT:
+                return readShort(obj, HEADER_LENGTH);
+            default:
+                throw typeMismatch(obj, TYPE_LONG);
+        }
+    }
+
+    /**
+     * @return the int stored in obj. Values stored as short are widened.
+     */
+    public static int deserializeInt(final byte[] obj) {
+        if (isLegacy(obj)) {
+            return (int) deserializeLegacy(obj);
+        }
+        switch (typeOf(obj)) {
+            case TYPE_INT:
+                return readInt(obj, HEADER_LENGTH);
+            case TYPE_SHORT:
+                return readShort(obj, HEADER_LENGTH);
+            default:
+                throw typeMismatch(obj, TYPE_INT);
+        }
+    }
+
+    public static short deserializeShort(final byte[] obj) {
+        if (isLegacy(obj)) {
+            return (short) deserializeLegacy(obj);
+        }
+        checkType(obj, TYPE_SHORT);
+        return readShort(obj, HEADER_LENGTH);
+    }
+
+    public static boolean deserializeBoolean(final byte[] obj) {
+        if (isLegacy(obj)) {
+            return (boolean) deserializeLegacy(obj);
+        }
+        checkType(obj, TYPE_BOOLEAN);
+        return obj[HEADER_LENGTH] != 0;
+    }
+
+    /**
+     * @return the long[] or set stored in obj or null if obj is null
+     */
+    public static long[] deserializeLongs(final byte[] obj) {
+        if (obj == null) {
+            return null;
+        }
+        if (isLegacy(obj)) {
+            return (long[]) deserializeLegacy(obj);
+        }
+        if (typeOf(obj) == TYPE_LONG_SET) {
+            return LongSetSerializer.deserialize(obj);
+        }
+        checkType(obj, TYPE_LONGS);
+        long[] out = new long[(obj.length - HEADER_LENGTH) / 8];
+        int pos = HEADER_LENGTH;
+        for (int i = 0; i < out.length; i++) {
+            out[i] = readLong(obj, pos);
+            pos += 8;
         }
         return out;
     }
+
+    /**
+     * Checks whether obj has been written by Java object serialization
+     * instead of the binary format. Such values are still readable but
+     * should be rewritten on the next update.
+     */
+    public static boolean isLegacy(final byte[] obj) {
+        return obj.length >= 2 && obj[0] == LEGACY_MAGIC_0
+                && obj[1] == LEGACY_MAGIC_1;
+    }
+
+    /**
+     * @return the type tag of a value written in the binary format
+     */
+    static byte typeOf(final byte[] obj) {
+        if (obj.length < HEADER_LENGTH || obj[0] != VERSION) {
+            throw new MetalconRuntimeException(
+                    "Unsupported value format version " + obj[0]);
+        }
+        return obj[1];
+    }
+
+    static byte[] header(final byte type, final int payloadLength) {
+        byte[] out = new byte[HEADER_LENGTH + payloadLength];
+        out[0] = VERSION;
+        out[1] = type;
+        return out;
+    }
+
+    /**
+     * @return the number of bytes of the UTF-8 encoding of value. Unpaired
+     *         surrogates count as one byte ('?') like in String.getBytes.
+     */
+    static int utf8Length(final String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of value, see utf8Length
+     *
+     * @return the position after the last written byte
+     */
+    static int writeUtf8(final byte[] dst, int pos, final String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                dst[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | (c >> 6));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    dst[pos++] = (byte) (0xF0 | (cp >> 18));
+                    dst[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    dst[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    dst[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    dst[pos++] = '?';
+                }
+            } else {
+                dst[pos++] = (byte) (0xE0 | (c >> 12));
+                dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    static void writeLong(final byte[] dst, final int pos, final long value) {
+        dst[pos] = (byte) (value >> 56);
+        dst[pos + 1] = (byte) (value >> 48);
+        dst[pos + 2] = (byte) (value >> 40);
+        dst[pos + 3] = (byte) (value >> 32);
+        dst[pos + 4] = (byte) (value >> 24);
+        dst[pos + 5] = (byte) (value >> 16);
+        dst[pos + 6] = (byte) (value >> 8);
+        dst[pos + 7] = (byte) value;
+    }
+
+    static void writeInt(final byte[] dst, final int pos, final int value) {
+        dst[pos] = (byte) (value >> 24);
+        dst[pos + 1] = (byte) (value >> 16);
+        dst[pos + 2] = (byte) (value >> 8);
+        dst[pos + 3] = (byte) value;
+    }
+
+    static long readLong(final byte[] src, final int pos) {
+        return ((long) src[pos] << 56) | ((long) (src[pos + 1] & 0xFF) << 48)
+                | ((long) (src[pos + 2] & 0xFF) << 40)
+                | ((long) (src[pos + 3] & 0xFF) << 32)
+                | ((long) (src[pos + 4] & 0xFF) << 24)
+                | ((src[pos + 5] & 0xFF) << 16) | ((src[pos + 6] & 0xFF) << 8)
+                | (src[pos + 7] & 0xFF);
+    }
+
+    static int readInt(final byte[] src, final int pos) {
+        return (src[pos] << 24) | ((src[pos + 1] & 0xFF) << 16)
+                | ((src[pos + 2] & 0xFF) << 8) | (src[pos + 3] & 0xFF);
+    }
+
+    static short readShort(final byte[] src, final int pos) {
+        return (short) ((src[pos] << 8) | (src[pos + 1] & 0xFF));
+    }
+
+    private static void checkType(final byte[] obj, final byte expected) {
+        if (typeOf(obj) != expected) {
+            throw typeMismatch(obj, expected);
+        }
+    }
+
+    private static MetalconRuntimeException typeMismatch(final byte[] obj,
+            final byte expected) {
+        return new MetalconRuntimeException("Stored value has type "
+                + obj[1] + " but type " + expected + " was requested");
+    }
+
+    private static Object deserializeLegacy(final byte[] obj) {
+        try {
+            ByteArrayInputStream bios = new ByteArrayInputStream(obj);
+            ObjectInputStream ois = new ObjectInputStream(bios);
+            return ois.readObject();
+        } catch (Exception e) {
+            throw new MetalconRuntimeException(e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,222 @@
+package de.metalcon.dbhelper;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Set operations over SetCursors, used by LevelDbHandler.intersect, union
+ * and difference. Intersections and differences are driven by the set with
+ * the fewest candidates and move the other cursors with galloping search,
+ * so their cost grows with the smaller sets rather than the larger ones.
+ */
+final class SetAlgebra {
+
+    private static final Comparator<SetCursor> BY_SIZE =
+            new Comparator<SetCursor>() {
+
+                @Override
+                public int compare(final SetCursor a, final SetCursor b) {
+                    return Integer.compare(a.size(), b.size());
+                }
+            };
+
+    private SetAlgebra() {
+    }
+
+    /**
+     * @return the sorted members contained in all sets
+     */
+    static long[] intersect(final SetCursor[] sets) {
+        if (sets.length == 0) {
+            return new long[0];
+        }
+        SetCursor[] sorted = sets.clone();
+        Arrays.sort(sorted, BY_SIZE);
+        long[] out = new long[sorted[0].size()];
+        int length = intersect(sorted, out);
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    /**
+     * @return the number of members contained in all sets
+     */
+    static int intersectCount(final SetCursor[] sets) {
+        if (sets.length == 0) {
+            return 0;
+        }
+        SetCursor[] sorted = sets.clone();
+        Arrays.sort(sorted, BY_SIZE);
+        return intersect(sorted, null);
+    }
+
+    /**
+     * @return the sorted members contained in any of the sets
+     */
+    static long[] union(final SetCursor[] sets) {
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        int nonEmpty = 0;
+        for (SetCursor set : sets) {
+            if (set.size() != 0) {
+                total += set.size();
+                min = Math.min(min, set.current());
+                max = Math.max(max, set.last());
+                nonEmpty++;
+            }
+        }
+        if (nonEmpty == 0) {
+            return new long[0];
+        }
+
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The union of " + total
+                    + " members does not fit into an array");
+        }
+
+        /*
+         * Dense sets are collected in a bitmap over [min, max] that is not
+         * larger than the members themselves, which avoids the merge heap
+         */
+        long span = max - min;
+        if (nonEmpty > 2 && span >= 0 && (span >>> 6) < total) {
+            return unionBitmap(sets, min, (int) (span >>> 6) + 1);
+        }
+        return unionMerge(sets, (int) total);
+    }
+
+    /**
+     * @param sets
+     *            the set to be reduced followed by the sets whose members
+     *            are removed from it
+     * @return the sorted members of the first set that are not contained in
+     *         any of the others
+     */
+    static long[] difference(final SetCursor[] sets) {
+        SetCursor set = sets[0];
+        long[] out = new long[set.size()];
+        int length = 0;
+        for (; set.hasCurrent(); set.next()) {
+            long member = set.current();
+            boolean found = false;
+            for (int i = 1; i < sets.length && !found; i++) {
+                sets[i].advance(member);
+                found = sets[i].hasCurrent() && sets[i].current() == member;
+            }
+            if (!found) {
+                out[length++] = member;
+            }
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    /*
+     * Leapfrog intersection, sets are sorted by size. Writes the common
+     * members to out unless it is null and returns their number.
+     */
+    private static int intersect(final SetCursor[] sets, final long[] out) {
+        SetCursor smallest = sets[0];
+        int count = 0;
+        candidates: while (smallest.hasCurrent()) {
+            long candidate = smallest.current();
+            for (int i = 1; i < sets.length; i++) {
+                sets[i].advance(candidate);
+                if (!sets[i].hasCurrent()) {
+                    break candidates;
+                }
+                if (sets[i].current() != candidate) {
+                    smallest.advance(sets[i].current());
+                    continue candidates;
+                }
+            }
+            if (out != null) {
+                out[count] = candidate;
+            }
+            count++;
+            smallest.next();
+        }
+        return count;
+    }
+
+    private static long[] unionBitmap(final SetCursor[] sets, final long min,
+            final int words) {
+        long[] bitmap = new long[words];
+        for (SetCursor set : sets) {
+            for (; set.hasCurrent(); set.next()) {
+                long bit = set.current() - min;
+                bitmap[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        int length = 0;
+        for (long word : bitmap) {
+            length += Long.bitCount(word);
+        }
+        long[] out = new long[length];
+        int i = 0;
+        for (int w = 0; w < words; w++) {
+            for (long word = bitmap[w]; word != 0; word &= word - 1) {
+                out[i++] =
+                        min + ((long) w << 6)
+                                + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return out;
+    }
+
+    /*
+     * k-way merge with a binary min-heap of the cursors
+     */
+    private static long[] unionMerge(final SetCursor[] sets, final int total) {
+        SetCursor[] heap = new SetCursor[sets.length];
+        int size = 0;
+        for (SetCursor set : sets) {
+            if (set.hasCurrent()) {
+                heap[size++] = set;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, size, i);
+        }
+
+        long[] out = new long[total];
+        int length = 0;
+        while (size > 0) {
+            SetCursor top = heap[0];
+            long member = top.current();
+            if (length == 0 || out[length - 1] != member) {
+                out[length++] = member;
+            }
+            top.next();
+            if (!top.hasCurrent()) {
+                heap[0] = heap[--size];
+            }
+            siftDown(heap, size, 0);
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    private static void siftDown(final SetCursor[] heap, final int size,
+            int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size
+                    && heap[left].current() < heap[smallest].current()) {
+                smallest = left;
+            }
+            if (right < size
+                    && heap[right].current() < heap[smallest].current()) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            SetCursor swap = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = swap;
+            i = smallest;
+        }
+    }
+}
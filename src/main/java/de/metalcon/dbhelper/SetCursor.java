@@ -0,0 +1,115 @@
+package de.metalcon.dbhelper;
+
+import java.util.Arrays;
+
+/**
+ * Forward cursor over the sorted members of a set, used by SetAlgebra.
+ * advance skips members with galloping search, so a cursor over a large set
+ * can be moved to the next candidate of a small set in logarithmic time.
+ */
+abstract class SetCursor {
+
+    /**
+     * Cursor over a set without members
+     */
+    static final SetCursor EMPTY = of(new long[0]);
+
+    /**
+     * @return the number of members of the set
+     */
+    abstract int size();
+
+    /**
+     * @return the largest member, only defined if the set is not empty
+     */
+    abstract long last();
+
+    /**
+     * @return true if the cursor points to a member, false once it has
+     *         passed the last member
+     */
+    abstract boolean hasCurrent();
+
+    /**
+     * @return the member the cursor points to
+     */
+    abstract long current();
+
+    /**
+     * Moves the cursor to the next member
+     */
+    abstract void next();
+
+    /**
+     * Moves the cursor to the first member not less than target. The cursor
+     * is not moved if it already points to such a member.
+     */
+    abstract void advance(long target);
+
+    /**
+     * @param set
+     *            sorted members without duplicates
+     */
+    static SetCursor of(final long[] set) {
+        return new ArrayCursor(set);
+    }
+
+    private static final class ArrayCursor extends SetCursor {
+
+        private final long[] set;
+
+        private int position = 0;
+
+        ArrayCursor(
+                final long[] set) {
+            this.set = set;
+        }
+
+        @Override
+        int size() {
+            return set.length;
+        }
+
+        @Override
+        long last() {
+            return set[set.length - 1];
+        }
+
+        @Override
+        boolean hasCurrent() {
+            return position < set.length;
+        }
+
+        @Override
+        long current() {
+            return set[position];
+        }
+
+        @Override
+        void next() {
+            position++;
+        }
+
+        @Override
+        void advance(final long target) {
+            if (position >= set.length || set[position] >= target) {
+                return;
+            }
+
+            /*
+             * Double the step until set[high] >= target, then binary search
+             * between the last two probes
+             */
+            int low = position;
+            int high = position + 1;
+            int step = 1;
+            while (high < set.length && set[high] < target) {
+                low = high;
+                step <<= 1;
+                high = set.length - low > step ? low + step : set.length;
+            }
+            int found = Arrays.binarySearch(set, low + 1, high, target);
+            position = found >= 0 ? found : -found - 1;
+        }
+    }
+}
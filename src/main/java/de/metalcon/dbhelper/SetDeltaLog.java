@@ -0,0 +1,270 @@
+package de.metalcon.dbhelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.ReadOptions;
+
+/**
+ * Stores set updates as small delta records instead of rewriting the whole
+ * set. Every delta is written under
+ *
+ * <pre>
+ * [namespace][int key length][set key][long sequence]
+ * </pre>
+ *
+ * so all deltas of one set are adjacent and sorted by the order in which they
+ * have been written. Readers merge the deltas into the stored set, compaction
+ * folds them into the stored set and deletes them.
+ */
+final class SetDeltaLog {
+
+    static final byte ADD = 1;
+
+    static final byte REMOVE = 0;
+
+    /*
+     * Orders the deltas of a set. Seeded with the current time so that
+     * deltas written after a restart sort behind older ones.
+     */
+    private static final AtomicLong sequence = new AtomicLong(
+            System.currentTimeMillis() << 16);
+
+    /*
+     * Key prefix of all delta records of one handler
+     */
+    private final byte[] namespace;
+
+    /*
+     * Number of deltas of a set that triggers its compaction. Deltas are only
+     * written if this is positive.
+     */
+    volatile int compactionThreshold;
+
+    /*
+     * Number of deltas written per set since its last compaction (only
+     * deltas written by this process are counted)
+     */
+    private final ConcurrentHashMap<ByteArrayKey, AtomicInteger> pending =
+            new ConcurrentHashMap<ByteArrayKey, AtomicInteger>();
+
+    SetDeltaLog(
+            final byte[] namespace) {
+        this.namespace = namespace;
+    }
+
+    /**
+     * @return true if set updates should be written as deltas
+     */
+    boolean isEnabled() {
+        return compactionThreshold > 0;
+    }
+
+    /**
+     * @return the prefix shared by all deltas of the set stored at key
+     */
+    byte[] deltaPrefix(final byte[] key) {
+        byte[] prefix = new byte[namespace.length + 4 + key.length];
+        System.arraycopy(namespace, 0, prefix, 0, namespace.length);
+        Serializer.writeInt(prefix, namespace.length, key.length);
+        System.arraycopy(key, 0, prefix, namespace.length + 4, key.length);
+        return prefix;
+    }
+
+    /**
+     * @return the prefix shared by all deltas of this log
+     */
+    byte[] namespace() {
+        return namespace;
+    }
+
+    /**
+     * Extracts the set key from the key of a delta record
+     */
+    byte[] setKey(final byte[] deltaKey) {
+        int length = Serializer.readInt(deltaKey, namespace.length);
+        return Arrays.copyOfRange(deltaKey, namespace.length + 4,
+                namespace.length + 4 + length);
+    }
+
+    /**
+     * Writes a delta record
+     *
+     * @return true if the set has reached the compaction threshold
+     */
+    boolean append(final DB db, final byte[] key, final byte op,
+            final long value) {
+        byte[][] record = record(key, op, value);
+        db.put(record[0], record[1]);
+        return appended(key, 1);
+    }
+
+    /**
+     * Creates a delta record without writing it
+     *
+     * @return the key and the value of the record
+     */
+    byte[][] record(final byte[] key, final byte op, final long value) {
+        byte[] prefix = deltaPrefix(key);
+        byte[] deltaKey = Arrays.copyOf(prefix, prefix.length + 8);
+        Serializer.writeLong(deltaKey, prefix.length,
+                sequence.incrementAndGet());
+
+        byte[] record = new byte[9];
+        record[0] = op;
+        Serializer.writeLong(record, 1, value);
+        return new byte[][] {
+            deltaKey, record
+        };
+    }
+
+    /**
+     * Counts delta records that have been written for a set
+     *
+     * @return true if the set has reached the compaction threshold
+     */
+    boolean appended(final byte[] key, final int records) {
+        ByteArrayKey counterKey = new ByteArrayKey(key);
+        AtomicInteger counter = pending.get(counterKey);
+        if (counter == null) {
+            AtomicInteger newCounter = new AtomicInteger();
+            counter = pending.putIfAbsent(counterKey, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter.addAndGet(records) >= compactionThreshold;
+    }
+
+    /**
+     * Forgets the number of pending deltas of a set after its compaction
+     */
+    void compacted(final byte[] key) {
+        pending.remove(new ByteArrayKey(key));
+    }
+
+    /**
+     * Forgets the number of pending deltas of all sets after their deltas
+     * have been deleted
+     */
+    void clear() {
+        pending.clear();
+    }
+
+    /**
+     * Reads all deltas of the set stored at key
+     *
+     * @param options
+     *            should carry the snapshot the stored set has been read from,
+     *            null to read the current deltas
+     */
+    Deltas read(final DB db, final ReadOptions options, final byte[] key) {
+        byte[] prefix = deltaPrefix(key);
+        Deltas deltas = new Deltas();
+        Map<Long, Boolean> ops = new HashMap<Long, Boolean>();
+
+        /*
+         * levelDB rejects null options
+         */
+        DBIterator iterator =
+                options == null ? db.iterator() : db.iterator(options);
+        try {
+            for (iterator.seek(prefix); iterator.hasNext(); iterator.next()) {
+                Map.Entry<byte[], byte[]> entry = iterator.peekNext();
+                if (!ByteArrayKey.startsWith(entry.getKey(), prefix)) {
+                    break;
+                }
+                byte[] record = entry.getValue();
+                /*
+                 * Deltas are visited in the order they have been written, so
+                 * the last operation on a member wins
+                 */
+                ops.put(Serializer.readLong(record, 1), record[0] == ADD);
+                deltas.keys.add(entry.getKey());
+            }
+        } finally {
+            try {
+                iterator.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        int adds = 0;
+        for (boolean add : ops.values()) {
+            if (add) {
+                adds++;
+            }
+        }
+        deltas.added = new long[adds];
+        deltas.removed = new long[ops.size() - adds];
+        int a = 0;
+        int r = 0;
+        for (Map.Entry<Long, Boolean> op : ops.entrySet()) {
+            if (op.getValue()) {
+                deltas.added[a++] = op.getKey();
+            } else {
+                deltas.removed[r++] = op.getKey();
+            }
+        }
+        Arrays.sort(deltas.added);
+        Arrays.sort(deltas.removed);
+        return deltas;
+    }
+
+    /**
+     * The merged effect of all deltas of one set
+     */
+    static final class Deltas {
+
+        /*
+         * Members added (sorted)
+         */
+        long[] added;
+
+        /*
+         * Members removed (sorted, disjoint from added)
+         */
+        long[] removed;
+
+        /*
+         * Keys of the delta records
+         */
+        final List<byte[]> keys = new ArrayList<byte[]>();
+
+        boolean isEmpty() {
+            return keys.isEmpty();
+        }
+
+        /**
+         * @return the set resulting from applying the deltas to base
+         */
+        long[] apply(final long[] base) {
+            return LongSetSerializer.merge(base, added, removed);
+        }
+
+        /**
+         * @param inBase
+         *            whether the stored set contains value
+         * @return whether the set contains value after applying the deltas
+         */
+        boolean contains(final long value, final boolean inBase) {
+            if (Arrays.binarySearch(added, value) >= 0) {
+                return true;
+            }
+            if (Arrays.binarySearch(removed, value) >= 0) {
+                return false;
+            }
+            return inBase;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.metalcon.dbhelper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks shared by all keys. Keys are mapped to a lock by
+ * their hash, so updates of different keys rarely wait for each other while
+ * updates of the same key are serialized.
+ */
+final class StripedLock {
+
+    private final ReentrantLock[] locks;
+
+    private final int mask;
+
+    /**
+     * @param stripes
+     *            number of locks, rounded up to a power of two
+     */
+    StripedLock(
+            final int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * @return the lock guarding key
+     */
+    Lock get(final byte[] key) {
+        return locks[stripe(key)];
+    }
+
+    /**
+     * Returns the locks guarding all given keys in a global order. Acquiring
+     * them in the returned order cannot dead lock with other threads doing
+     * the same.
+     */
+    List<Lock> getAll(final Collection<byte[]> keys) {
+        TreeSet<Integer> stripes = new TreeSet<Integer>();
+        for (byte[] key : keys) {
+            stripes.add(stripe(key));
+        }
+        List<Lock> result = new ArrayList<Lock>(stripes.size());
+        for (int stripe : stripes) {
+            result.add(locks[stripe]);
+        }
+        return result;
+    }
+
+    private int stripe(final byte[] key) {
+        int hash = 1;
+        for (byte b : key) {
+            hash = 31 * hash + b;
+        }
+        /*
+         * Spread the bits so that keys differing only in their last bytes
+         * are distributed over all stripes
+         */
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return hash & mask;
+    }
+}
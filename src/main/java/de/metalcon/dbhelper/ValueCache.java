@@ -0,0 +1,238 @@
+package de.metalcon.dbhelper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of decoded values of one LevelDbHandler. The cache is split
+ * into segments, each of them evicts its least recently used entries as soon
+ * as the estimated size of its entries exceeds its share of the capacity.
+ *
+ * Writers invalidate keys after writing them. Readers take a stamp before
+ * reading from the DB and only insert the value they have read if no key of
+ * the same segment has been invalidated in the meantime, so a slow reader can
+ * never insert an outdated value.
+ */
+public class ValueCache {
+
+    private static final int SEGMENTS = 16;
+
+    /*
+     * Estimated memory used by an entry besides key and value
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final long maxBytes;
+
+    ValueCache(
+            final long maxBytes) {
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENTS);
+        }
+    }
+
+    /**
+     * @return the cached value of key or null
+     */
+    Object get(final byte[] key) {
+        ByteArrayKey cacheKey = new ByteArrayKey(key);
+        Segment segment = segmentFor(cacheKey);
+        Object value;
+        synchronized (segment) {
+            Entry entry = segment.entries.get(cacheKey);
+            value = entry == null ? null : entry.value;
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * @return a stamp to be passed to put after reading key from the DB
+     */
+    long stamp(final byte[] key) {
+        Segment segment = segmentFor(new ByteArrayKey(key));
+        synchronized (segment) {
+            return segment.invalidations;
+        }
+    }
+
+    /**
+     * Caches a value read from the DB unless the segment of key has been
+     * invalidated since stamp has been taken
+     */
+    void put(final byte[] key, final Object value, final long stamp) {
+        /*
+         * key may be a reused buffer, see ScratchBuffers
+         */
+        ByteArrayKey cacheKey = new ByteArrayKey(key.clone());
+        Segment segment = segmentFor(cacheKey);
+        int weight = ENTRY_OVERHEAD + key.length + weigh(value);
+        if (weight > segment.maxWeight) {
+            return;
+        }
+        synchronized (segment) {
+            if (segment.invalidations != stamp) {
+                return;
+            }
+            Entry old = segment.entries.put(cacheKey, new Entry(value, weight));
+            if (old != null) {
+                segment.weight -= old.weight;
+            }
+            segment.weight += weight;
+
+            Iterator<Entry> lru = segment.entries.values().iterator();
+            while (segment.weight > segment.maxWeight) {
+                segment.weight -= lru.next().weight;
+                lru.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes key from the cache. Must be called after key has been written.
+     */
+    void invalidate(final byte[] key) {
+        ByteArrayKey cacheKey = new ByteArrayKey(key);
+        Segment segment = segmentFor(cacheKey);
+        synchronized (segment) {
+            segment.invalidations++;
+            Entry old = segment.entries.remove(cacheKey);
+            if (old != null) {
+                segment.weight -= old.weight;
+            }
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.invalidations++;
+                segment.entries.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of cached values
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the estimated memory used by the cached values in bytes
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * @return the maximum estimated memory used by the cached values in
+     *         bytes
+     */
+    public long getMaxWeight() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHitCount() + ", misses: " + getMissCount()
+                + ", evictions: " + getEvictionCount() + ", entries: " + size()
+                + ", bytes: " + getWeight() + "/" + maxBytes;
+    }
+
+    private Segment segmentFor(final ByteArrayKey key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    /*
+     * Estimates the memory used by a decoded value
+     */
+    private static int weigh(final Object value) {
+        if (value instanceof long[]) {
+            return 16 + 8 * ((long[]) value).length;
+        } else if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        }
+        return 16;
+    }
+
+    private static final class Entry {
+
+        final Object value;
+
+        final int weight;
+
+        Entry(
+                final Object value,
+                final int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Segment {
+
+        /*
+         * Iterates from the least to the most recently used entry
+         */
+        final LinkedHashMap<ByteArrayKey, Entry> entries =
+                new LinkedHashMap<ByteArrayKey, Entry>(16, 0.75f, true);
+
+        final long maxWeight;
+
+        long weight = 0;
+
+        long invalidations = 0;
+
+        Segment(
+                final long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+    }
+}
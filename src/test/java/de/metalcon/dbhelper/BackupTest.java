@@ -0,0 +1,127 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class BackupTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("backup", ".db");
+        file.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+        file.delete();
+    }
+
+    /*
+     * Writes values, set deltas and a large set to the instance
+     */
+    private static void fill(final LevelDbHandler handler, final long factor) {
+        for (long i = 0; i < 1000; i++) {
+            handler.put(i, factor * i);
+        }
+        handler.enableSetDeltas(1000);
+        handler.addToSet("set", factor);
+        handler.getLargeSet(-1L).add(factor);
+    }
+
+    private static void verify(final LevelDbHandler handler, final long factor)
+            throws ElementNotFoundException {
+        for (long i = 0; i < 1000; i++) {
+            assertEquals(factor * i, handler.getLong(i));
+        }
+        handler.enableSetDeltas(1000);
+        assertArrayEquals(new long[] {
+            factor
+        }, handler.getLongs("set"));
+        assertTrue(handler.getLargeSet(-1L).contains(factor));
+    }
+
+    @Test
+    public void backupsRestoreAllShards() throws Exception {
+        TestDb.open(2);
+        for (long prefix = 1; prefix <= 4; prefix++) {
+            fill(new LevelDbHandler(prefix), prefix);
+        }
+        assertTrue(LevelDbHandler.backup(file, true, 0) > 4000);
+        TestDb.close();
+
+        TestDb.open(2);
+        LevelDbHandler.restore(file);
+        for (long prefix = 1; prefix <= 4; prefix++) {
+            verify(new LevelDbHandler(prefix), prefix);
+        }
+    }
+
+    @Test
+    public void shardBackupsNeedTheSameNumberOfShards() throws Exception {
+        TestDb.open(2);
+        fill(new LevelDbHandler(1), 1);
+        LevelDbHandler.backup(file, false, 0);
+        TestDb.close();
+
+        TestDb.open(4);
+        try {
+            LevelDbHandler.restore(file);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void prefixBackupsRestoreIntoAnyNumberOfShards() throws Exception {
+        TestDb.open(1);
+        LevelDbHandler handler = new LevelDbHandler(1);
+        fill(handler, 3);
+        fill(new LevelDbHandler(2), 5);
+        long entries = handler.backupPrefix(file, true, 1 << 20);
+        TestDb.close();
+
+        TestDb.open(4);
+        assertEquals(entries, LevelDbHandler.restore(file));
+        verify(new LevelDbHandler(1), 3);
+        assertFalse(new LevelDbHandler(2).containsKey(1L));
+    }
+
+    @Test
+    public void corruptBackupsAreRejected() throws IOException,
+            MetalconException {
+        TestDb.open(1);
+        fill(new LevelDbHandler(1), 1);
+        LevelDbHandler.backup(file, false, 0);
+        TestDb.close();
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.seek(out.length() / 2);
+        int b = out.read();
+        out.seek(out.length() / 2);
+        out.write(b ^ 0xFF);
+        out.close();
+
+        TestDb.open(1);
+        try {
+            LevelDbHandler.restore(file);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+}
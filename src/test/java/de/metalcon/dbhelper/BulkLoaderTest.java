@@ -0,0 +1,197 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBFactory;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+public class BulkLoaderTest {
+
+    private static final int WRITE_BUFFER_SIZE = 4 << 20;
+
+    private int writeBufferSize;
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        writeBufferSize = EngineProfile.writeBufferSize;
+        EngineProfile.writeBufferSize = WRITE_BUFFER_SIZE;
+        TestDb.open(new MemtableLimitFactory(), 1);
+        handler = new LevelDbHandler(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+        EngineProfile.writeBufferSize = writeBufferSize;
+    }
+
+    @Test
+    public void loadsLargerThanTwoWriteBuffersAreWritten()
+            throws ElementNotFoundException {
+        char[] chars = new char[4000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        int keys = 5 * WRITE_BUFFER_SIZE / chars.length;
+
+        BulkLoader loader = handler.createBulkLoader();
+        for (long i = 0; i < keys; i++) {
+            loader.put(i, value + i);
+        }
+        assertEquals(keys, loader.finish());
+        for (long i = 0; i < keys; i += 97) {
+            assertEquals(value + i, handler.getString(i));
+        }
+        assertEquals(value + (keys - 1), handler.getString(keys - 1L));
+    }
+
+    @Test
+    public void spilledRunsAreMerged() throws ElementNotFoundException {
+        handler.put(-1L, new long[] {
+            100
+        });
+        BulkLoader loader = handler.createBulkLoader(1 << 16, null);
+        for (long member = 0; member < 3; member++) {
+            for (long i = 0; i < 5000; i++) {
+                loader.addToSet(i, member);
+            }
+        }
+        loader.addToSet(-1L, 7);
+        loader.addToSet(3L, 1);
+        loader.put(3L, new long[] {
+            8
+        });
+        loader.addToSet(3L, 9);
+        assertEquals(5001, loader.finish());
+
+        assertArrayEquals(new long[] {
+            0, 1, 2
+        }, handler.getLongs(4999L));
+        assertArrayEquals(new long[] {
+            7, 100
+        }, handler.getLongs(-1L));
+        assertArrayEquals(new long[] {
+            8, 9
+        }, handler.getLongs(3L));
+    }
+
+    /**
+     * Opens off-heap DBs that reject writes the way levelDB blocks them:
+     * while compactions are suspended, full memtables are not flushed, so
+     * at most two write buffers can be written
+     */
+    private static final class MemtableLimitFactory implements DBFactory {
+
+        @Override
+        public DB open(final File path, final Options options) {
+            return (DB) Proxy.newProxyInstance(DB.class.getClassLoader(),
+                    new Class<?>[] {
+                        DB.class
+                    }, new MemtableLimit(OffHeapDBFactory.factory.open(path,
+                            options)));
+        }
+
+        @Override
+        public void destroy(final File path, final Options options) {
+            OffHeapDBFactory.factory.destroy(path, options);
+        }
+
+        @Override
+        public void repair(final File path, final Options options) {
+        }
+    }
+
+    private static final class MemtableLimit implements InvocationHandler {
+
+        private final DB db;
+
+        private boolean suspended;
+
+        /*
+         * Bytes written since compactions have been suspended
+         */
+        private long written;
+
+        MemtableLimit(
+                final DB db) {
+            this.db = db;
+        }
+
+        @Override
+        public synchronized Object invoke(final Object proxy,
+                final Method method, final Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("suspendCompactions")) {
+                suspended = true;
+                written = 0;
+            } else if (name.equals("resumeCompactions")) {
+                suspended = false;
+            } else if (name.equals("write")) {
+                CountingBatch batch = (CountingBatch) args[0];
+                written += batch.bytes;
+                if (suspended && written > 2L * WRITE_BUFFER_SIZE) {
+                    throw new MetalconRuntimeException(
+                            "Write stalled by suspended compactions");
+                }
+                args[0] = batch.batch;
+            }
+            try {
+                Object result = method.invoke(db, args);
+                return name.equals("createWriteBatch") ? new CountingBatch(
+                        (WriteBatch) result) : result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static final class CountingBatch implements WriteBatch {
+
+        final WriteBatch batch;
+
+        long bytes;
+
+        CountingBatch(
+                final WriteBatch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public WriteBatch put(final byte[] key, final byte[] value) {
+            bytes += key.length + value.length;
+            batch.put(key, value);
+            return this;
+        }
+
+        @Override
+        public WriteBatch delete(final byte[] key) {
+            bytes += key.length;
+            batch.delete(key);
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            batch.close();
+        }
+    }
+}
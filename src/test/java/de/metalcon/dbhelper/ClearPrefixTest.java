@@ -0,0 +1,86 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class ClearPrefixTest {
+
+    private LevelDbHandler handler;
+
+    private LevelDbHandler other;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1);
+        other = new LevelDbHandler(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    /*
+     * @return the set as stored, without its pending deltas
+     */
+    private long[] stored(final long key) {
+        KeyScan scan = handler.range(key, key + 1);
+        try {
+            return scan.hasNext() ? scan.next().getLongs() : null;
+        } finally {
+            scan.close();
+        }
+    }
+
+    @Test
+    public void allDataOfTheInstanceIsDeleted()
+            throws ElementNotFoundException {
+        handler.enableCache(100);
+        for (long i = 0; i < 100; i++) {
+            handler.put(i, i);
+            other.put(i, -i);
+        }
+        handler.enableSetDeltas(1000);
+        handler.addToSet(-1L, 5);
+        handler.getLargeSet(-2L).add(7);
+        assertEquals(5L, handler.getLong(5L));
+
+        assertEquals(103, handler.clearPrefix());
+        assertFalse(handler.containsKey(5L));
+        assertNull(handler.getLongs(-1L));
+        assertEquals(0, handler.getLargeSet(-2L).size());
+        for (long i = 0; i < 100; i++) {
+            assertEquals(-i, other.getLong(i));
+        }
+    }
+
+    @Test
+    public void deletedDeltasDoNotCountTowardsCompaction() {
+        handler.enableSetDeltas(3);
+        handler.addToSet(1L, 1);
+        handler.addToSet(1L, 2);
+        handler.clearPrefix();
+
+        handler.put(1L, new long[] {
+            8
+        });
+        handler.addToSet(1L, 9);
+        assertArrayEquals(new long[] {
+            8
+        }, stored(1L));
+        assertArrayEquals(new long[] {
+            8, 9
+        }, handler.getLongs(1L));
+    }
+}
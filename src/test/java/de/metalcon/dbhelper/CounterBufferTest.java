@@ -0,0 +1,110 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class CounterBufferTest {
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    /*
+     * @return the counter as stored, without buffered updates
+     */
+    private long stored(final long key) {
+        KeyScan scan = handler.range(key, key + 1);
+        try {
+            return scan.hasNext() ? scan.next().getLong() : 0;
+        } finally {
+            scan.close();
+        }
+    }
+
+    @Test
+    public void countersAreAtomic() throws InterruptedException {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        handler.increment(1L);
+                        handler.addAndGet(2L, 3);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8000L, handler.getCounter(1L));
+        assertEquals(24000L, handler.getCounter(2L));
+    }
+
+    @Test
+    public void bufferedUpdatesAreReadButNotStored()
+            throws ElementNotFoundException {
+        handler.put(1L, 10L);
+        handler.enableCounterBuffer(60000, 1000);
+        handler.increment(1L);
+        handler.increment(1L);
+        handler.decrement(2L);
+        assertEquals(12L, handler.getCounter(1L));
+        assertEquals(12L, handler.getLong(1L));
+        assertEquals(15L, handler.addAndGet(1L, 3));
+        assertEquals(-1L, handler.getCounter(2L));
+        assertEquals(10L, stored(1L));
+
+        handler.flushCounters();
+        assertEquals(15L, stored(1L));
+        assertEquals(-1L, stored(2L));
+        handler.disableCounterBuffer();
+    }
+
+    @Test
+    public void putDropsBufferedUpdates() throws ElementNotFoundException {
+        handler.enableCounterBuffer(60000, 1000);
+        handler.increment(1L);
+        handler.put(1L, 100L);
+        handler.increment(3L);
+        handler.removeKey(3L);
+        handler.disableCounterBuffer();
+        assertEquals(100L, handler.getLong(1L));
+        assertFalse(handler.containsKey(3L));
+    }
+
+    @Test(timeout = 60000)
+    public void theThresholdTriggersAFlush() throws InterruptedException {
+        handler.enableCounterBuffer(60000, 10);
+        for (int i = 0; i < 10; i++) {
+            handler.increment(1L);
+        }
+        while (stored(1L) != 10L) {
+            Thread.sleep(1);
+        }
+        handler.disableCounterBuffer();
+    }
+}
@@ -0,0 +1,121 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class ExportReaderTest {
+
+    private static final byte[] PREFIX = {
+        1, 2, 3, 4, 5, 6, 7, 8
+    };
+
+    private static byte[] key(final long suffix) {
+        byte[] key = new byte[16];
+        System.arraycopy(PREFIX, 0, key, 0, 8);
+        Serializer.writeLong(key, 8, KeyEncoding.ORDERED.encode(suffix));
+        return key;
+    }
+
+    /*
+     * Exports suffix -> suffix * factor for the given ascending suffixes
+     */
+    private static File export(final long factor, final long... suffixes)
+            throws IOException {
+        File file = File.createTempFile("export", ".db");
+        file.deleteOnExit();
+        PrefixExport.Writer writer =
+                new PrefixExport.Writer(file, PREFIX, KeyEncoding.ORDERED);
+        try {
+            for (long suffix : suffixes) {
+                writer.add(key(suffix), Serializer.serialize(suffix * factor));
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void lookupsReadTheExportedValues() throws Exception {
+        File file = File.createTempFile("export", ".db");
+        file.deleteOnExit();
+        byte[] name = new byte[8 + 4];
+        System.arraycopy(PREFIX, 0, name, 0, 8);
+        Serializer.writeUtf8(name, 8, "name");
+        PrefixExport.Writer writer =
+                new PrefixExport.Writer(file, PREFIX, KeyEncoding.ORDERED);
+        writer.add(name, Serializer.serialize("metal"));
+        writer.add(key(-5), Serializer.serialize(7));
+        writer.add(key(3), Serializer.serialize(new long[] {
+            1, 2
+        }));
+        writer.finish();
+
+        ExportReader reader = new ExportReader(file);
+        assertEquals(3, reader.size());
+        assertEquals(7, reader.getInt(-5L));
+        assertEquals(7L, reader.getLong(-5L));
+        assertEquals(9, reader.getIntOrDefault(4L, 9));
+        assertArrayEquals(new long[] {
+            1, 2
+        }, reader.getLongs(3L));
+        assertEquals("metal", reader.getString("name"));
+        assertNull(reader.getString("other"));
+        assertTrue(reader.containsKey(3L));
+        assertFalse(reader.containsKey(4L));
+        assertEquals(Serializer.serialize(7).length, reader.getValue(-5L)
+                .remaining());
+        try {
+            reader.getInt(4L);
+            fail();
+        } catch (ElementNotFoundException e) {
+        }
+        reader.close();
+    }
+
+    @Test
+    public void swapReplacesTheExport() throws Exception {
+        long[] suffixes = new long[1000];
+        for (int i = 0; i < suffixes.length; i++) {
+            suffixes[i] = 2 * i;
+        }
+        ExportReader reader = new ExportReader(export(1, suffixes));
+        assertEquals(998, reader.getLong(998L));
+        assertFalse(reader.containsKey(999L));
+
+        reader.swap(export(3, 1, 999));
+        assertEquals(2, reader.size());
+        assertEquals(2997, reader.getLong(999L));
+        assertFalse(reader.containsKey(998L));
+        reader.close();
+    }
+
+    @Test
+    public void corruptExportsAreRejected() throws Exception {
+        File file = export(1, 1, 2, 3);
+        ExportReader reader = new ExportReader(file);
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.seek(20);
+        out.write(0x7F);
+        out.close();
+        try {
+            reader.reload();
+            fail();
+        } catch (IOException e) {
+        }
+        assertEquals(3L, reader.getLong(3L));
+        reader.close();
+    }
+}
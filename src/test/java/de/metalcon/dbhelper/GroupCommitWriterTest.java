@@ -0,0 +1,120 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+public class GroupCommitWriterTest {
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    @Test(timeout = 60000)
+    public void queuedWritesAreCommitted() throws ElementNotFoundException {
+        handler.enableAsyncWrites(1024, Durability.SYNC_INTERVAL, 10);
+        for (long i = 0; i < 1000; i++) {
+            handler.put(i, i);
+            handler.addToSet(-1L, i);
+        }
+        handler.flush();
+        for (long i = 0; i < 1000; i++) {
+            assertEquals(i, handler.getLong(i));
+        }
+        assertEquals(1000, handler.getLongs(-1L).length);
+        handler.disableAsyncWrites();
+    }
+
+    @Test(timeout = 60000)
+    public void failingWritesDoNotFailTheirGroup() throws Exception {
+        handler.put(1L, 5L);
+        handler.enableAsyncWrites(1024, Durability.NO_SYNC, 0);
+        List<Future<Void>> failing = new ArrayList<Future<Void>>();
+        for (long i = 0; i < 200; i++) {
+            failing.add(handler.writeAsync(handler.createBatch().addToSet(1L,
+                    i)));
+            handler.put(100L + i, i);
+        }
+        handler.flush();
+
+        for (long i = 0; i < 200; i++) {
+            assertEquals(i, handler.getLong(100L + i));
+        }
+        assertEquals(5L, handler.getLong(1L));
+        for (Future<Void> write : failing) {
+            try {
+                write.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof MetalconRuntimeException);
+            }
+        }
+        handler.disableAsyncWrites();
+    }
+
+    @Test(timeout = 60000)
+    public void writesRacingWithCloseAreCompleted() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            handler.enableAsyncWrites(16, Durability.NO_SYNC, 0);
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            final AtomicBoolean stop = new AtomicBoolean();
+            Thread writer = new Thread() {
+
+                @Override
+                public void run() {
+                    for (long i = 0; !stop.get(); i++) {
+                        try {
+                            Future<Void> write =
+                                    handler.writeAsync(handler.createBatch()
+                                            .put(i, i));
+                            synchronized (futures) {
+                                futures.add(write);
+                            }
+                        } catch (MetalconRuntimeException e) {
+                            // the writer has been closed before the write
+                        }
+                    }
+                }
+            };
+            writer.start();
+            Thread.sleep(2);
+            handler.disableAsyncWrites();
+            stop.set(true);
+            writer.join();
+
+            synchronized (futures) {
+                for (Future<Void> write : futures) {
+                    try {
+                        write.get(10, TimeUnit.SECONDS);
+                    } catch (ExecutionException e) {
+                        // failed by close
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KeyEncodingTest {
+
+    private static final long[] SORTED = {
+        Long.MIN_VALUE, -1L << 40, -256, -1, 0, 1, 255, 1L << 40,
+        Long.MAX_VALUE
+    };
+
+    private static byte[] key(final KeyEncoding encoding, final long value) {
+        byte[] key = new byte[8];
+        Serializer.writeLong(key, 0, encoding.encode(value));
+        return key;
+    }
+
+    @Test
+    public void orderedKeysSortLikeNumbers() {
+        for (int i = 1; i < SORTED.length; i++) {
+            assertTrue(ByteArrayKey.compare(key(KeyEncoding.ORDERED,
+                    SORTED[i - 1]), key(KeyEncoding.ORDERED, SORTED[i])) < 0);
+        }
+    }
+
+    @Test
+    public void rawKeysAreUnchanged() {
+        for (long value : SORTED) {
+            assertEquals(value, KeyEncoding.RAW.encode(value));
+        }
+    }
+
+    @Test
+    public void decodeInvertsEncode() {
+        for (long value : SORTED) {
+            assertEquals(value,
+                    KeyEncoding.ORDERED.decode(KeyEncoding.ORDERED
+                            .encode(value)));
+            assertEquals((int) value,
+                    KeyEncoding.ORDERED.decode(KeyEncoding.ORDERED
+                            .encode((int) value)));
+            assertEquals((short) value,
+                    KeyEncoding.ORDERED.decode(KeyEncoding.ORDERED
+                            .encode((short) value)));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KeyFilterTest {
+
+    private static byte[] key(final long i) {
+        byte[] key = new byte[8];
+        Serializer.writeLong(key, 0, i);
+        return key;
+    }
+
+    @Test
+    public void noFalseNegatives() {
+        KeyFilter filter = new KeyFilter(10000, 0.01);
+        for (long i = 0; i < 10000; i++) {
+            filter.add(key(i * 31));
+        }
+        for (long i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(key(i * 31)));
+        }
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        KeyFilter filter = new KeyFilter(10000, 0.01);
+        for (long i = 0; i < 10000; i++) {
+            filter.add(key(i));
+        }
+        int falsePositives = 0;
+        for (long i = 10000; i < 110000; i++) {
+            if (filter.mightContain(key(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2000);
+    }
+
+    @Test
+    public void onlyRejectsOnceReady() {
+        KeyFilter filter = new KeyFilter(100, 0.01);
+        assertFalse(filter.rejects(key(1)));
+        filter.ready();
+        assertTrue(filter.rejects(key(1)));
+        filter.add(key(1));
+        assertFalse(filter.rejects(key(1)));
+    }
+}
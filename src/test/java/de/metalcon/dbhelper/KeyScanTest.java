@@ -0,0 +1,94 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class KeyScanTest {
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1, KeyEncoding.ORDERED);
+        LevelDbHandler other = new LevelDbHandler(2);
+        for (long i = -50; i < 50; i++) {
+            handler.put(i, i * 2);
+            other.put(i, "other");
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    private static List<Long> keys(final KeyScan scan) {
+        List<Long> keys = new ArrayList<Long>();
+        try {
+            for (KeyScan.Entry entry : scan) {
+                assertEquals(entry.getLongKey() * 2, entry.getLong());
+                keys.add(entry.getLongKey());
+            }
+        } finally {
+            scan.close();
+        }
+        return keys;
+    }
+
+    @Test
+    public void scansReturnTheEntriesOfTheInstanceInKeyOrder() {
+        List<Long> keys = keys(handler.scan());
+        assertEquals(100, keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i - 50, (long) keys.get(i));
+        }
+    }
+
+    @Test
+    public void rangesAreBoundedByTheirKeys() {
+        List<Long> keys = keys(handler.range(-3L, 3L));
+        assertEquals(6, keys.size());
+        assertEquals(-3L, (long) keys.get(0));
+        assertEquals(2L, (long) keys.get(5));
+        assertEquals(5, keys(handler.headRange(-45L)).size());
+        assertEquals(10, keys(handler.tailRange(40L)).size());
+        assertEquals(0, keys(handler.range(60L, 70L)).size());
+    }
+
+    @Test
+    public void splitRangesCoverAllEntries() {
+        List<KeyScan> scans = handler.scanRanges(4);
+        assertTrue(scans.size() > 1);
+        List<Long> keys = new ArrayList<Long>();
+        for (KeyScan scan : scans) {
+            keys.addAll(keys(scan));
+        }
+        assertEquals(100, keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i - 50, (long) keys.get(i));
+        }
+    }
+
+    @Test
+    public void scansReadASnapshot() {
+        KeyScan scan = handler.scan();
+        handler.put(100L, 200L);
+        handler.removeKey(-50L);
+        List<Long> keys = keys(scan);
+        assertEquals(100, keys.size());
+        assertEquals(-50L, (long) keys.get(0));
+        assertFalse(keys.contains(100L));
+    }
+}
@@ -0,0 +1,134 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class LargeSetTest {
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    @Test
+    public void membersAreKeptSortedAcrossChunks() {
+        LargeSet set = handler.getLargeSet(1L);
+        int members = 3 * LargeSet.MAX_CHUNK_SIZE;
+        for (int i = members - 1; i >= 0; i--) {
+            assertTrue(set.add(2 * i));
+        }
+        assertFalse(set.add(10));
+        assertEquals(members, set.size());
+        assertTrue(set.getChunkCount() > 2);
+        assertTrue(set.contains(0));
+        assertFalse(set.contains(1));
+
+        long[] page = set.page(11, 3);
+        assertArrayEquals(new long[] {
+            12, 14, 16
+        }, page);
+        assertEquals(members, set.page(Long.MIN_VALUE, 2 * members).length);
+
+        assertTrue(set.remove(12));
+        assertFalse(set.remove(12));
+        assertEquals(members - 1, set.size());
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0));
+    }
+
+    @Test
+    public void addAllMergesIntoExistingSets() {
+        LargeSet set = handler.getLargeSet("set");
+        assertEquals(3, set.addAll(new long[] {
+            5, 1, 3, 1
+        }));
+        assertEquals(2, set.addAll(new long[] {
+            3, 2, 4
+        }));
+        assertArrayEquals(new long[] {
+            1, 2, 3, 4, 5
+        }, set.page(Long.MIN_VALUE, 10));
+        assertEquals(0, handler.getLargeSet("other").size());
+    }
+
+    @Test(timeout = 60000)
+    public void addAllDoesNotBlockQueuedWrites() throws Exception {
+        final LargeSet set = handler.getLargeSet(1L);
+        set.add(-1);
+        handler.enableAsyncWrites(16, Durability.NO_SYNC, 0);
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+                for (long i = 0; !stop.get(); i++) {
+                    handler.put(1L, i);
+                }
+            }
+        };
+        writer.start();
+        try {
+            long[] members = new long[2000];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = i;
+            }
+            assertEquals(members.length, set.addAll(members));
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        handler.disableAsyncWrites();
+        assertEquals(2001, set.size());
+    }
+
+    /*
+     * @return key of handler 2 as written by generateKey(long) of a RAW
+     *         instance
+     */
+    private static byte[] rawKey(final long key) {
+        byte[] raw = new byte[16];
+        Serializer.writeLong(raw, 0, 2);
+        Serializer.writeLong(raw, 8, key);
+        return raw;
+    }
+
+    @Test
+    public void largeSetsAreMigrated() throws ElementNotFoundException {
+        LevelDbHandler ordered = new LevelDbHandler(2, KeyEncoding.ORDERED);
+        ordered.getLargeSet(rawKey(-2)).addAll(new long[] {
+            1, 2, 3
+        });
+        ordered.getLargeSet(rawKey(5)).add(4);
+        ordered.getLargeSet("large").add(6);
+        ordered.put(rawKey(-2), 7L);
+
+        assertEquals(1, ordered.migrateKeys(KeyEncoding.RAW));
+        assertEquals(7L, ordered.getLong(-2L));
+        assertArrayEquals(new long[] {
+            1, 2, 3
+        }, ordered.getLargeSet(-2L).page(Long.MIN_VALUE, 10));
+        assertEquals(1, ordered.getLargeSet(5L).size());
+        assertTrue(ordered.getLargeSet("large").contains(6));
+        assertEquals(0, ordered.getLargeSet(rawKey(-2)).size());
+    }
+}
@@ -0,0 +1,106 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+public class LevelDbBatchTest {
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    @Test
+    public void batchesApplyAllUpdates() throws ElementNotFoundException {
+        handler.put(3L, "removed");
+        handler.addToSet(4L, 1);
+
+        LevelDbBatch batch = handler.createBatch();
+        batch.put(1L, "one").put(2L, 2L).removeKey(3L).addToSet(4L, 2)
+                .addToSet(4L, 3).removeFromSet(4L, 1);
+        assertEquals(6, batch.size());
+        handler.write(batch);
+
+        assertEquals("one", handler.getString(1L));
+        assertEquals(2L, handler.getLong(2L));
+        assertFalse(handler.containsKey(3L));
+        assertArrayEquals(new long[] {
+            2, 3
+        }, handler.getLongs(4L));
+    }
+
+    @Test
+    public void batchesReplacePendingSetDeltas() {
+        handler.enableSetDeltas(1000);
+        handler.addToSet(1L, 1);
+        handler.addToSet(2L, 2);
+
+        LevelDbBatch batch = handler.createBatch();
+        batch.put(1L, new long[] {
+            5
+        }).removeKey(2L);
+        handler.write(batch);
+
+        assertArrayEquals(new long[] {
+            5
+        }, handler.getLongs(1L));
+        assertArrayEquals(null, handler.getLongs(2L));
+    }
+
+    @Test
+    public void failingBatchesWriteNothing() {
+        handler.put(2L, 2L);
+
+        LevelDbBatch batch = handler.createBatch();
+        batch.put(1L, "one").addToSet(2L, 5);
+        try {
+            handler.write(batch);
+            fail();
+        } catch (MetalconRuntimeException e) {
+        }
+        assertFalse(handler.containsKey(1L));
+    }
+
+    @Test
+    public void batchesAreWrittenOnce() throws ElementNotFoundException {
+        LevelDbBatch batch = handler.createBatch().addToSet(1L, 1);
+        handler.write(batch);
+        try {
+            handler.write(batch);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        try {
+            handler.writeAsync(batch);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertArrayEquals(new long[] {
+            1
+        }, handler.getLongs(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchesOfOtherInstancesAreRejected() {
+        new LevelDbHandler(2).write(handler.createBatch().put(1L, 1L));
+    }
+}
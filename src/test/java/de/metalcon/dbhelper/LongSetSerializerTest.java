@@ -0,0 +1,72 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongSetSerializerTest {
+
+    @Test
+    public void emptySet() {
+        byte[] bytes = LongSetSerializer.serialize(new long[0]);
+        assertEquals(0, LongSetSerializer.size(bytes));
+        assertArrayEquals(new long[0], LongSetSerializer.deserialize(bytes));
+        assertFalse(LongSetSerializer.contains(bytes, 0));
+    }
+
+    @Test
+    public void roundTripAcrossBlocks() {
+        Random random = new Random(42);
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+        }
+        values[0] = Long.MIN_VALUE;
+        values[1] = Long.MAX_VALUE;
+        long[] set = LongSetSerializer.toSet(values);
+
+        byte[] bytes = LongSetSerializer.serialize(set);
+        assertEquals(set.length, LongSetSerializer.size(bytes));
+        assertArrayEquals(set, LongSetSerializer.deserialize(bytes));
+        assertArrayEquals(set, Serializer.deserializeLongs(bytes));
+        for (long l : set) {
+            assertTrue(LongSetSerializer.contains(bytes, l));
+        }
+        for (int i = 0; i < 1000; i++) {
+            long l = random.nextLong();
+            assertEquals(Arrays.binarySearch(set, l) >= 0,
+                    LongSetSerializer.contains(bytes, l));
+        }
+    }
+
+    @Test
+    public void denseSetsAreSmall() {
+        long[] set = new long[10000];
+        for (int i = 0; i < set.length; i++) {
+            set[i] = 1000000 + 3 * i;
+        }
+        byte[] bytes = LongSetSerializer.serialize(set);
+        assertTrue(bytes.length < 2 * set.length);
+        assertTrue(LongSetSerializer.contains(bytes, 1000000 + 3 * 5000));
+        assertFalse(LongSetSerializer.contains(bytes, 1000001 + 3 * 5000));
+    }
+
+    @Test
+    public void addAndRemove() {
+        long[] set = LongSetSerializer.toSet(new long[] { 5, 1, 5, 3 });
+        assertArrayEquals(new long[] { 1, 3, 5 }, set);
+        assertSame(set, LongSetSerializer.add(set, 3));
+        assertArrayEquals(new long[] { 1, 3, 4, 5 },
+                LongSetSerializer.add(set, 4));
+        assertSame(set, LongSetSerializer.remove(set, 2));
+        assertArrayEquals(new long[] { 1, 5 },
+                LongSetSerializer.remove(set, 3));
+    }
+}
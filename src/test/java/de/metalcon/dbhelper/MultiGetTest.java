@@ -0,0 +1,88 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class MultiGetTest {
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1);
+        for (long i = 0; i < 10000; i += 2) {
+            handler.put(i, i);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    @Test
+    public void valuesAreReturnedInTheOrderOfTheKeys() {
+        long[] keys = {
+            8, 3, 8, 0, 20000, 4
+        };
+        MultiGetResult result = handler.multiGet(keys);
+        assertEquals(6, result.size());
+        assertEquals(4, result.getPresentCount());
+        assertEquals(8L, result.getLongOrDefault(0, -1));
+        assertFalse(result.isPresent(1));
+        assertEquals(8L, result.getLongOrDefault(2, -1));
+        assertEquals(0L, result.getLongOrDefault(3, -1));
+        assertEquals(-1L, result.getLongOrDefault(4, -1));
+        assertEquals(4L, result.getLongOrDefault(5, -1));
+    }
+
+    @Test
+    public void denseAndSparseKeysAreRead() {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            long[] keys = new long[round * 50 + 1];
+            int span = round % 2 == 0 ? 200 : 20000;
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextInt(span);
+            }
+            MultiGetResult result = handler.multiGet(keys);
+            for (int i = 0; i < keys.length; i++) {
+                boolean stored = keys[i] % 2 == 0 && keys[i] < 10000;
+                assertEquals(stored, result.isPresent(i));
+                if (stored) {
+                    assertEquals(keys[i], result.getLongOrDefault(i, -1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void typedResultsAreDecoded() {
+        handler.put("name", "metal");
+        handler.put("set", new long[] {
+            1, 2
+        });
+        MultiGetResult result = handler.multiGet(new String[] {
+            "set", "missing", "name"
+        });
+        assertArrayEquals(new long[] {
+            1, 2
+        }, result.getLongs(0));
+        assertNull(result.getString(1));
+        assertTrue(result.isPresent(2));
+        assertEquals("metal", result.getString(2));
+    }
+}
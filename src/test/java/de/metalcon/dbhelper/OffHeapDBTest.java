@@ -0,0 +1,185 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
+import org.iq80.leveldb.WriteBatch;
+import org.junit.Test;
+
+public class OffHeapDBTest {
+
+    private static DB open() {
+        return OffHeapDBFactory.factory.open(new File("test"), null);
+    }
+
+    @Test
+    public void keysAreOrderedByUnsignedBytes() throws IOException {
+        DB db = open();
+        db.put(new byte[] {
+            (byte) 0x80
+        }, new byte[] {
+            1
+        });
+        db.put(new byte[] {
+            0x01
+        }, new byte[] {
+            2
+        });
+        db.put(new byte[] {
+            0x01, 0x00
+        }, new byte[] {
+            3
+        });
+
+        DBIterator iterator = db.iterator();
+        iterator.seekToFirst();
+        assertArrayEquals(new byte[] {
+            2
+        }, iterator.next().getValue());
+        assertArrayEquals(new byte[] {
+            3
+        }, iterator.next().getValue());
+        assertArrayEquals(new byte[] {
+            1
+        }, iterator.next().getValue());
+        assertFalse(iterator.hasNext());
+        iterator.close();
+        db.close();
+    }
+
+    @Test
+    public void snapshotsKeepTheirState() throws IOException {
+        DB db = open();
+        byte[] key = "key".getBytes();
+        db.put(key, "old".getBytes());
+        Snapshot snapshot = db.getSnapshot();
+        DBIterator iterator = db.iterator();
+
+        WriteBatch batch = db.createWriteBatch();
+        batch.put(key, "new".getBytes());
+        batch.put("other".getBytes(), "value".getBytes());
+        db.write(batch);
+        db.delete(key);
+        db.compactRange(null, null);
+
+        assertNull(db.get(key));
+        ReadOptions options = new ReadOptions().snapshot(snapshot);
+        assertArrayEquals("old".getBytes(), db.get(key, options));
+        assertNull(db.get("other".getBytes(), options));
+        iterator.seekToFirst();
+        assertArrayEquals(key, iterator.next().getKey());
+        assertFalse(iterator.hasNext());
+
+        iterator.close();
+        snapshot.close();
+        db.compactRange(null, null);
+        assertArrayEquals("value".getBytes(), db.get("other".getBytes()));
+        db.close();
+    }
+
+    @Test
+    public void overwrittenValuesReleaseSlabs() throws IOException {
+        DB db = open();
+        byte[] value = new byte[OffHeapDBFactory.SLAB_SIZE / 4];
+        for (int i = 0; i < 20; i++) {
+            db.put("key".getBytes(), value);
+        }
+
+        /*
+         * The node of the key is moved out of the first slab
+         */
+        db.compactRange(null, null);
+        assertTrue(db.getProperty("leveldb.stats").contains("slabs: 1\n"));
+        assertEquals(value.length, db.get("key".getBytes()).length);
+        db.close();
+    }
+
+    @Test
+    public void randomUpdatesMatchASortedMap() throws IOException {
+        DB db = new OffHeapDB("test", 4096);
+        TreeMap<byte[], byte[]> expected =
+                new TreeMap<byte[], byte[]>(new Comparator<byte[]>() {
+
+                    @Override
+                    public int compare(final byte[] a, final byte[] b) {
+                        return ByteArrayKey.compare(a, b);
+                    }
+                });
+        Random random = new Random(42);
+        Snapshot snapshot = null;
+        TreeMap<byte[], byte[]> snapshotState = null;
+        for (int i = 0; i < 20000; i++) {
+            byte[] key = new byte[1 + random.nextInt(3)];
+            random.nextBytes(key);
+            key[0] &= 0x0F;
+            if (random.nextInt(3) == 0) {
+                db.delete(key);
+                expected.remove(key);
+            } else {
+                byte[] value = new byte[random.nextInt(40)];
+                random.nextBytes(value);
+                db.put(key, value);
+                expected.put(key, value);
+            }
+            if (i % 1000 == 0) {
+                db.compactRange(null, null);
+            }
+            if (i == 10000) {
+                snapshot = db.getSnapshot();
+                snapshotState = new TreeMap<byte[], byte[]>(expected);
+            }
+        }
+
+        assertState(expected, db, new ReadOptions());
+        db.compactRange(null, null);
+        assertState(snapshotState, db, new ReadOptions().snapshot(snapshot));
+        snapshot.close();
+
+        for (byte[] key : expected.keySet()) {
+            db.delete(key);
+        }
+        db.compactRange(null, null);
+        String stats = db.getProperty("leveldb.stats");
+        assertTrue(stats.contains("keys: 0\n"));
+        assertTrue(stats.contains("live bytes: 0\n"));
+        assertTrue(stats.contains("slabs: 1\n"));
+        db.close();
+    }
+
+    private static void assertState(final TreeMap<byte[], byte[]> expected,
+            final DB db, final ReadOptions options) throws IOException {
+        DBIterator iterator = db.iterator(options);
+        iterator.seekToFirst();
+        for (Map.Entry<byte[], byte[]> entry : expected.entrySet()) {
+            Map.Entry<byte[], byte[]> actual = iterator.next();
+            assertArrayEquals(entry.getKey(), actual.getKey());
+            assertArrayEquals(entry.getValue(), actual.getValue());
+            assertArrayEquals(entry.getValue(), db.get(entry.getKey(),
+                    options));
+        }
+        assertFalse(iterator.hasNext());
+
+        iterator.seekToLast();
+        for (byte[] key : expected.descendingKeySet()) {
+            assertArrayEquals(key, iterator.peekNext().getKey());
+            if (iterator.hasPrev()) {
+                iterator.prev();
+            }
+        }
+        iterator.close();
+    }
+}
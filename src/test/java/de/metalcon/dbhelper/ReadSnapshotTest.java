@@ -0,0 +1,82 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class ReadSnapshotTest {
+
+    private LevelDbHandler counts;
+
+    private LevelDbHandler likes;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(2);
+        counts = new LevelDbHandler(1);
+        likes = new LevelDbHandler(2);
+        counts.enableCache(1 << 20);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    @Test
+    public void readsSeeTheStateTheSnapshotWasOpenedIn()
+            throws ElementNotFoundException {
+        counts.put(1L, 1L);
+        likes.addToSet(1L, 10);
+        assertEquals(1L, counts.getLong(1L));
+
+        ReadSnapshot snapshot = LevelDbHandler.openSnapshot();
+        try {
+            counts.put(1L, 2L);
+            likes.addToSet(1L, 11);
+            counts.put(2L, 2L);
+
+            assertEquals(1L, counts.getLong(1L));
+            assertArrayEquals(new long[] {
+                10
+            }, likes.getLongs(1L));
+            assertFalse(likes.setContainsElement(1L, 11));
+            assertFalse(counts.containsKey(2L));
+        } finally {
+            snapshot.close();
+        }
+
+        assertEquals(2L, counts.getLong(1L));
+        assertTrue(likes.setContainsElement(1L, 11));
+        assertTrue(counts.containsKey(2L));
+    }
+
+    @Test
+    public void scansOfASnapshotOutliveIt() {
+        counts.put(1L, 1L);
+        ReadSnapshot snapshot = LevelDbHandler.openSnapshot();
+        KeyScan scan;
+        try {
+            scan = counts.scan();
+        } finally {
+            snapshot.close();
+        }
+        counts.put(2L, 2L);
+
+        int entries = 0;
+        for (KeyScan.Entry entry : scan) {
+            assertEquals(1L, entry.getLong());
+            entries++;
+        }
+        assertEquals(1, entries);
+    }
+}
@@ -0,0 +1,107 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconRuntimeException;
+
+public class SerializerTest {
+
+    private static byte[] legacy(Object obj) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(obj);
+        oos.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void roundTripPrimitives() {
+        assertEquals(Long.MIN_VALUE,
+                Serializer.deserializeLong(Serializer.serialize(Long.MIN_VALUE)));
+        assertEquals(-42, Serializer.deserializeInt(Serializer.serialize(-42)));
+        assertEquals((short) -7,
+                Serializer.deserializeShort(Serializer.serialize((short) -7)));
+        assertTrue(Serializer.deserializeBoolean(Serializer.serialize(true)));
+        assertFalse(Serializer.deserializeBoolean(Serializer.serialize(false)));
+        assertEquals(10, Serializer.serialize(1L).length);
+    }
+
+    @Test
+    public void roundTripStringAndLongs() {
+        String s = "Gr\u00fc\u00dfe aus Koblenz";
+        assertEquals(s, Serializer.deserializeString(Serializer.serialize(s)));
+
+        long[] longs = new long[] { 3, -1, Long.MAX_VALUE, 0 };
+        assertArrayEquals(longs,
+                Serializer.deserializeLongs(Serializer.serialize(longs)));
+        assertArrayEquals(longs,
+                (long[]) Serializer.deserialize(Serializer.Serialize(longs)));
+
+        assertNull(Serializer.deserializeString(null));
+        assertNull(Serializer.deserializeLongs(null));
+    }
+
+    @Test
+    public void widening() {
+        assertEquals(5L, Serializer.deserializeLong(Serializer.serialize(5)));
+        assertEquals(5L,
+                Serializer.deserializeLong(Serializer.serialize((short) 5)));
+    }
+
+    @Test
+    public void utf8MatchesStringGetBytes() {
+        String[] values = {
+            "", "ascii", "Gr\u00fc\u00dfe", "\u20ac\u4e2d\u6587",
+            "\ud83c\udfb8 metal", "broken \ud83c", "\udfb8 broken"
+        };
+        for (String value : values) {
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            assertEquals(expected.length, Serializer.utf8Length(value));
+            byte[] actual = new byte[expected.length];
+            assertEquals(expected.length,
+                    Serializer.writeUtf8(actual, 0, value));
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void serializeIntoBuffer() {
+        assertArrayEquals(Serializer.serialize(-7L),
+                Serializer.serialize(-7L, new byte[10]));
+        assertArrayEquals(Serializer.serialize(7),
+                Serializer.serialize(7, new byte[6]));
+        assertArrayEquals(Serializer.serialize((short) 7),
+                Serializer.serialize((short) 7, new byte[4]));
+        assertArrayEquals(Serializer.serialize(true),
+                Serializer.serialize(true, new byte[3]));
+    }
+
+    @Test(expected = MetalconRuntimeException.class)
+    public void typeMismatch() {
+        Serializer.deserializeInt(Serializer.serialize("1"));
+    }
+
+    @Test
+    public void readsLegacyValues() throws IOException {
+        byte[] old = legacy(new long[] { 1, 2, 3 });
+        assertTrue(Serializer.isLegacy(old));
+        assertArrayEquals(new long[] { 1, 2, 3 },
+                Serializer.deserializeLongs(old));
+        assertEquals(17L, Serializer.deserializeLong(legacy(17L)));
+        assertEquals(17, Serializer.deserializeInt(legacy(17)));
+        assertEquals("x", Serializer.deserializeString(legacy("x")));
+        assertTrue(Serializer.deserializeBoolean(legacy(true)));
+        assertFalse(Serializer.isLegacy(Serializer.serialize(1L)));
+    }
+}
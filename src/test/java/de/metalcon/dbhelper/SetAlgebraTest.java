@@ -0,0 +1,105 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class SetAlgebraTest {
+
+    @Test
+    public void encodedCursorSkipsBlocks() {
+        long[] set = randomSet(new Random(7), 5000, 100000);
+        SetCursor cursor =
+                LongSetSerializer.cursor(LongSetSerializer.serialize(set));
+        assertEquals(set[set.length - 1], cursor.last());
+        for (int i = 0; i + 1 < set.length; i += 97) {
+            cursor.advance(set[i]);
+            assertEquals(set[i], cursor.current());
+            cursor.advance(set[i] + 1);
+            assertEquals(set[i + 1], cursor.current());
+        }
+        cursor.advance(Long.MAX_VALUE);
+        assertEquals(false, cursor.hasCurrent());
+    }
+
+    @Test
+    public void operationsMatchTreeSets() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            int sets = 1 + random.nextInt(4);
+            long[][] members = new long[sets][];
+            for (int i = 0; i < sets; i++) {
+                members[i] =
+                        randomSet(random, random.nextInt(2000),
+                                round % 2 == 0 ? 3000 : Long.MAX_VALUE);
+            }
+
+            TreeSet<Long> intersection = toTreeSet(members[0]);
+            TreeSet<Long> union = new TreeSet<Long>();
+            TreeSet<Long> difference = toTreeSet(members[0]);
+            for (int i = 0; i < sets; i++) {
+                intersection.retainAll(toTreeSet(members[i]));
+                union.addAll(toTreeSet(members[i]));
+                if (i > 0) {
+                    difference.removeAll(toTreeSet(members[i]));
+                }
+            }
+
+            assertArrayEquals(toArray(intersection),
+                    SetAlgebra.intersect(cursors(members, round)));
+            assertEquals(intersection.size(),
+                    SetAlgebra.intersectCount(cursors(members, round)));
+            assertArrayEquals(toArray(union),
+                    SetAlgebra.union(cursors(members, round)));
+            assertArrayEquals(toArray(difference),
+                    SetAlgebra.difference(cursors(members, round)));
+        }
+    }
+
+    /*
+     * Alternates between encoded and plain cursors
+     */
+    private static SetCursor[] cursors(final long[][] members,
+            final int round) {
+        SetCursor[] cursors = new SetCursor[members.length];
+        for (int i = 0; i < members.length; i++) {
+            cursors[i] =
+                    (round + i) % 2 == 0 ? SetCursor.of(members[i])
+                            : LongSetSerializer.cursor(LongSetSerializer
+                                    .serialize(members[i]));
+        }
+        return cursors;
+    }
+
+    private static long[] randomSet(final Random random, final int size,
+            final long range) {
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] =
+                    range == Long.MAX_VALUE ? random.nextLong() : random
+                            .nextInt((int) range);
+        }
+        return LongSetSerializer.toSet(values);
+    }
+
+    private static TreeSet<Long> toTreeSet(final long[] set) {
+        TreeSet<Long> tree = new TreeSet<Long>();
+        for (long l : set) {
+            tree.add(l);
+        }
+        return tree;
+    }
+
+    private static long[] toArray(final TreeSet<Long> set) {
+        long[] array = new long[set.size()];
+        int i = 0;
+        for (long l : set) {
+            array[i++] = l;
+        }
+        return array;
+    }
+}
@@ -0,0 +1,111 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class SetDeltasTest {
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    /*
+     * @return the set as stored, without its pending deltas
+     */
+    private long[] stored(final long key) {
+        KeyScan scan = handler.range(key, key + 1);
+        try {
+            return scan.hasNext() ? scan.next().getLongs() : null;
+        } finally {
+            scan.close();
+        }
+    }
+
+    @Test
+    public void readsMergePendingDeltas() {
+        handler.put(1L, new long[] {
+            5, 1
+        });
+        handler.enableSetDeltas(1000);
+        handler.addToSet(1L, 3);
+        handler.addToSet(1L, 7);
+        assertTrue(handler.removeFromSet(1L, 5));
+        assertFalse(handler.removeFromSet(1L, 9));
+
+        assertArrayEquals(new long[] {
+            1, 3, 7
+        }, handler.getLongs(1L));
+        assertTrue(handler.setContainsElement(1L, 7));
+        assertFalse(handler.setContainsElement(1L, 5));
+        assertArrayEquals(new long[] {
+            5, 1
+        }, stored(1L));
+
+        handler.compactSets();
+        assertArrayEquals(new long[] {
+            1, 3, 7
+        }, stored(1L));
+    }
+
+    @Test
+    public void setsAreCompactedAtTheThreshold() {
+        handler.enableSetDeltas(3);
+        handler.addToSet(2L, 1);
+        handler.addToSet(2L, 2);
+        assertArrayEquals(null, stored(2L));
+        handler.addToSet(2L, 3);
+        assertArrayEquals(new long[] {
+            1, 2, 3
+        }, stored(2L));
+    }
+
+    @Test
+    public void putReplacesPendingDeltas() {
+        handler.enableSetDeltas(1000);
+        handler.addToSet(3L, 1);
+        handler.put(3L, new long[] {
+            8
+        });
+        assertArrayEquals(new long[] {
+            8
+        }, handler.getLongs(3L));
+
+        handler.addToSet(3L, 9);
+        handler.disableSetDeltas();
+        assertArrayEquals(new long[] {
+            8, 9
+        }, stored(3L));
+    }
+
+    @Test
+    public void removeKeyDropsPendingDeltas() {
+        handler.enableSetDeltas(1000);
+        handler.addToSet(4L, 1);
+        handler.removeKey(4L);
+        assertArrayEquals(null, handler.getLongs(4L));
+
+        handler.addToSet(4L, 2);
+        handler.disableSetDeltas();
+        assertArrayEquals(new long[] {
+            2
+        }, stored(4L));
+    }
+}
@@ -0,0 +1,97 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class SetLockTest {
+
+    private static final int THREADS = 8;
+
+    private static final int UPDATES = 500;
+
+    private LevelDbHandler handler;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(1);
+        handler = new LevelDbHandler(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    /*
+     * Every thread adds its own members to one set and removes every second
+     * one again
+     */
+    private void updateConcurrently() throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final long first = t * UPDATES;
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (long i = first; i < first + UPDATES; i++) {
+                            handler.addToSet(1L, i);
+                            if (i % 2 == 1) {
+                                handler.removeFromSet(1L, i);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.size());
+    }
+
+    private static long[] evenMembers() {
+        long[] expected = new long[THREADS * UPDATES / 2];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = 2 * i;
+        }
+        return expected;
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentUpdatesOfOneSetAreNotLost()
+            throws InterruptedException {
+        updateConcurrently();
+        assertArrayEquals(evenMembers(), handler.getLongs(1L));
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentDeltasOfOneSetAreNotLost()
+            throws InterruptedException {
+        handler.enableSetDeltas(64);
+        updateConcurrently();
+        assertArrayEquals(evenMembers(), handler.getLongs(1L));
+    }
+}
@@ -0,0 +1,72 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.metalcon.exceptions.MetalconException;
+
+public class ShardsTest {
+
+    private static final int SHARDS = 4;
+
+    @Before
+    public void setUp() throws IOException, MetalconException {
+        TestDb.open(SHARDS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDb.close();
+    }
+
+    @Test
+    public void instancesAreSpreadOverAllShards() {
+        assertEquals(SHARDS, LevelDbHandler.getShardCount());
+        Set<Integer> used = new HashSet<Integer>();
+        for (long prefix = 0; prefix < 64; prefix++) {
+            int shard = LevelDbHandler.shardIndex(prefix, SHARDS);
+            assertTrue(shard >= 0 && shard < SHARDS);
+            assertEquals(shard, LevelDbHandler.shardIndex(prefix, SHARDS));
+            used.add(shard);
+        }
+        assertEquals(SHARDS, used.size());
+    }
+
+    @Test
+    public void instancesOnDifferentShardsKeepTheirData()
+            throws ElementNotFoundException {
+        LevelDbHandler[] handlers = new LevelDbHandler[16];
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = new LevelDbHandler(i);
+            for (long key = 0; key < 100; key++) {
+                handlers[i].put(key, i * 1000 + key);
+            }
+        }
+        for (int i = 0; i < handlers.length; i++) {
+            for (long key = 0; key < 100; key++) {
+                assertEquals(i * 1000 + key, handlers[i].getLong(key));
+            }
+            KeyScan scan = handlers[i].scan();
+            int entries = 0;
+            for (KeyScan.Entry entry : scan) {
+                assertEquals(i * 1000 + entry.getLongKey(), entry.getLong());
+                entries++;
+            }
+            assertEquals(100, entries);
+        }
+    }
+
+    @Test(expected = MetalconException.class)
+    public void shardsCanOnlyBeInitializedOnce() throws IOException,
+            MetalconException {
+        TestDb.open(1);
+    }
+}
@@ -0,0 +1,50 @@
+package de.metalcon.dbhelper;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.fusesource.leveldbjni.JniDBFactory;
+import org.iq80.leveldb.DBFactory;
+
+import de.metalcon.exceptions.MetalconException;
+
+/**
+ * Opens the shared DB of handler tests with levelDB, the default engine of
+ * LevelDbHandler, and deletes it again
+ */
+final class TestDb {
+
+    private TestDb() {
+    }
+
+    /**
+     * Initializes LevelDbHandler with the given number of levelDB shards
+     */
+    static void open(final int shards) throws IOException, MetalconException {
+        open(JniDBFactory.factory, shards);
+    }
+
+    /**
+     * Initializes LevelDbHandler with the given number of shards opened by
+     * engine
+     */
+    static void open(final DBFactory engine, final int shards)
+            throws IOException, MetalconException {
+        String[] paths = new String[shards];
+        for (int i = 0; i < shards; i++) {
+            File dir = File.createTempFile("dbhelper-test", "");
+            if (!dir.delete()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            paths[i] = dir.getPath();
+        }
+        LevelDbHandler.initializeShards(engine, paths);
+    }
+
+    /**
+     * Closes the DB and deletes its directories
+     */
+    static void close() throws IOException {
+        LevelDbHandler.clearDataBase("Yes I am");
+    }
+}
@@ -0,0 +1,50 @@
+package de.metalcon.dbhelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ValueCacheTest {
+
+    private static byte[] key(final int i) {
+        return new byte[] {
+            (byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i
+        };
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        ValueCache cache = new ValueCache(1 << 20);
+        assertNull(cache.get(key(1)));
+        cache.put(key(1), 5L, cache.stamp(key(1)));
+        assertEquals(5L, cache.get(key(1)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void invalidationRejectsOutdatedValue() {
+        ValueCache cache = new ValueCache(1 << 20);
+        long stamp = cache.stamp(key(1));
+        cache.invalidate(key(1));
+        cache.put(key(1), 5L, stamp);
+        assertNull(cache.get(key(1)));
+
+        cache.put(key(1), 6L, cache.stamp(key(1)));
+        cache.invalidate(key(1));
+        assertNull(cache.get(key(1)));
+    }
+
+    @Test
+    public void evictsToStayWithinCapacity() {
+        ValueCache cache = new ValueCache(16 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            cache.put(key(i), new long[16], cache.stamp(key(i)));
+        }
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(10000 - cache.getEvictionCount(), cache.size());
+    }
+}